@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry;
+
+import com.ibm.kafka.retry.consumer.serde.BinaryRetryInfoSerde;
+import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.RetryHeaderCodec;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.repository.MessageRepository;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.processor.TaskId;
+import org.apache.kafka.streams.state.KeyValueBytesStoreSupplier;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks. State stores are created outside a topology, with change logging disabled, and
+ * bound to a {@link MockProcessorContext} so they can be used directly by the repository and processor.
+ */
+public class BenchmarkUtil {
+
+    public static final String ORIGIN_TOPIC = "orders";
+
+    public static final String PERMANENT_FAILURE_TOPIC = "permanent-failure";
+
+    public static final String MESSAGE_STORE_NAME = "retry-info-store";
+
+    public static final String INDEX_STORE_NAME = "retry-index-store";
+
+    public static final String RETRIABLE_EXCEPTION_NAME = "TimeoutException";
+
+    public static final String FATAL_EXCEPTION_NAME = "SchemaValidationException";
+
+    public static final String DROPPABLE_EXCEPTION_NAME = "DuplicateMessageException";
+
+    public static final long FIRST_RETRY_DELAY_MS = 1000;
+
+    public static final long SECOND_RETRY_DELAY_MS = 10000;
+
+    public static final long THIRD_RETRY_DELAY_MS = 60000;
+
+    private static final long SEED = 42;
+
+    public enum StoreType {
+        IN_MEMORY, ROCKSDB
+    }
+
+    public static ApplicationProperties createProperties() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetriableException(RETRIABLE_EXCEPTION_NAME);
+        props.setFatalException(FATAL_EXCEPTION_NAME + ",*ValidationException");
+        props.setDroppableException(DROPPABLE_EXCEPTION_NAME);
+        props.setPermanentFailureTopic(PERMANENT_FAILURE_TOPIC);
+        props.setPayloadContentType("application/json");
+        props.setRetryInfoStoreName(MESSAGE_STORE_NAME);
+        props.setRetryIndexStoreName(INDEX_STORE_NAME);
+        props.setRetrySchedulerIntervalMs(1000);
+        Map<Integer, Long> retryDelays = new HashMap<>();
+        retryDelays.put(1, FIRST_RETRY_DELAY_MS);
+        retryDelays.put(2, SECOND_RETRY_DELAY_MS);
+        retryDelays.put(3, THIRD_RETRY_DELAY_MS);
+        props.setRetryDelaysMs(retryDelays);
+        return props;
+    }
+
+    public static MockProcessorContext createContext(File stateDir) {
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "benchmark");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "benchmark:1234");
+        return new MockProcessorContext(config, new TaskId(0, 0), stateDir);
+    }
+
+    public static KeyValueStore<String, RetryInfo> createMessageStore(MockProcessorContext context, StoreType storeType) {
+        KeyValueStore<String, RetryInfo> store = Stores.keyValueStoreBuilder(createStoreSupplier(MESSAGE_STORE_NAME, storeType),
+                Serdes.String(), new BinaryRetryInfoSerde()).withLoggingDisabled().build();
+        store.init(context, store);
+        return store;
+    }
+
+    public static KeyValueStore<Bytes, String> createIndexStore(MockProcessorContext context, StoreType storeType) {
+        KeyValueStore<Bytes, String> store = Stores.keyValueStoreBuilder(createStoreSupplier(INDEX_STORE_NAME, storeType),
+                Serdes.Bytes(), Serdes.String()).withLoggingDisabled().build();
+        store.init(context, store);
+        return store;
+    }
+
+    /**
+     * Headers as written by the Spring Cloud Stream binder on a message sent to the retry topic, including a few headers
+     * that the retry engine ignores.
+     */
+    public static Headers createRetryHeaders(String exceptionName, int completedRetries, long timeStamp) {
+        return createRetryHeaders(exceptionName, completedRetries, timeStamp, false);
+    }
+
+    /**
+     * @param binary Whether the retry attempts and time stamp are in the binary format rather than text.
+     */
+    public static Headers createRetryHeaders(String exceptionName, int completedRetries, long timeStamp, boolean binary) {
+        Headers headers = new RecordHeaders();
+        headers.add("contentType", quoted("application/json"));
+        headers.add("spring_json_header_types", ("{\"contentType\":\"java.lang.String\",\"" + MessageHeaders.ORIGIN_TOPIC
+                + "\":\"java.lang.String\"}").getBytes(StandardCharsets.UTF_8));
+        headers.add("traceparent", quoted("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+        headers.add(MessageHeaders.EXCEPTION_TYPE, quoted(exceptionName));
+        headers.add(MessageHeaders.ORIGIN_TOPIC, quoted(ORIGIN_TOPIC));
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, RetryHeaderCodec.encodeRetryAttempts(completedRetries, binary));
+        headers.add(MessageHeaders.PRODUCED_TIMESTAMP_MS, binary ? RetryHeaderCodec.encodeTimestamp(timeStamp, true)
+                : quoted(String.valueOf(timeStamp)));
+        return headers;
+    }
+
+    /**
+     * @param size Payload size in bytes.
+     * @return Printable JSON-like bytes, so the payload is representative of what the JSON store format has to encode.
+     */
+    public static byte[] createPayload(int size) {
+        Random random = new Random(SEED);
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) (' ' + random.nextInt('~' - ' '));
+        }
+        return payload;
+    }
+
+    public static String createMessageId(int index) {
+        return String.format("message-%010d", index);
+    }
+
+    /**
+     * Queue messages spread over the retry attempts, one millisecond apart from a time stamp.
+     * @param repository An initialized repository.
+     * @param count The number of messages to queue.
+     * @param timeStamp The time stamp of the first message.
+     * @param payload The payload of every message.
+     */
+    public static void queueMessages(MessageRepository repository, int count, long timeStamp, byte[] payload) {
+        for (int i = 0; i < count; i++) {
+            repository.addToRetryQueue(createMessageId(i), RetryInfo.builder().originTopic(ORIGIN_TOPIC).retryAttempt(i % 3 + 1)
+                    .timeStamp(timeStamp + i).payload(payload).build());
+        }
+    }
+
+    private static KeyValueBytesStoreSupplier createStoreSupplier(String name, StoreType storeType) {
+        return storeType == StoreType.ROCKSDB ? Stores.persistentKeyValueStore(name) : Stores.inMemoryKeyValueStore(name);
+    }
+
+    private static byte[] quoted(String value) {
+        return ("\"" + value + "\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Discards all messages, so only the retry engine is measured.
+     */
+    public static class NoOpMessageProducer implements MessageProducer {
+
+        @Override
+        public void sendToOriginTopic(String topic, Headers headers, byte[] payload) {
+            // Discarded
+        }
+
+        @Override
+        public void sendToPermanentFailureTopic(Headers headers, byte[] payload) {
+            // Discarded
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.BenchmarkUtil;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.ExceptionRoute;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.repository.MessageRepository;
+import com.ibm.kafka.retry.repository.impl.KafkaStreamsMessageRepository;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import com.ibm.kafka.retry.service.HeaderExtractionService;
+import com.ibm.kafka.retry.service.MessageDispatchService;
+import com.ibm.kafka.retry.service.MessageQueryService;
+import com.ibm.kafka.retry.service.impl.DefaultActionService;
+import com.ibm.kafka.retry.service.impl.DefaultExceptionRoutingService;
+import com.ibm.kafka.retry.service.impl.DefaultHeaderExtractionService;
+import com.ibm.kafka.retry.service.impl.DefaultMessageDispatchService;
+import com.ibm.kafka.retry.service.impl.DefaultMessageQueryService;
+import com.ibm.kafka.retry.service.impl.FixedBackoffPolicy;
+import com.ibm.kafka.retry.service.impl.NoOpAuditService;
+import com.ibm.kafka.retry.service.impl.NoOpCircuitBreakerService;
+import com.ibm.kafka.retry.service.impl.TokenBucketRateLimitService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing a message read from the retry topic: header extraction, exception routing and, for retriable messages,
+ * queueing to the state stores. Message IDs cycle through a fixed set so the stores stay the same size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetryMessageProcessorBenchmark {
+
+    private static final int MESSAGE_IDS = 10000;
+
+    @Param({"IN_MEMORY", "ROCKSDB"})
+    private BenchmarkUtil.StoreType storeType;
+
+    @Param({"RETRIABLE", "FATAL", "DROPPABLE"})
+    private ExceptionRoute route;
+
+    @Param({"1024"})
+    private int payloadSize;
+
+    private File stateDir;
+
+    private KeyValueStore<String, RetryInfo> messageStore;
+
+    private KeyValueStore<Bytes, String> indexStore;
+
+    private RetryMessageProcessor processor;
+
+    private String[] messageIds;
+
+    private byte[] payload;
+
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        ApplicationProperties props = BenchmarkUtil.createProperties();
+        RetryMetrics metrics = new RetryMetrics(new SimpleMeterRegistry());
+        HeaderExtractionService headerService = new DefaultHeaderExtractionService();
+        MessageQueryService queryService = new DefaultMessageQueryService(props, headerService,
+                new DefaultExceptionRoutingService(props));
+        MessageRepository repository = new KafkaStreamsMessageRepository(props, metrics);
+        MessageProducer producer = new BenchmarkUtil.NoOpMessageProducer();
+        AuditService auditService = new NoOpAuditService();
+        CircuitBreakerService circuitBreakerService = new NoOpCircuitBreakerService();
+        MessageDispatchService dispatchService = new DefaultMessageDispatchService(props, repository, producer, metrics, auditService,
+                new TokenBucketRateLimitService(props), circuitBreakerService, null);
+        processor = new RetryMessageProcessor(props, headerService, queryService,
+                new DefaultActionService(headerService, repository, producer, metrics, auditService,
+                new FixedBackoffPolicy(props)), repository, dispatchService, circuitBreakerService, producer, metrics);
+
+        stateDir = Files.createTempDirectory("retry-benchmark").toFile();
+        MockProcessorContext context = BenchmarkUtil.createContext(stateDir);
+        messageStore = BenchmarkUtil.createMessageStore(context, storeType);
+        indexStore = BenchmarkUtil.createIndexStore(context, storeType);
+        long timeStamp = System.currentTimeMillis();
+        context.setRecordMetadata(ApplicationProperties.RETRY_CHANNEL, 0, 0, BenchmarkUtil.createRetryHeaders(
+                getExceptionName(), 0, timeStamp), timeStamp);
+        processor.init(context);
+
+        messageIds = new String[MESSAGE_IDS];
+        for (int i = 0; i < MESSAGE_IDS; i++) {
+            messageIds[i] = BenchmarkUtil.createMessageId(i);
+        }
+        payload = BenchmarkUtil.createPayload(payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        processor.close();
+        messageStore.close();
+        indexStore.close();
+        Utils.delete(stateDir);
+    }
+
+    @Benchmark
+    public void process() {
+        processor.process(messageIds[next], payload);
+        next = (next + 1) % MESSAGE_IDS;
+    }
+
+    private String getExceptionName() {
+        String exceptionName;
+        switch (route) {
+            case FATAL:
+                exceptionName = BenchmarkUtil.FATAL_EXCEPTION_NAME;
+                break;
+            case DROPPABLE:
+                exceptionName = BenchmarkUtil.DROPPABLE_EXCEPTION_NAME;
+                break;
+            default:
+                exceptionName = BenchmarkUtil.RETRIABLE_EXCEPTION_NAME;
+                break;
+        }
+        return exceptionName;
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.BenchmarkUtil;
+import com.ibm.kafka.retry.model.RetryInfo;
+import org.apache.kafka.common.serialization.Serde;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and deserializing queued messages in each store format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetryInfoSerdeBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    private ApplicationProperties.StoreFormat format;
+
+    @Param({"256", "4096", "65536"})
+    private int payloadSize;
+
+    private Serde<RetryInfo> serde;
+
+    private RetryInfo retryInfo;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        serde = format == ApplicationProperties.StoreFormat.JSON ? new RetryInfoSerde() : new BinaryRetryInfoSerde();
+        retryInfo = RetryInfo.builder().originTopic(BenchmarkUtil.ORIGIN_TOPIC).retryAttempt(2)
+                .timeStamp(System.currentTimeMillis()).payload(BenchmarkUtil.createPayload(payloadSize)).build();
+        data = serde.serializer().serialize(BenchmarkUtil.MESSAGE_STORE_NAME, retryInfo);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serde.serializer().serialize(BenchmarkUtil.MESSAGE_STORE_NAME, retryInfo);
+    }
+
+    @Benchmark
+    public RetryInfo deserialize() {
+        return serde.deserializer().deserialize(BenchmarkUtil.MESSAGE_STORE_NAME, data);
+    }
+
+    @Benchmark
+    public RetryInfo roundTrip() {
+        byte[] serialized = serde.serializer().serialize(BenchmarkUtil.MESSAGE_STORE_NAME, retryInfo);
+        return serde.deserializer().deserialize(BenchmarkUtil.MESSAGE_STORE_NAME, serialized);
+    }
+
+}
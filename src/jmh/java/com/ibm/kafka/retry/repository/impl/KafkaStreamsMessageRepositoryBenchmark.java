@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.BenchmarkUtil;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.repository.MessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading queued messages from stores of increasing size. The largest sizes need a large heap for the in-memory store,
+ * e.g. run with -p entries=10000000 and -jvmArgs -Xmx16g.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class KafkaStreamsMessageRepositoryBenchmark {
+
+    /**
+     * Window of time stamps that are due for dispatch. About a third of the messages in the window are due, as the
+     * messages are spread over the retry attempts.
+     */
+    private static final int DUE_WINDOW_MS = 3000;
+
+    @Param({"IN_MEMORY", "ROCKSDB"})
+    private BenchmarkUtil.StoreType storeType;
+
+    @Param({"10000", "100000", "1000000"})
+    private int entries;
+
+    @Param({"1024"})
+    private int payloadSize;
+
+    private File stateDir;
+
+    private KeyValueStore<String, RetryInfo> messageStore;
+
+    private KeyValueStore<Bytes, String> indexStore;
+
+    private MessageRepository repository;
+
+    private long dueTimeStamp;
+
+    @Setup
+    public void setup() throws IOException {
+        ApplicationProperties props = BenchmarkUtil.createProperties();
+        repository = new KafkaStreamsMessageRepository(props, new RetryMetrics(new SimpleMeterRegistry()));
+        stateDir = Files.createTempDirectory("retry-benchmark").toFile();
+        MockProcessorContext context = BenchmarkUtil.createContext(stateDir);
+        messageStore = BenchmarkUtil.createMessageStore(context, storeType);
+        indexStore = BenchmarkUtil.createIndexStore(context, storeType);
+        repository.init(messageStore, indexStore, stateDir);
+        long timeStamp = System.currentTimeMillis();
+        BenchmarkUtil.queueMessages(repository, entries, timeStamp, BenchmarkUtil.createPayload(payloadSize));
+        dueTimeStamp = timeStamp + BenchmarkUtil.FIRST_RETRY_DELAY_MS + DUE_WINDOW_MS;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        messageStore.close();
+        indexStore.close();
+        Utils.delete(stateDir);
+    }
+
+    @Benchmark
+    public Map<String, RetryInfo> queuedMessages() {
+        return repository.getQueuedMessages(1);
+    }
+
+    @Benchmark
+    public void dueMessages(Blackhole blackhole) {
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(dueTimeStamp)) {
+            messages.forEachRemaining(blackhole::consume);
+        }
+    }
+
+}
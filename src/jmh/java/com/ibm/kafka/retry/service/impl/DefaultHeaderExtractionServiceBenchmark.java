@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.BenchmarkUtil;
+import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.model.RetryHeaders;
+import com.ibm.kafka.retry.service.HeaderExtractionService;
+import org.apache.kafka.common.header.Headers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the retry headers of a message, either parsed once into a {@link RetryHeaders} view or looked up one header at
+ * a time, with the retry attempts and time stamp in text or in the binary format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DefaultHeaderExtractionServiceBenchmark {
+
+    @Param({"false", "true"})
+    private boolean binaryHeaders;
+
+    private HeaderExtractionService headerService;
+
+    private Headers headers;
+
+    @Setup
+    public void setup() {
+        headerService = new DefaultHeaderExtractionService(binaryHeaders);
+        headers = BenchmarkUtil.createRetryHeaders(BenchmarkUtil.RETRIABLE_EXCEPTION_NAME, 1, System.currentTimeMillis(),
+                binaryHeaders);
+    }
+
+    @Benchmark
+    public void retryHeaders(Blackhole blackhole) throws IllegalRetryStateException {
+        RetryHeaders retryHeaders = headerService.getRetryHeaders(headers);
+        blackhole.consume(retryHeaders.getExceptionName());
+        blackhole.consume(retryHeaders.getOriginTopic());
+        blackhole.consume(retryHeaders.getCompletedRetries());
+        blackhole.consume(retryHeaders.getTimestamp());
+    }
+
+    @Benchmark
+    public void headerLookups(Blackhole blackhole) throws IllegalRetryStateException {
+        blackhole.consume(headerService.getExceptionName(headers));
+        blackhole.consume(headerService.getOriginTopic(headers));
+        blackhole.consume(headerService.getCompletedRetries(headers));
+        blackhole.consume(headerService.getTimestamp(headers));
+    }
+
+}
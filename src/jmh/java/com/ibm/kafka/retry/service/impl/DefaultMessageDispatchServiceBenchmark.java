@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.BenchmarkUtil;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.repository.MessageRepository;
+import com.ibm.kafka.retry.repository.impl.KafkaStreamsMessageRepository;
+import com.ibm.kafka.retry.service.MessageDispatchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduled dispatch of a batch of due messages from stores that also hold a large number of messages that are not
+ * yet due. The due batch is queued again before each invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class DefaultMessageDispatchServiceBenchmark {
+
+    private static final long NOT_DUE_OFFSET_MS = TimeUnit.DAYS.toMillis(1);
+
+    @Param({"IN_MEMORY", "ROCKSDB"})
+    private BenchmarkUtil.StoreType storeType;
+
+    @Param({"10000", "100000", "1000000"})
+    private int entries;
+
+    @Param({"1000"})
+    private int dueMessages;
+
+    @Param({"1024"})
+    private int payloadSize;
+
+    private File stateDir;
+
+    private KeyValueStore<String, RetryInfo> messageStore;
+
+    private KeyValueStore<Bytes, String> indexStore;
+
+    private MessageRepository repository;
+
+    private MessageDispatchService dispatchService;
+
+    private byte[] payload;
+
+    private long timeStamp;
+
+    @Setup
+    public void setup() throws IOException {
+        ApplicationProperties props = BenchmarkUtil.createProperties();
+        RetryMetrics metrics = new RetryMetrics(new SimpleMeterRegistry());
+        repository = new KafkaStreamsMessageRepository(props, metrics);
+        dispatchService = new DefaultMessageDispatchService(props, repository, new BenchmarkUtil.NoOpMessageProducer(), metrics,
+                new NoOpAuditService(), new TokenBucketRateLimitService(props), new NoOpCircuitBreakerService(), null);
+        stateDir = Files.createTempDirectory("retry-benchmark").toFile();
+        MockProcessorContext context = BenchmarkUtil.createContext(stateDir);
+        messageStore = BenchmarkUtil.createMessageStore(context, storeType);
+        indexStore = BenchmarkUtil.createIndexStore(context, storeType);
+        repository.init(messageStore, indexStore, stateDir);
+        payload = BenchmarkUtil.createPayload(payloadSize);
+        timeStamp = System.currentTimeMillis();
+        BenchmarkUtil.queueMessages(repository, entries, timeStamp + NOT_DUE_OFFSET_MS, payload);
+    }
+
+    @Setup(Level.Invocation)
+    public void queueDueMessages() {
+        for (int i = 0; i < dueMessages; i++) {
+            repository.addToRetryQueue("due-" + i, RetryInfo.builder().originTopic(BenchmarkUtil.ORIGIN_TOPIC).retryAttempt(1)
+                    .timeStamp(timeStamp - BenchmarkUtil.FIRST_RETRY_DELAY_MS - 1).payload(payload).build());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        messageStore.close();
+        indexStore.close();
+        Utils.delete(stateDir);
+    }
+
+    @Benchmark
+    public void dispatchRetries() {
+        dispatchService.dispatchRetries(timeStamp);
+    }
+
+}
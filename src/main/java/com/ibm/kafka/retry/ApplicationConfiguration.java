@@ -5,71 +5,232 @@
 
 package com.ibm.kafka.retry;
 
+import com.ibm.kafka.retry.actuator.RateLimitEndpoint;
 import com.ibm.kafka.retry.consumer.MessageConsumer;
 import com.ibm.kafka.retry.consumer.impl.KafkaStreamsMessageConsumer;
+import com.ibm.kafka.retry.consumer.serde.BinaryRetryInfoSerde;
 import com.ibm.kafka.retry.consumer.serde.RetryInfoSerde;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
 import com.ibm.kafka.retry.model.RetryInfo;
 import com.ibm.kafka.retry.producer.MessageProducer;
 import com.ibm.kafka.retry.producer.impl.DefaultMessageProducer;
+import com.ibm.kafka.retry.producer.impl.KafkaMessageProducer;
+import com.ibm.kafka.retry.producer.impl.StreamsMessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
 import com.ibm.kafka.retry.repository.impl.KafkaStreamsMessageRepository;
 import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.BackoffPolicy;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import com.ibm.kafka.retry.service.ExceptionRoutingService;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.service.MessageDispatchService;
 import com.ibm.kafka.retry.service.MessageQueryService;
+import com.ibm.kafka.retry.service.RateLimitService;
+import com.ibm.kafka.retry.service.impl.DecorrelatedJitterBackoffPolicy;
 import com.ibm.kafka.retry.service.impl.DefaultActionService;
+import com.ibm.kafka.retry.service.impl.DefaultCircuitBreakerService;
+import com.ibm.kafka.retry.service.impl.DefaultExceptionRoutingService;
 import com.ibm.kafka.retry.service.impl.DefaultHeaderExtractionService;
 import com.ibm.kafka.retry.service.impl.DefaultMessageDispatchService;
 import com.ibm.kafka.retry.service.impl.DefaultMessageQueryService;
+import com.ibm.kafka.retry.service.impl.ExponentialBackoffPolicy;
+import com.ibm.kafka.retry.service.impl.FixedBackoffPolicy;
+import com.ibm.kafka.retry.service.impl.KafkaAuditService;
+import com.ibm.kafka.retry.service.impl.NoOpAuditService;
+import com.ibm.kafka.retry.service.impl.NoOpCircuitBreakerService;
+import com.ibm.kafka.retry.service.impl.TokenBucketRateLimitService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
 @Configuration
 public class ApplicationConfiguration {
 
     @Bean
     MessageConsumer messageConsumer(ConfigurableApplicationContext context, Serde<RetryInfo> retryInfoSerde, ApplicationProperties props,
-                                    MessageQueryService queryService, ActionService actionService, MessageRepository repository,
-                                    MessageDispatchService dispatchService) {
-        return new KafkaStreamsMessageConsumer(context, retryInfoSerde, props, queryService, actionService, repository, dispatchService);
+                                    HeaderExtractionService headerExtractionService, MessageQueryService queryService,
+                                    ActionService actionService, MessageRepository repository, MessageDispatchService dispatchService,
+                                    CircuitBreakerService circuitBreakerService, MessageProducer producer, RetryMetrics metrics) {
+        return new KafkaStreamsMessageConsumer(context, retryInfoSerde, props, headerExtractionService, queryService, actionService,
+                repository, dispatchService, circuitBreakerService, producer, metrics);
+    }
+
+    @Bean
+    MessageQueryService messageQueryService(ApplicationProperties props, HeaderExtractionService headerExtractionService,
+                                            ExceptionRoutingService exceptionRoutingService) {
+        return new DefaultMessageQueryService(props, headerExtractionService, exceptionRoutingService);
+    }
+
+    @Bean
+    ExceptionRoutingService exceptionRoutingService(ApplicationProperties props) {
+        return new DefaultExceptionRoutingService(props);
+    }
+
+    @Bean
+    ActionService actionService(HeaderExtractionService headerExtractionService, MessageRepository repository, MessageProducer producer,
+                                RetryMetrics metrics, AuditService auditService, BackoffPolicy backoffPolicy) {
+        return new DefaultActionService(headerExtractionService, repository, producer, metrics, auditService, backoffPolicy);
+    }
+
+    @Bean
+    BackoffPolicy backoffPolicy(ApplicationProperties props) {
+        BackoffPolicy backoffPolicy;
+        if (props.getRetryBackoffPolicy() == ApplicationProperties.BackoffPolicyType.EXPONENTIAL) {
+            backoffPolicy = new ExponentialBackoffPolicy(props);
+        } else if (props.getRetryBackoffPolicy() == ApplicationProperties.BackoffPolicyType.DECORRELATED_JITTER) {
+            backoffPolicy = new DecorrelatedJitterBackoffPolicy(props);
+        } else {
+            backoffPolicy = new FixedBackoffPolicy(props);
+        }
+        return backoffPolicy;
     }
 
     @Bean
-    MessageQueryService messageQueryService(ApplicationProperties props, HeaderExtractionService headerExtractionService) {
-        return new DefaultMessageQueryService(props, headerExtractionService);
+    HeaderExtractionService headerExtractionService(ApplicationProperties props) {
+        return new DefaultHeaderExtractionService(props.isRetryHeadersBinaryReadEnabled());
     }
 
     @Bean
-    ActionService actionService(HeaderExtractionService headerExtractionService, MessageRepository repository, MessageProducer producer) {
-        return new DefaultActionService(headerExtractionService, repository, producer);
+    MessageDispatchService messageDispatchService(ApplicationProperties props, MessageProducer producer, MessageRepository repository,
+                                                  RetryMetrics metrics, AuditService auditService, RateLimitService rateLimitService,
+                                                  CircuitBreakerService circuitBreakerService) {
+        return new DefaultMessageDispatchService(props, repository, producer, metrics, auditService, rateLimitService,
+                circuitBreakerService, createDispatchExecutor(props));
+    }
+
+    /**
+     * The streams producer forwards through the topology of the task, so it can only send on the stream thread.
+     */
+    private ExecutorService createDispatchExecutor(ApplicationProperties props) {
+        ExecutorService executor = null;
+        if (props.getRetryDispatchWorkers() > 0 && props.getRetryProducerType() == ApplicationProperties.ProducerType.STREAMS) {
+            log.warn("Dispatch workers are not supported by the streams producer type. Dispatching on the stream threads");
+        } else if (props.getRetryDispatchWorkers() > 0) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(props.getRetryDispatchWorkers(), props.getRetryDispatchWorkers(), 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, props.getRetryDispatchWorkerQueueSize())), runnable -> {
+                        Thread thread = new Thread(runnable, "retry-dispatch-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return executor;
     }
 
     @Bean
-    HeaderExtractionService headerExtractionService() {
-        return new DefaultHeaderExtractionService();
+    CircuitBreakerService circuitBreakerService(ApplicationProperties props, RetryMetrics metrics) {
+        CircuitBreakerService circuitBreakerService;
+        if (props.isRetryCircuitBreakerEnabled()) {
+            circuitBreakerService = new DefaultCircuitBreakerService(props, metrics);
+        } else {
+            circuitBreakerService = new NoOpCircuitBreakerService();
+        }
+        return circuitBreakerService;
     }
 
     @Bean
-    MessageDispatchService messageDispatchService(ApplicationProperties props, MessageProducer producer, MessageRepository repository) {
-        return new DefaultMessageDispatchService(props, repository, producer);
+    RateLimitService rateLimitService(ApplicationProperties props) {
+        return new TokenBucketRateLimitService(props);
     }
 
     @Bean
-    MessageRepository messageRepository() {
-        return new KafkaStreamsMessageRepository();
+    RateLimitEndpoint rateLimitEndpoint(RateLimitService rateLimitService) {
+        return new RateLimitEndpoint(rateLimitService);
     }
 
     @Bean
-    MessageProducer messageProducer(ApplicationProperties props, BinderAwareChannelResolver resolver) {
-        return new DefaultMessageProducer(props, resolver);
+    AuditService auditService(ApplicationProperties props, KafkaProperties kafkaProperties) {
+        AuditService auditService;
+        if (props.isRetryAuditEnabled()) {
+            auditService = new KafkaAuditService(props, new KafkaProducer<>(kafkaProperties.buildProducerProperties(),
+                    new StringSerializer(), new ByteArraySerializer()));
+        } else {
+            auditService = new NoOpAuditService();
+        }
+        return auditService;
     }
 
     @Bean
-    Serde<RetryInfo> retryInfoSerde() {
-        return new RetryInfoSerde();
+    MessageRepository messageRepository(ApplicationProperties props, RetryMetrics metrics) {
+        return new KafkaStreamsMessageRepository(props, metrics);
+    }
+
+    @Bean
+    RetryMetrics retryMetrics(MeterRegistry registry) {
+        return new RetryMetrics(registry);
+    }
+
+    /**
+     * The streams producer is never bound to a processor, as each processor sends through a producer of its own that is
+     * created by the consumer.
+     */
+    @Bean
+    MessageProducer messageProducer(ApplicationProperties props, BinderAwareChannelResolver resolver, KafkaProperties kafkaProperties,
+                                    RetryMetrics metrics) {
+        MessageProducer producer;
+        if (props.getRetryProducerType() == ApplicationProperties.ProducerType.BINDER) {
+            producer = new DefaultMessageProducer(props, resolver, metrics);
+        } else if (props.getRetryProducerType() == ApplicationProperties.ProducerType.STREAMS) {
+            producer = new StreamsMessageProducer(props);
+        } else {
+            producer = new KafkaMessageProducer(props, new KafkaProducer<>(kafkaProperties.buildProducerProperties(),
+                    new StringSerializer(), new ByteArraySerializer()), metrics);
+        }
+        return producer;
+    }
+
+    /**
+     * Only the binary store format compresses payloads, so compression configured with the json format has no effect.
+     */
+    @Bean
+    Serde<RetryInfo> retryInfoSerde(ApplicationProperties props) {
+        Serde<RetryInfo> serde;
+        if (props.getRetryStoreFormat() == ApplicationProperties.StoreFormat.BINARY) {
+            serde = new BinaryRetryInfoSerde(props.getRetryStoreCompression(), props.getRetryStoreCompressionThresholdBytes(),
+                    readCompressionDictionary(props));
+        } else {
+            if (props.getRetryStoreCompression() != ApplicationProperties.StoreCompression.NONE
+                    || StringUtils.isNotBlank(props.getRetryStoreCompressionDictionary())) {
+                log.warn("Store compression is not supported by the {} store format. Storing payloads uncompressed",
+                        props.getRetryStoreFormat());
+            }
+            serde = new RetryInfoSerde();
+        }
+        return serde;
+    }
+
+    private byte[] readCompressionDictionary(ApplicationProperties props) {
+        byte[] dictionary = null;
+        String path = props.getRetryStoreCompressionDictionary();
+        if (StringUtils.isNotBlank(path)) {
+            try {
+                dictionary = Files.readAllBytes(Paths.get(path));
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to read store compression dictionary " + path, ex);
+            }
+        }
+        return dictionary;
     }
 
 }
@@ -5,9 +5,12 @@
 
 package com.ibm.kafka.retry;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @Data
@@ -22,16 +25,167 @@ public class ApplicationProperties {
 
     private String droppableException;
 
+    private Map<String, ExceptionRules> topicExceptionRules = new HashMap<>();
+
     private String permanentFailureTopic;
 
+    private String payloadContentType;
+
+    private ProducerType retryProducerType = ProducerType.BINDER;
+
+    private boolean retryHeadersBinaryReadEnabled;
+
+    private boolean retryHeadersBinaryWriteEnabled;
+
     private String retryInfoStoreName;
 
+    private String retryIndexStoreName;
+
+    private boolean retryStoreCachingEnabled;
+
+    private int retryStoreFlushMaxWrites;
+
+    private long retryStoreFlushIntervalMs;
+
+    private StoreFormat retryStoreFormat = StoreFormat.JSON;
+
+    private StoreType retryStoreType = StoreType.ROCKSDB;
+
+    private StoreCompression retryStoreCompression = StoreCompression.NONE;
+
+    private int retryStoreCompressionThresholdBytes;
+
+    private String retryStoreCompressionDictionary;
+
+    private int retryClaimCheckThresholdBytes;
+
+    private int retryClaimCheckSegmentBytes;
+
+    private String retryClaimCheckStoreName;
+
     private long retrySchedulerIntervalMs;
 
+    private long retrySchedulerGranularityMs;
+
+    private boolean retryTimingWheelEnabled;
+
+    private int retryDispatchMaxMessages;
+
+    private long retryDispatchMaxTimeMs;
+
+    private long retryDispatchMaxBytes;
+
+    private int retryDispatchWorkers;
+
+    private int retryDispatchWorkerQueueSize;
+
+    private long retryDispatchLeaseMs;
+
+    private double retryRateLimitMessagesPerSecond;
+
+    private long retryRateLimitBytesPerSecond;
+
+    private Map<String, RateLimit> topicRateLimits = new HashMap<>();
+
+    private boolean retryCircuitBreakerEnabled;
+
+    private long retryCircuitBreakerWindowMs;
+
+    private int retryCircuitBreakerMinDispatched;
+
+    private double retryCircuitBreakerFailureRate;
+
+    private double retryCircuitBreakerMaxInflowPerSecond;
+
+    private long retryCircuitBreakerOpenMs;
+
+    private long retryCircuitBreakerMaxOpenMs;
+
+    private int retryCircuitBreakerProbeMessages;
+
+    private boolean retryAuditEnabled;
+
+    private String retryAuditTopic;
+
+    private int retryAuditBatchMaxEvents;
+
+    private long retryAuditFlushIntervalMs;
+
     private Map<Integer, Long> retryDelaysMs;
 
+    private BackoffPolicyType retryBackoffPolicy = BackoffPolicyType.FIXED;
+
+    private long retryBackoffInitialDelayMs;
+
+    private long retryBackoffMaxDelayMs;
+
+    private double retryBackoffMultiplier;
+
+    private double retryBackoffJitter;
+
+    private int retryMaxAttempts;
+
+    /**
+     * @return The maximum number of retry attempts, which is the size of the retry delay table unless set explicitly.
+     */
     public int getMaxRetryCount() {
-        return retryDelaysMs.size();
+        return retryMaxAttempts > 0 ? retryMaxAttempts : retryDelaysMs.size();
+    }
+
+    public enum BackoffPolicyType {
+        FIXED, EXPONENTIAL, DECORRELATED_JITTER
+    }
+
+    public enum StoreFormat {
+        JSON, BINARY
+    }
+
+    /**
+     * Compression of the payloads in the binary store format.
+     */
+    public enum StoreCompression {
+        NONE, LZ4, ZSTD
+    }
+
+    /**
+     * State store backend for the retry queue. The RocksDB settings of ROCKSDB_TUNED are applied by
+     * {@link com.ibm.kafka.retry.consumer.store.RetryQueueRocksDBConfigSetter}.
+     */
+    public enum StoreType {
+        IN_MEMORY, ROCKSDB, ROCKSDB_TUNED
+    }
+
+    public enum ProducerType {
+        BINDER, KAFKA, STREAMS
+    }
+
+    /**
+     * Exception names that override the global exception properties for messages from a single origin topic. Each
+     * property is a comma separated list of exception names, which may contain * wildcards.
+     */
+    @Data
+    public static class ExceptionRules {
+
+        private String retriableException;
+
+        private String fatalException;
+
+        private String droppableException;
+
+    }
+
+    /**
+     * Rate at which retries are sent to an origin topic. 0 for no limit.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RateLimit {
+
+        private double messagesPerSecond;
+
+        private long bytesPerSecond;
+
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.actuator;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.service.RateLimitService;
+import lombok.AllArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.Map;
+
+/**
+ * Reads and adjusts the rate limits of origin topics at runtime, at {@code /actuator/ratelimits}. Changes apply to this
+ * instance only and are lost on restart.
+ */
+@Endpoint(id = "ratelimits")
+@AllArgsConstructor
+public class RateLimitEndpoint {
+
+    private final RateLimitService rateLimitService;
+
+    @ReadOperation
+    public Map<String, ApplicationProperties.RateLimit> rateLimits() {
+        return rateLimitService.getRateLimits();
+    }
+
+    @ReadOperation
+    public ApplicationProperties.RateLimit rateLimit(@Selector String topic) {
+        return rateLimitService.getRateLimits().get(topic);
+    }
+
+    @WriteOperation
+    public void setRateLimit(@Selector String topic, double messagesPerSecond, long bytesPerSecond) {
+        rateLimitService.setRateLimit(topic, new ApplicationProperties.RateLimit(messagesPerSecond, bytesPerSecond));
+    }
+
+    @DeleteOperation
+    public void removeRateLimit(@Selector String topic) {
+        rateLimitService.removeRateLimit(topic);
+    }
+
+}
@@ -5,7 +5,6 @@
 
 package com.ibm.kafka.retry.consumer;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ibm.kafka.retry.ApplicationProperties;
 import org.apache.kafka.streams.kstream.KStream;
 import org.springframework.cloud.stream.annotation.Input;
@@ -13,6 +12,6 @@ import org.springframework.cloud.stream.annotation.Input;
 public interface ChannelBindings {
 
     @Input(ApplicationProperties.RETRY_CHANNEL)
-    KStream<String, JsonNode> retryChannel();
+    KStream<String, byte[]> retryChannel();
 
 }
@@ -5,19 +5,28 @@
 
 package com.ibm.kafka.retry.consumer.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ibm.kafka.retry.ApplicationProperties;
 import com.ibm.kafka.retry.consumer.MessageConsumer;
+import com.ibm.kafka.retry.consumer.serde.PayloadSerde;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
 import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.producer.impl.StreamsMessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
 import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.service.MessageDispatchService;
 import com.ibm.kafka.retry.service.MessageQueryService;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.state.KeyValueBytesStoreSupplier;
+import org.apache.kafka.streams.state.KeyValueStore;
 import org.apache.kafka.streams.state.StoreBuilder;
 import org.apache.kafka.streams.state.Stores;
 import org.springframework.cloud.stream.annotation.StreamListener;
@@ -34,6 +43,8 @@ public class KafkaStreamsMessageConsumer implements MessageConsumer {
 
     private final ApplicationProperties props;
 
+    private final HeaderExtractionService headerService;
+
     private final MessageQueryService queryService;
 
     private final ActionService actionService;
@@ -42,20 +53,83 @@ public class KafkaStreamsMessageConsumer implements MessageConsumer {
 
     private final MessageDispatchService retryService;
 
+    private final CircuitBreakerService circuitBreakerService;
+
+    private final MessageProducer producer;
+
+    private final RetryMetrics metrics;
+
     @Override
     @StreamListener(target = ApplicationProperties.RETRY_CHANNEL)
-    public void consumeMessage(KStream<String, JsonNode> kstream) throws Exception {
+    public void consumeMessage(KStream<String, byte[]> kstream) throws Exception {
         addStateStore();
-        kstream.process(() -> new RetryMessageProcessor(props, queryService, actionService, repository, retryService),
-                props.getRetryInfoStoreName());
+        if (props.getRetryProducerType() == ApplicationProperties.ProducerType.STREAMS) {
+            kstream.transform(this::createStreamsProcessor, getStoreNames())
+                    .to((messageId, retryInfo, recordContext) -> retryInfo.getOriginTopic(),
+                            Produced.with(Serdes.String(), new PayloadSerde()));
+        } else {
+            kstream.process(this::createProcessor, getStoreNames());
+        }
+    }
+
+    /**
+     * Each processor reads and writes the stores of its task through a repository of its own, so each gets action and
+     * dispatch services that use it.
+     */
+    private RetryMessageProcessor createProcessor() {
+        MessageRepository processorRepository = repository.forProcessor();
+        return new RetryMessageProcessor(props, headerService, queryService, actionService.withRepository(processorRepository),
+                processorRepository, retryService.withRepository(processorRepository), circuitBreakerService, producer, metrics);
+    }
+
+    /**
+     * Messages sent through the topology are forwarded through the context of a single processor, so each processor
+     * also gets its own producer, and action and dispatch services that send with it.
+     */
+    private RetryMessageProcessor createStreamsProcessor() {
+        MessageRepository processorRepository = repository.forProcessor();
+        MessageProducer processorProducer = new StreamsMessageProducer(props);
+        return new RetryMessageProcessor(props, headerService, queryService,
+                actionService.withRepository(processorRepository).withProducer(processorProducer), processorRepository,
+                retryService.withRepository(processorRepository).withProducer(processorProducer), circuitBreakerService,
+                processorProducer, metrics);
     }
 
     private void addStateStore() throws Exception {
         StreamsBuilderFactoryBean factoryBean = context.getBean("&stream-builder-consumeMessage", StreamsBuilderFactoryBean.class);
-        StoreBuilder storeBuilder = Stores.keyValueStoreBuilder(
-                Stores.persistentKeyValueStore(props.getRetryInfoStoreName()), Serdes.String(), retryInfoSerde);
+        StoreBuilder<KeyValueStore<String, RetryInfo>> storeBuilder = Stores.keyValueStoreBuilder(
+                createStoreSupplier(props.getRetryInfoStoreName()), Serdes.String(), retryInfoSerde);
+        StoreBuilder<KeyValueStore<Bytes, String>> indexStoreBuilder = Stores.keyValueStoreBuilder(
+                createStoreSupplier(props.getRetryIndexStoreName()), Serdes.Bytes(), Serdes.String());
+        if (props.isRetryStoreCachingEnabled()) {
+            storeBuilder.withCachingEnabled();
+            indexStoreBuilder.withCachingEnabled();
+        }
         factoryBean.getObject().addStateStore(storeBuilder);
+        factoryBean.getObject().addStateStore(indexStoreBuilder);
+        if (props.getRetryClaimCheckThresholdBytes() > 0) {
+            factoryBean.getObject().addStateStore(Stores.keyValueStoreBuilder(
+                    createStoreSupplier(props.getRetryClaimCheckStoreName()), Serdes.String(), Serdes.ByteArray()));
+        }
     }
 
+    /**
+     * The payloads kept outside the message store with claim checks are also written to a store of their own, so they
+     * are restored from its changelog topic with the task. Its values are large, so it is not cached.
+     */
+    private String[] getStoreNames() {
+        return props.getRetryClaimCheckThresholdBytes() > 0
+                ? new String[]{props.getRetryInfoStoreName(), props.getRetryIndexStoreName(), props.getRetryClaimCheckStoreName()}
+                : new String[]{props.getRetryInfoStoreName(), props.getRetryIndexStoreName()};
+    }
+
+    /**
+     * In-memory stores are restored from their changelog topics when a task is assigned. The RocksDB settings of the
+     * persistent stores are chosen by the store type in the Kafka Streams configuration.
+     */
+    private KeyValueBytesStoreSupplier createStoreSupplier(String name) {
+        return props.getRetryStoreType() == ApplicationProperties.StoreType.IN_MEMORY
+                ? Stores.inMemoryKeyValueStore(name) : Stores.persistentKeyValueStore(name);
+    }
 
 }
@@ -5,17 +5,24 @@
 
 package com.ibm.kafka.retry.consumer.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ibm.kafka.retry.ApplicationProperties;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
 import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.service.MessageDispatchService;
 import com.ibm.kafka.retry.service.MessageQueryService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
 import org.apache.kafka.streams.processor.Processor;
 import org.apache.kafka.streams.processor.ProcessorContext;
 import org.apache.kafka.streams.processor.PunctuationType;
@@ -23,12 +30,18 @@ import org.apache.kafka.streams.state.KeyValueStore;
 
 import java.io.IOException;
 
+/**
+ * Routes messages from the retry topic and dispatches them when due. Used as a transformer when messages are sent
+ * through the Kafka Streams topology, in which case all output is forwarded by the {@link MessageProducer}.
+ */
 @Slf4j
 @RequiredArgsConstructor
-public class RetryMessageProcessor implements Processor<String, JsonNode> {
+public class RetryMessageProcessor implements Processor<String, byte[]>, Transformer<String, byte[], KeyValue<String, RetryInfo>> {
 
     private final ApplicationProperties props;
 
+    private final HeaderExtractionService headerService;
+
     private final MessageQueryService queryService;
 
     private final ActionService actionService;
@@ -37,32 +50,74 @@ public class RetryMessageProcessor implements Processor<String, JsonNode> {
 
     private final MessageDispatchService retryService;
 
+    private final CircuitBreakerService circuitBreakerService;
+
+    private final MessageProducer producer;
+
+    private final RetryMetrics metrics;
+
     private ProcessorContext context;
 
+    private long nextDueTimeStamp;
+
+    private boolean nextDueTimeStampStale = true;
+
+    private long retryNotBefore;
+
     @Override
     public void init(ProcessorContext context) {
         this.context = context;
-        initStateStores();
-        configureRetryScheduler(props.getRetrySchedulerIntervalMs());
+        producer.init(context);
+        initTask();
+        repository.rebuildIndex();
+        configureRetryScheduler();
     }
 
     @Override
-    public void process(String messageId, JsonNode message) {
-        log.info("Processing message {}", messageId);
+    public void process(String messageId, byte[] message) {
+        log.debug("Processing message {}", messageId);
+        long start = System.nanoTime();
         Headers headers = context.headers();
+        RetryHeaders retryHeaders = headerService.getRetryHeaders(headers);
+        if (props.isRetryCircuitBreakerEnabled()) {
+            recordInflow(messageId, retryHeaders);
+        }
+        String outcome = "error";
         try {
-            if (queryService.isDroppable(headers)) {
+            if (queryService.isDroppable(retryHeaders)) {
                 actionService.dropMessage(messageId);
-            } else if (queryService.isRetriable(headers)) {
-                actionService.queueMessageForRetry(messageId, headers, message);
-            } else if (queryService.isPermanentlyFailed(headers)) {
-                actionService.dispatchPermanentlyFailedMessage(messageId, headers, message);
+                outcome = "dropped";
+            } else if (queryService.isRetriable(retryHeaders)) {
+                actionService.queueMessageForRetry(messageId, retryHeaders, headers, message);
+                nextDueTimeStampStale = true;
+                outcome = "queued";
+            } else if (queryService.isPermanentlyFailed(retryHeaders)) {
+                actionService.dispatchPermanentlyFailedMessage(messageId, retryHeaders, headers, message);
+                outcome = "failed";
             } else {
                 throw new IllegalRetryStateException("Could not determine if message is retriable, permanently failed or droppable");
             }
         } catch (IllegalRetryStateException | IOException ex) {
             log.error("Failed to handle message {}", messageId, ex);
         }
+        metrics.messageProcessed(outcome, System.nanoTime() - start);
+    }
+
+    private void recordInflow(String messageId, RetryHeaders retryHeaders) {
+        try {
+            circuitBreakerService.recordInflow(retryHeaders.getOriginTopic(), retryHeaders.getCompletedRetries(),
+                    System.currentTimeMillis());
+        } catch (IllegalRetryStateException ex) {
+            // Invalid headers are reported when the message is routed
+        } catch (NumberFormatException ex) {
+            log.warn("Inflow of message {} not recorded, retry attempts header is not a number", messageId);
+        }
+    }
+
+    @Override
+    public KeyValue<String, RetryInfo> transform(String messageId, byte[] message) {
+        process(messageId, message);
+        return null;
     }
 
     @Override
@@ -70,16 +125,45 @@ public class RetryMessageProcessor implements Processor<String, JsonNode> {
         // Not needed
     }
 
-    private void configureRetryScheduler(long scheduleMillis) {
-        context.schedule(scheduleMillis, PunctuationType.WALL_CLOCK_TIME, timestamp -> {
-                initStateStores();
-                retryService.dispatchRetries(timestamp);
-        });
+    private void configureRetryScheduler() {
+        if (props.getRetrySchedulerGranularityMs() > 0) {
+            context.schedule(props.getRetrySchedulerGranularityMs(), PunctuationType.WALL_CLOCK_TIME, this::dispatchIfDue);
+        } else {
+            context.schedule(props.getRetrySchedulerIntervalMs(), PunctuationType.WALL_CLOCK_TIME, retryService::dispatchRetries);
+        }
+    }
+
+    /**
+     * Dispatches on the first tick after the earliest queued message of the task is due. The earliest due time stamp is
+     * read from the index after each dispatch and on the next tick after messages are queued, so all messages queued
+     * within a tick cost one read, and a tick with nothing due only compares time stamps. Messages still due after a
+     * dispatch failed to send, so they are retried after the scheduler interval rather than on every tick, unless the
+     * dispatch deferred them because a budget was exhausted, in which case they are dispatched on the next tick.
+     */
+    private void dispatchIfDue(long timeStamp) {
+        if (nextDueTimeStampStale) {
+            nextDueTimeStamp = repository.getNextDueTimeStamp();
+            nextDueTimeStampStale = false;
+        }
+        if (timeStamp >= nextDueTimeStamp && timeStamp >= retryNotBefore) {
+            boolean deferred = retryService.dispatchRetries(timeStamp);
+            nextDueTimeStamp = repository.getNextDueTimeStamp();
+            if (nextDueTimeStamp <= timeStamp && !deferred) {
+                retryNotBefore = timeStamp + props.getRetrySchedulerIntervalMs();
+            }
+        }
     }
 
+    /**
+     * The repository belongs to this processor, so it is initialized once with the stores of the task.
+     */
     @SuppressWarnings("unchecked")
-    private void initStateStores() {
-        repository.init((KeyValueStore<String, RetryInfo>) context.getStateStore(props.getRetryInfoStoreName()));
+    private void initTask() {
+        KeyValueStore<String, byte[]> claimCheckStore = props.getRetryClaimCheckThresholdBytes() > 0
+                ? (KeyValueStore<String, byte[]>) context.getStateStore(props.getRetryClaimCheckStoreName()) : null;
+        repository.init((KeyValueStore<String, RetryInfo>) context.getStateStore(props.getRetryInfoStoreName()),
+                (KeyValueStore<Bytes, String>) context.getStateStore(props.getRetryIndexStoreName()), claimCheckStore,
+                context.stateDir());
     }
 
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.ibm.kafka.retry.model.AuditEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format for a batch of {@link AuditEvent}s, published as a single record:
+ * <pre>
+ * version (1 byte) | base time stamp (8 bytes) | event count (varint) | events
+ * event: type (1 byte) | time stamp - base time stamp (varlong) | message ID length + 1 (varint) | message ID (UTF-8)
+ *     | origin topic length + 1 (varint) | origin topic (UTF-8) | retry attempt (varint)
+ * </pre>
+ * The base time stamp is that of the first event, so the time stamp of each event usually takes one to three bytes. A
+ * length of zero encodes a null value.
+ */
+public class AuditEventBatchSerde extends Serdes.WrapperSerde<List<AuditEvent>> {
+
+    static final byte VERSION_1 = 1;
+
+    public AuditEventBatchSerde() {
+        super(new AuditEventBatchSerializer(), new AuditEventBatchDeserializer());
+    }
+
+    static class AuditEventBatchSerializer implements Serializer<List<AuditEvent>> {
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public byte[] serialize(String topic, List<AuditEvent> events) {
+            byte[] data = null;
+            if (events != null) {
+                long baseTimeStamp = events.isEmpty() ? 0 : events.get(0).getTimeStamp();
+                List<byte[]> strings = new ArrayList<>(events.size() * 2);
+                int size = 1 + Long.BYTES + ByteUtils.sizeOfUnsignedVarint(events.size());
+                for (AuditEvent event : events) {
+                    byte[] messageId = toBytes(event.getMessageId());
+                    byte[] originTopic = toBytes(event.getOriginTopic());
+                    strings.add(messageId);
+                    strings.add(originTopic);
+                    size += 1 + ByteUtils.sizeOfVarlong(event.getTimeStamp() - baseTimeStamp) + sizeOfNullableBytes(messageId)
+                            + sizeOfNullableBytes(originTopic) + ByteUtils.sizeOfUnsignedVarint(event.getRetryAttempt());
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                buffer.put(VERSION_1);
+                buffer.putLong(baseTimeStamp);
+                ByteUtils.writeUnsignedVarint(events.size(), buffer);
+                for (int i = 0; i < events.size(); i++) {
+                    AuditEvent event = events.get(i);
+                    buffer.put(event.getType().getCode());
+                    ByteUtils.writeVarlong(event.getTimeStamp() - baseTimeStamp, buffer);
+                    writeNullableBytes(strings.get(i * 2), buffer);
+                    writeNullableBytes(strings.get(i * 2 + 1), buffer);
+                    ByteUtils.writeUnsignedVarint(event.getRetryAttempt(), buffer);
+                }
+                data = buffer.array();
+            }
+            return data;
+        }
+
+        private static byte[] toBytes(String value) {
+            return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static int sizeOfNullableBytes(byte[] bytes) {
+            int length = bytes == null ? 0 : bytes.length + 1;
+            return ByteUtils.sizeOfUnsignedVarint(length) + Math.max(0, length - 1);
+        }
+
+        private static void writeNullableBytes(byte[] bytes, ByteBuffer buffer) {
+            if (bytes == null) {
+                ByteUtils.writeUnsignedVarint(0, buffer);
+            } else {
+                ByteUtils.writeUnsignedVarint(bytes.length + 1, buffer);
+                buffer.put(bytes);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+    }
+
+    static class AuditEventBatchDeserializer implements Deserializer<List<AuditEvent>> {
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public List<AuditEvent> deserialize(String topic, byte[] data) {
+            List<AuditEvent> events = null;
+            if (data != null) {
+                if (data.length == 0 || data[0] != VERSION_1) {
+                    throw new SerializationException("Unknown audit event batch version");
+                }
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(data, 1, data.length - 1);
+                    long baseTimeStamp = buffer.getLong();
+                    int count = ByteUtils.readUnsignedVarint(buffer);
+                    events = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        AuditEvent.Type type = AuditEvent.Type.fromCode(buffer.get());
+                        long timeStamp = baseTimeStamp + ByteUtils.readVarlong(buffer);
+                        String messageId = readNullableString(buffer);
+                        String originTopic = readNullableString(buffer);
+                        int retryAttempt = ByteUtils.readUnsignedVarint(buffer);
+                        events.add(AuditEvent.builder().type(type).timeStamp(timeStamp).messageId(messageId)
+                                .originTopic(originTopic).retryAttempt(retryAttempt).build());
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                    throw new SerializationException("Failed to deserialize audit event batch", ex);
+                }
+            }
+            return events;
+        }
+
+        private static String readNullableString(ByteBuffer buffer) {
+            String value = null;
+            int length = ByteUtils.readUnsignedVarint(buffer);
+            if (length > 0) {
+                byte[] bytes = new byte[length - 1];
+                buffer.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.model.EncodedHeaders;
+import com.ibm.kafka.retry.model.PayloadReference;
+import com.ibm.kafka.retry.model.RetryInfo;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary format for {@link RetryInfo}:
+ * <pre>
+ * version (1 byte) | time stamp (8 bytes) | [due time stamp - time stamp (varlong)] | retry attempt (varint)
+ *     | origin topic length + 1 (varint) | origin topic (UTF-8) | [headers length + 1 (varint) | headers
+ *     | payload format (1 byte)] | [codec (1 byte) | [dictionary ID (4 bytes)] | payload length (varint)]
+ *     | [segment (varlong) | offset (varint) | length (varint)] | stored payload length + 1 (varint) | stored payload
+ * </pre>
+ * The due time stamp is present from version 2, and version 3 adds the compression codec and the uncompressed payload
+ * length, with the dictionary ID for payloads compressed with a dictionary. Version 4 adds the reference to a payload
+ * kept in the payload store instead of the stored payload. Version 5 adds the original headers of the message, in the
+ * encoding of {@link EncodedHeaders}, and a payload format byte that says which of the version 3 and 4 fields follow.
+ * Each record is written with the lowest version that can hold it, so records without a due time stamp, a compressed
+ * payload, a payload reference or headers stay readable by versions that only know earlier versions. A length of zero
+ * encodes a null value. Records that do not start with a known version byte are read with the JSON format of
+ * {@link RetryInfoSerde}, so a store written by an earlier version is migrated as records are rewritten.
+ */
+public class BinaryRetryInfoSerde extends Serdes.WrapperSerde<RetryInfo> {
+
+    static final byte VERSION_1 = 1;
+
+    static final byte VERSION_2 = 2;
+
+    static final byte VERSION_3 = 3;
+
+    static final byte VERSION_4 = 4;
+
+    static final byte VERSION_5 = 5;
+
+    private static final byte FORMAT_STORED = 0;
+
+    private static final byte FORMAT_COMPRESSED = 1;
+
+    private static final byte FORMAT_REFERENCE = 2;
+
+    public BinaryRetryInfoSerde() {
+        this(ApplicationProperties.StoreCompression.NONE, 0, null);
+    }
+
+    /**
+     * @param compression The codec for compressing payloads. Payloads compressed with any codec are read.
+     * @param thresholdBytes The minimum payload size to compress.
+     * @param dictionary A Zstandard dictionary for compressing payloads, or null.
+     */
+    public BinaryRetryInfoSerde(ApplicationProperties.StoreCompression compression, int thresholdBytes, byte[] dictionary) {
+        this(new PayloadCompression(compression, thresholdBytes, dictionary));
+    }
+
+    private BinaryRetryInfoSerde(PayloadCompression compression) {
+        super(new BinaryRetryInfoSerializer(compression), new BinaryRetryInfoDeserializer(compression));
+    }
+
+    @RequiredArgsConstructor
+    static class BinaryRetryInfoSerializer implements Serializer<RetryInfo> {
+
+        private final PayloadCompression compression;
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public byte[] serialize(String topic, RetryInfo retryInfo) {
+            byte[] data = null;
+            if (retryInfo != null) {
+                byte[] originTopic = retryInfo.getOriginTopic() == null ? null
+                        : retryInfo.getOriginTopic().getBytes(StandardCharsets.UTF_8);
+                byte[] payload = retryInfo.getPayload();
+                PayloadReference reference = retryInfo.getPayloadReference();
+                byte[] compressed = reference == null ? compression.compress(payload) : null;
+                byte codec = compressed == null ? 0 : compression.getCodec();
+                byte version = getVersion(retryInfo, compressed != null);
+                long dueDelayMs = retryInfo.getDueTimeStamp() - retryInfo.getTimeStamp();
+                int size = 1 + Long.BYTES + (version >= VERSION_2 ? ByteUtils.sizeOfVarlong(dueDelayMs) : 0)
+                        + ByteUtils.sizeOfUnsignedVarint(retryInfo.getRetryAttempt()) + sizeOfNullableBytes(originTopic)
+                        + (version >= VERSION_5 ? sizeOfNullableBytes(retryInfo.getHeaders()) + 1 : 0);
+                if (compressed != null) {
+                    size += 1 + (codec == PayloadCompression.CODEC_ZSTD_DICTIONARY ? Integer.BYTES : 0)
+                            + ByteUtils.sizeOfUnsignedVarint(payload.length) + sizeOfNullableBytes(compressed);
+                } else {
+                    size += sizeOfReference(reference) + sizeOfNullableBytes(payload);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                buffer.put(version);
+                buffer.putLong(retryInfo.getTimeStamp());
+                if (version >= VERSION_2) {
+                    ByteUtils.writeVarlong(dueDelayMs, buffer);
+                }
+                ByteUtils.writeUnsignedVarint(retryInfo.getRetryAttempt(), buffer);
+                writeNullableBytes(originTopic, buffer);
+                if (version >= VERSION_5) {
+                    writeNullableBytes(retryInfo.getHeaders(), buffer);
+                    buffer.put(compressed != null ? FORMAT_COMPRESSED : reference != null ? FORMAT_REFERENCE : FORMAT_STORED);
+                }
+                if (compressed != null) {
+                    buffer.put(codec);
+                    if (codec == PayloadCompression.CODEC_ZSTD_DICTIONARY) {
+                        buffer.putInt(compression.getDictionaryId());
+                    }
+                    ByteUtils.writeUnsignedVarint(payload.length, buffer);
+                    writeNullableBytes(compressed, buffer);
+                } else {
+                    writeReference(reference, buffer);
+                    writeNullableBytes(payload, buffer);
+                }
+                data = buffer.array();
+            }
+            return data;
+        }
+
+        /**
+         * The lowest version that can hold the record, so that it stays readable by as many versions as possible. Any
+         * record with headers to keep needs version 5, see the store format upgrade notes in the README.
+         */
+        private static byte getVersion(RetryInfo retryInfo, boolean compressed) {
+            byte version = VERSION_1;
+            if (retryInfo.getHeaders() != null) {
+                version = VERSION_5;
+            } else if (retryInfo.getPayloadReference() != null) {
+                version = VERSION_4;
+            } else if (compressed) {
+                version = VERSION_3;
+            } else if (retryInfo.getDueTimeStamp() != 0) {
+                version = VERSION_2;
+            }
+            return version;
+        }
+
+        private static int sizeOfReference(PayloadReference reference) {
+            return reference == null ? 0 : ByteUtils.sizeOfVarlong(reference.getSegment())
+                    + ByteUtils.sizeOfUnsignedVarint(reference.getOffset()) + ByteUtils.sizeOfUnsignedVarint(reference.getLength());
+        }
+
+        private static void writeReference(PayloadReference reference, ByteBuffer buffer) {
+            if (reference != null) {
+                ByteUtils.writeVarlong(reference.getSegment(), buffer);
+                ByteUtils.writeUnsignedVarint(reference.getOffset(), buffer);
+                ByteUtils.writeUnsignedVarint(reference.getLength(), buffer);
+            }
+        }
+
+        private static int sizeOfNullableBytes(byte[] bytes) {
+            int length = bytes == null ? 0 : bytes.length + 1;
+            return ByteUtils.sizeOfUnsignedVarint(length) + Math.max(0, length - 1);
+        }
+
+        private static void writeNullableBytes(byte[] bytes, ByteBuffer buffer) {
+            if (bytes == null) {
+                ByteUtils.writeUnsignedVarint(0, buffer);
+            } else {
+                ByteUtils.writeUnsignedVarint(bytes.length + 1, buffer);
+                buffer.put(bytes);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    static class BinaryRetryInfoDeserializer implements Deserializer<RetryInfo> {
+
+        private static final int MAX_INTERNED_TOPICS = 10000;
+
+        private static final Map<String, String> TOPICS = new ConcurrentHashMap<>();
+
+        private final Deserializer<RetryInfo> jsonDeserializer = new RetryInfoSerde.RetryInfoDeserializer();
+
+        private final PayloadCompression compression;
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public RetryInfo deserialize(String topic, byte[] data) {
+            RetryInfo retryInfo = null;
+            if (data != null && data.length > 0 && data[0] >= VERSION_1 && data[0] <= VERSION_5) {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(data, 1, data.length - 1);
+                    long timeStamp = buffer.getLong();
+                    long dueTimeStamp = data[0] >= VERSION_2 ? timeStamp + ByteUtils.readVarlong(buffer) : 0;
+                    int retryAttempt = ByteUtils.readUnsignedVarint(buffer);
+                    byte[] originTopic = readNullableBytes(buffer);
+                    byte[] headers = data[0] >= VERSION_5 ? readNullableBytes(buffer) : null;
+                    byte format = data[0] >= VERSION_5 ? buffer.get() : getPayloadFormat(data[0]);
+                    PayloadReference reference = format == FORMAT_REFERENCE ? readReference(buffer) : null;
+                    byte[] payload = format == FORMAT_COMPRESSED ? readCompressedPayload(buffer) : readNullableBytes(buffer);
+                    retryInfo = RetryInfo.builder().timeStamp(timeStamp).dueTimeStamp(dueTimeStamp).retryAttempt(retryAttempt)
+                            .originTopic(originTopic == null ? null : intern(new String(originTopic, StandardCharsets.UTF_8)))
+                            .payload(payload).payloadReference(reference).headers(headers).build();
+                } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                    throw new SerializationException("Failed to deserialize retry info", ex);
+                }
+            } else if (data != null) {
+                retryInfo = jsonDeserializer.deserialize(topic, data);
+            }
+            return retryInfo;
+        }
+
+        /**
+         * Versions before 5 imply the payload format.
+         */
+        private static byte getPayloadFormat(byte version) {
+            byte format = FORMAT_STORED;
+            if (version == VERSION_3) {
+                format = FORMAT_COMPRESSED;
+            } else if (version == VERSION_4) {
+                format = FORMAT_REFERENCE;
+            }
+            return format;
+        }
+
+        private byte[] readCompressedPayload(ByteBuffer buffer) {
+            byte codec = buffer.get();
+            int dictionaryId = codec == PayloadCompression.CODEC_ZSTD_DICTIONARY ? buffer.getInt() : 0;
+            int length = ByteUtils.readUnsignedVarint(buffer);
+            byte[] compressed = readNullableBytes(buffer);
+            return compressed == null ? null : compression.decompress(codec, dictionaryId, compressed, length);
+        }
+
+        private static PayloadReference readReference(ByteBuffer buffer) {
+            return PayloadReference.builder().segment(ByteUtils.readVarlong(buffer)).offset(ByteUtils.readUnsignedVarint(buffer))
+                    .length(ByteUtils.readUnsignedVarint(buffer)).build();
+        }
+
+        private static byte[] readNullableBytes(ByteBuffer buffer) {
+            byte[] bytes = null;
+            int length = ByteUtils.readUnsignedVarint(buffer);
+            if (length > 0) {
+                bytes = new byte[length - 1];
+                buffer.get(bytes);
+            }
+            return bytes;
+        }
+
+        /**
+         * Origin topics repeat across many messages, so a single instance of each is kept rather than one per record.
+         */
+        private static String intern(String originTopic) {
+            String interned = TOPICS.get(originTopic);
+            if (interned == null) {
+                interned = originTopic;
+                if (TOPICS.size() < MAX_INTERNED_TOPICS) {
+                    String existing = TOPICS.putIfAbsent(originTopic, originTopic);
+                    interned = existing == null ? originTopic : existing;
+                }
+            }
+            return interned;
+        }
+
+        @Override
+        public void close() {
+            jsonDeserializer.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.ibm.kafka.retry.ApplicationProperties;
+import net.jpountz.lz4.LZ4Factory;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.util.zip.CRC32;
+
+/**
+ * Compression of the payloads in the binary store format. A payload is compressed with the configured codec when it is at
+ * least the threshold size and compression makes it smaller. Every codec is read whatever the configured codec, so the
+ * compression can be changed on a store that already holds records. Payloads compressed with a Zstandard dictionary can
+ * only be read with the same dictionary, which is identified by its CRC-32.
+ */
+class PayloadCompression {
+
+    static final byte CODEC_LZ4 = 1;
+
+    static final byte CODEC_ZSTD = 2;
+
+    static final byte CODEC_ZSTD_DICTIONARY = 3;
+
+    private static final int ZSTD_LEVEL = 3;
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private final byte codec;
+
+    private final int thresholdBytes;
+
+    private final ZstdDictCompress dictionaryCompress;
+
+    private final ZstdDictDecompress dictionaryDecompress;
+
+    private final int dictionaryId;
+
+    /**
+     * @param compression The codec for writing payloads.
+     * @param thresholdBytes The minimum payload size to compress.
+     * @param dictionary A Zstandard dictionary, e.g. trained with {@code zstd --train} on sample payloads, or null.
+     */
+    PayloadCompression(ApplicationProperties.StoreCompression compression, int thresholdBytes, byte[] dictionary) {
+        this.thresholdBytes = thresholdBytes;
+        if (dictionary != null) {
+            dictionaryCompress = new ZstdDictCompress(dictionary, ZSTD_LEVEL);
+            dictionaryDecompress = new ZstdDictDecompress(dictionary);
+            CRC32 crc = new CRC32();
+            crc.update(dictionary);
+            dictionaryId = (int) crc.getValue();
+        } else {
+            dictionaryCompress = null;
+            dictionaryDecompress = null;
+            dictionaryId = 0;
+        }
+        if (compression == ApplicationProperties.StoreCompression.LZ4) {
+            codec = CODEC_LZ4;
+        } else if (compression == ApplicationProperties.StoreCompression.ZSTD) {
+            codec = dictionary == null ? CODEC_ZSTD : CODEC_ZSTD_DICTIONARY;
+        } else {
+            codec = 0;
+        }
+    }
+
+    /**
+     * @return The codec of the payloads returned by {@link #compress(byte[])}.
+     */
+    byte getCodec() {
+        return codec;
+    }
+
+    int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    /**
+     * @return The compressed payload, or null if the payload is to be stored uncompressed.
+     */
+    byte[] compress(byte[] payload) {
+        byte[] compressed = null;
+        if (codec != 0 && payload != null && payload.length >= thresholdBytes) {
+            if (codec == CODEC_LZ4) {
+                compressed = LZ4.fastCompressor().compress(payload);
+            } else if (codec == CODEC_ZSTD) {
+                compressed = Zstd.compress(payload, ZSTD_LEVEL);
+            } else {
+                compressed = Zstd.compress(payload, dictionaryCompress);
+            }
+            if (compressed.length >= payload.length) {
+                compressed = null;
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * @param codec The codec that the payload was compressed with.
+     * @param dictionaryId The ID of the dictionary that the payload was compressed with, if any.
+     * @param compressed The compressed payload.
+     * @param length The length of the payload.
+     * @return The payload.
+     * @throws SerializationException Thrown if the codec is unknown, the dictionary is not configured or the payload is
+     * corrupt.
+     */
+    byte[] decompress(byte codec, int dictionaryId, byte[] compressed, int length) {
+        if (codec != CODEC_LZ4 && codec != CODEC_ZSTD && codec != CODEC_ZSTD_DICTIONARY) {
+            throw new SerializationException("Unknown payload compression codec " + codec);
+        }
+        if (codec == CODEC_ZSTD_DICTIONARY && (dictionaryDecompress == null || dictionaryId != this.dictionaryId)) {
+            throw new SerializationException("Payload was compressed with dictionary " + Integer.toHexString(dictionaryId)
+                    + ", which is not configured");
+        }
+        try {
+            byte[] payload;
+            if (codec == CODEC_LZ4) {
+                payload = LZ4.fastDecompressor().decompress(compressed, length);
+            } else if (codec == CODEC_ZSTD) {
+                payload = Zstd.decompress(compressed, length);
+            } else {
+                payload = Zstd.decompress(compressed, dictionaryDecompress, length);
+            }
+            return payload;
+        } catch (RuntimeException ex) {
+            throw new SerializationException("Failed to decompress payload", ex);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.ibm.kafka.retry.model.RetryInfo;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Map;
+
+/**
+ * Writes only the payload of a {@link RetryInfo}, for messages sent through the Kafka Streams topology to the origin
+ * topic or the permanent failure topic.
+ */
+public class PayloadSerde extends Serdes.WrapperSerde<RetryInfo> {
+
+    public PayloadSerde() {
+        super(new PayloadSerializer(), new PayloadDeserializer());
+    }
+
+    static class PayloadSerializer implements Serializer<RetryInfo> {
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public byte[] serialize(String topic, RetryInfo retryInfo) {
+            return retryInfo == null ? null : retryInfo.getPayload();
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+    }
+
+    static class PayloadDeserializer implements Deserializer<RetryInfo> {
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public RetryInfo deserialize(String topic, byte[] data) {
+            return data == null ? null : RetryInfo.builder().originTopic(topic).payload(data).build();
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+    }
+
+}
@@ -5,26 +5,145 @@
 
 package com.ibm.kafka.retry.consumer.serde;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ibm.kafka.retry.model.PayloadReference;
 import com.ibm.kafka.retry.model.RetryInfo;
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.common.serialization.Serializer;
-import org.springframework.kafka.support.serializer.JsonDeserializer;
-import org.springframework.kafka.support.serializer.JsonSerde;
-import org.springframework.kafka.support.serializer.JsonSerializer;
 
-public class RetryInfoSerde extends JsonSerde<RetryInfo> {
+import java.io.IOException;
+import java.util.Map;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+/**
+ * JSON format for {@link RetryInfo}. The payload and the encoded headers are written as base64 encoded bytes. Records written by earlier
+ * versions, where the payload was embedded as a JSON tree, are read back as the bytes of that tree.
+ */
+public class RetryInfoSerde extends Serdes.WrapperSerde<RetryInfo> {
+
+    static final String TIMESTAMP = "timeStamp";
+
+    static final String DUE_TIMESTAMP = "dueTimeStamp";
+
+    static final String ORIGIN_TOPIC = "originTopic";
+
+    static final String RETRY_ATTEMPT = "retryAttempt";
+
+    static final String RAW_PAYLOAD = "rawPayload";
+
+    static final String LEGACY_PAYLOAD = "payload";
+
+    static final String PAYLOAD_REFERENCE = "payloadReference";
+
+    static final String SEGMENT = "segment";
+
+    static final String OFFSET = "offset";
+
+    static final String LENGTH = "length";
+
+    static final String HEADERS = "headers";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
-    @Override
-    public Deserializer<RetryInfo> deserializer() {
-        return new JsonDeserializer<>(RetryInfo.class, objectMapper);
+    public RetryInfoSerde() {
+        super(new RetryInfoSerializer(), new RetryInfoDeserializer());
     }
 
-    @Override
-    public Serializer<RetryInfo> serializer() {
-        return new JsonSerializer<>(objectMapper);
+    static class RetryInfoSerializer implements Serializer<RetryInfo> {
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public byte[] serialize(String topic, RetryInfo retryInfo) {
+            byte[] data = null;
+            if (retryInfo != null) {
+                ObjectNode node = OBJECT_MAPPER.createObjectNode();
+                node.put(TIMESTAMP, retryInfo.getTimeStamp());
+                node.put(DUE_TIMESTAMP, retryInfo.getDueTimeStamp());
+                node.put(ORIGIN_TOPIC, retryInfo.getOriginTopic());
+                node.put(RETRY_ATTEMPT, retryInfo.getRetryAttempt());
+                node.put(RAW_PAYLOAD, retryInfo.getPayload());
+                PayloadReference reference = retryInfo.getPayloadReference();
+                if (reference != null) {
+                    node.putObject(PAYLOAD_REFERENCE).put(SEGMENT, reference.getSegment()).put(OFFSET, reference.getOffset())
+                            .put(LENGTH, reference.getLength());
+                }
+                if (retryInfo.getHeaders() != null) {
+                    node.put(HEADERS, retryInfo.getHeaders());
+                }
+                try {
+                    data = OBJECT_MAPPER.writeValueAsBytes(node);
+                } catch (IOException ex) {
+                    throw new SerializationException("Failed to serialize retry info", ex);
+                }
+            }
+            return data;
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+    }
+
+    static class RetryInfoDeserializer implements Deserializer<RetryInfo> {
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+            // Not needed
+        }
+
+        @Override
+        public RetryInfo deserialize(String topic, byte[] data) {
+            RetryInfo retryInfo = null;
+            if (data != null) {
+                try {
+                    JsonNode node = OBJECT_MAPPER.readTree(data);
+                    retryInfo = RetryInfo.builder().timeStamp(node.path(TIMESTAMP).asLong())
+                            .dueTimeStamp(node.path(DUE_TIMESTAMP).asLong())
+                            .originTopic(node.path(ORIGIN_TOPIC).asText(null))
+                            .retryAttempt(node.path(RETRY_ATTEMPT).asInt())
+                            .payload(getPayload(node)).payloadReference(getPayloadReference(node))
+                            .headers(node.hasNonNull(HEADERS) ? node.get(HEADERS).binaryValue() : null).build();
+                } catch (IOException ex) {
+                    throw new SerializationException("Failed to deserialize retry info", ex);
+                }
+            }
+            return retryInfo;
+        }
+
+        private byte[] getPayload(JsonNode node) throws IOException {
+            byte[] payload = null;
+            if (node.hasNonNull(RAW_PAYLOAD)) {
+                payload = node.get(RAW_PAYLOAD).binaryValue();
+            } else if (node.has(LEGACY_PAYLOAD)) {
+                payload = OBJECT_MAPPER.writeValueAsBytes(node.get(LEGACY_PAYLOAD));
+            }
+            return payload;
+        }
+
+        private PayloadReference getPayloadReference(JsonNode node) {
+            PayloadReference reference = null;
+            JsonNode referenceNode = node.get(PAYLOAD_REFERENCE);
+            if (referenceNode != null && referenceNode.isObject()) {
+                reference = PayloadReference.builder().segment(referenceNode.path(SEGMENT).asLong())
+                        .offset(referenceNode.path(OFFSET).asInt()).length(referenceNode.path(LENGTH).asInt()).build();
+            }
+            return reference;
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
     }
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.store;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.streams.state.RocksDBConfigSetter;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Options;
+
+import java.util.Map;
+
+/**
+ * RocksDB settings for the retry queue stores, registered with Kafka Streams as rocksdb.config.setter. The settings are
+ * only applied for the rocksdb-tuned store type, otherwise the Kafka Streams defaults are left in place.
+ * <p>
+ * Messages are inserted once and deleted when dispatched, and the due time index is range scanned from its start, which
+ * is where the tombstones of dispatched messages collect. Leveled compaction with a low level 0 trigger drops tombstones
+ * soon after they are flushed, in small steps, instead of the large infrequent merges of the default universal compaction
+ * that cause latency spikes. Bloom filters serve the point lookups of the message store, and index and filter blocks
+ * are held in the block cache so that its size bounds the memory used for reads.
+ */
+@Slf4j
+public class RetryQueueRocksDBConfigSetter implements RocksDBConfigSetter {
+
+    public static final String STORE_TYPE_CONFIG = "kafka.retry.store.type";
+
+    public static final String BLOCK_CACHE_BYTES_CONFIG = "kafka.retry.rocksdb.block.cache.bytes";
+
+    public static final String WRITE_BUFFER_BYTES_CONFIG = "kafka.retry.rocksdb.write.buffer.bytes";
+
+    public static final String COMPRESSION_CONFIG = "kafka.retry.rocksdb.compression";
+
+    static final long DEFAULT_BLOCK_CACHE_BYTES = 64 * 1024 * 1024L;
+
+    static final long DEFAULT_WRITE_BUFFER_BYTES = 16 * 1024 * 1024L;
+
+    static final String DEFAULT_COMPRESSION = "lz4";
+
+    private static final long BLOCK_SIZE_BYTES = 16 * 1024L;
+
+    private static final int BLOOM_FILTER_BITS_PER_KEY = 10;
+
+    private static final int MAX_WRITE_BUFFERS = 3;
+
+    private static final int LEVEL0_COMPACTION_TRIGGER = 2;
+
+    @Override
+    public void setConfig(String storeName, Options options, Map<String, Object> configs) {
+        if (getStoreType(configs) == ApplicationProperties.StoreType.ROCKSDB_TUNED) {
+            BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+            tableConfig.setBlockCacheSize(getLong(configs, BLOCK_CACHE_BYTES_CONFIG, DEFAULT_BLOCK_CACHE_BYTES));
+            tableConfig.setBlockSize(BLOCK_SIZE_BYTES);
+            tableConfig.setCacheIndexAndFilterBlocks(true);
+            tableConfig.setFilter(new BloomFilter(BLOOM_FILTER_BITS_PER_KEY, false));
+            options.setTableFormatConfig(tableConfig);
+            options.setWriteBufferSize(getLong(configs, WRITE_BUFFER_BYTES_CONFIG, DEFAULT_WRITE_BUFFER_BYTES));
+            options.setMaxWriteBufferNumber(MAX_WRITE_BUFFERS);
+            options.setCompressionType(CompressionType.getCompressionType(
+                    String.valueOf(configs.getOrDefault(COMPRESSION_CONFIG, DEFAULT_COMPRESSION))));
+            options.setCompactionStyle(CompactionStyle.LEVEL);
+            options.setLevelCompactionDynamicLevelBytes(true);
+            options.setLevel0FileNumCompactionTrigger(LEVEL0_COMPACTION_TRIGGER);
+            log.info("Applied tuned RocksDB settings to store {}", storeName);
+        }
+    }
+
+    private ApplicationProperties.StoreType getStoreType(Map<String, Object> configs) {
+        Object storeType = configs.get(STORE_TYPE_CONFIG);
+        ApplicationProperties.StoreType type = ApplicationProperties.StoreType.ROCKSDB;
+        if (storeType != null) {
+            try {
+                type = ApplicationProperties.StoreType.valueOf(storeType.toString().trim().replace('-', '_').toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                log.error("Unknown store type {}. Using default RocksDB settings", storeType);
+            }
+        }
+        return type;
+    }
+
+    private long getLong(Map<String, Object> configs, String name, long defaultValue) {
+        Object value = configs.get(name);
+        long result = defaultValue;
+        if (value != null && !value.toString().trim().isEmpty()) {
+            try {
+                result = Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException ex) {
+                log.error("Invalid value {} for {}. Using default {}", value, name, defaultValue);
+            }
+        }
+        return result;
+    }
+
+}
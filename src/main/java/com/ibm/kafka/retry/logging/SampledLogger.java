@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.logging;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limits a per-message log statement to one line per interval, noting how many lines were skipped since the last
+ * one. A skipped line costs a clock read and an increment, with no formatting. When the logger is at debug level every
+ * line is logged, without the skipped count, for a full trace: info lines at debug, so that they sit with the debug
+ * trace, and warnings still at warn, so that they are not hidden by filters on the level.
+ */
+public class SampledLogger {
+
+    private static final String SKIPPED_SUFFIX = " ({} similar lines skipped)";
+
+    private final Logger logger;
+
+    private final long intervalMs;
+
+    private final AtomicLong nextLogTimeStamp = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param logger The logger to write to.
+     * @param intervalMs Minimum time between logged lines.
+     */
+    public SampledLogger(Logger logger, long intervalMs) {
+        this.logger = logger;
+        this.intervalMs = intervalMs;
+    }
+
+    public void info(String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(format, arg);
+        } else if (logger.isInfoEnabled() && isSampled()) {
+            logger.info(format + SKIPPED_SUFFIX, arg, skipped.getAndSet(0));
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(format, arg1, arg2);
+        } else if (logger.isInfoEnabled() && isSampled()) {
+            logger.info(format + SKIPPED_SUFFIX, arg1, arg2, skipped.getAndSet(0));
+        }
+    }
+
+    public void warn(String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            logger.warn(format, arg);
+        } else if (logger.isWarnEnabled() && isSampled()) {
+            logger.warn(format + SKIPPED_SUFFIX, arg, skipped.getAndSet(0));
+        }
+    }
+
+    /**
+     * @return True if this line is the first of the interval, otherwise the line is counted as skipped.
+     */
+    private boolean isSampled() {
+        long now = System.currentTimeMillis();
+        long next = nextLogTimeStamp.get();
+        boolean sampled = now >= next && nextLogTimeStamp.compareAndSet(next, now + intervalMs);
+        if (!sampled) {
+            skipped.incrementAndGet();
+        }
+        return sampled;
+    }
+
+}
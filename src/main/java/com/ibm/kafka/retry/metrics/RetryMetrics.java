@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters for the retry engine, published through Spring Actuator. The meters are created once and kept, so
+ * recording on the hot paths does not build or register them again.
+ */
+public class RetryMetrics {
+
+    static final String PREFIX = "kafka.retry.";
+
+    static final String MESSAGES_PROCESSED = PREFIX + "messages.processed";
+
+    static final String MESSAGES_QUEUED = PREFIX + "messages.queued";
+
+    static final String MESSAGES_DISPATCHED = PREFIX + "messages.dispatched";
+
+    static final String DISPATCH_FAILURES = PREFIX + "dispatch.failures";
+
+    static final String DISPATCH_LATENESS = PREFIX + "dispatch.lateness";
+
+    static final String DISPATCH_DURATION = PREFIX + "dispatch.duration";
+
+    static final String DISPATCH_DEFERRED = PREFIX + "dispatch.deferred";
+
+    static final String DISPATCH_RATE_LIMITED = PREFIX + "dispatch.rate.limited";
+
+    static final String DISPATCH_CIRCUIT_OPEN = PREFIX + "dispatch.circuit.open";
+
+    static final String CIRCUIT_TRANSITIONS = PREFIX + "circuit.transitions";
+
+    static final String PAYLOADS_LOST = PREFIX + "payloads.lost";
+
+    static final String PROCESS_DURATION = PREFIX + "process.duration";
+
+    static final String STORE_SCAN_DURATION = PREFIX + "store.scan.duration";
+
+    static final String PRODUCE_DURATION = PREFIX + "produce.duration";
+
+    static final String QUEUE_DEPTH = PREFIX + "queue.depth";
+
+    static final String TAG_OUTCOME = "outcome";
+
+    static final String TAG_ATTEMPT = "attempt";
+
+    static final String TAG_TOPIC = "topic";
+
+    static final String TAG_BUDGET = "budget";
+
+    static final String TAG_STATE = "state";
+
+    private final MeterRegistry registry;
+
+    private final Timer processDuration;
+
+    private final Timer dispatchDuration;
+
+    private final Timer storeScanDuration;
+
+    /**
+     * Meters tagged by the values they are recorded with, created when a value is first seen, so that recording only
+     * looks the meter up.
+     */
+    private final Map<String, Counter> messagesProcessed = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<Integer, Counter>> messagesQueued = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<Integer, Counter>> messagesDispatched = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<Integer, Counter>> dispatchFailures = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> dispatchLateness = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> dispatchDeferred = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> dispatchRateLimited = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> dispatchCircuitOpen = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<String, Counter>> circuitTransitions = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> payloadsLost = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> produceDuration = new ConcurrentHashMap<>();
+
+    public RetryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        processDuration = Timer.builder(PROCESS_DURATION).register(registry);
+        dispatchDuration = Timer.builder(DISPATCH_DURATION).register(registry);
+        storeScanDuration = Timer.builder(STORE_SCAN_DURATION).register(registry);
+    }
+
+    /**
+     * @param outcome How the message was handled, e.g. queued, dropped or failed.
+     * @param durationNanos Time taken to handle the message.
+     */
+    public void messageProcessed(String outcome, long durationNanos) {
+        getCounter(messagesProcessed, MESSAGES_PROCESSED, TAG_OUTCOME, outcome).increment();
+        processDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void messageQueued(String originTopic, int retryAttempt) {
+        getCounter(messagesQueued, MESSAGES_QUEUED, originTopic, retryAttempt).increment();
+    }
+
+    /**
+     * The lateness histogram is tagged by origin topic only, as the number of retry attempts is not bounded and each
+     * combination of tags would get a histogram of its own.
+     * @param originTopic The origin topic of the message.
+     * @param retryAttempt The retry attempt dispatched.
+     * @param latenessMs How long after its due time the message was dispatched.
+     */
+    public void messageDispatched(String originTopic, int retryAttempt, long latenessMs) {
+        getCounter(messagesDispatched, MESSAGES_DISPATCHED, originTopic, retryAttempt).increment();
+        String topic = String.valueOf(originTopic);
+        Timer lateness = dispatchLateness.get(topic);
+        if (lateness == null) {
+            lateness = dispatchLateness.computeIfAbsent(topic, key -> Timer.builder(DISPATCH_LATENESS).tag(TAG_TOPIC, key)
+                    .publishPercentileHistogram().register(registry));
+        }
+        lateness.record(Math.max(0, latenessMs), TimeUnit.MILLISECONDS);
+    }
+
+    public void dispatchFailed(String originTopic, int retryAttempt) {
+        getCounter(dispatchFailures, DISPATCH_FAILURES, originTopic, retryAttempt).increment();
+    }
+
+    public void dispatchCompleted(long durationNanos) {
+        dispatchDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param budget The dispatch budget that was exhausted, i.e. messages, time or bytes.
+     * @param backlogMs How long the earliest deferred message has been due.
+     */
+    public void dispatchDeferred(String budget, long backlogMs) {
+        getTimer(dispatchDeferred, DISPATCH_DEFERRED, TAG_BUDGET, budget).record(Math.max(0, backlogMs), TimeUnit.MILLISECONDS);
+    }
+
+    public void dispatchRateLimited(String originTopic) {
+        getCounter(dispatchRateLimited, DISPATCH_RATE_LIMITED, TAG_TOPIC, originTopic).increment();
+    }
+
+    public void dispatchCircuitOpen(String originTopic) {
+        getCounter(dispatchCircuitOpen, DISPATCH_CIRCUIT_OPEN, TAG_TOPIC, originTopic).increment();
+    }
+
+    /**
+     * @param originTopic The origin topic of the circuit.
+     * @param state The new state of the circuit, i.e. CLOSED, OPEN or HALF_OPEN.
+     */
+    public void circuitStateChanged(String originTopic, String state) {
+        String topic = String.valueOf(originTopic);
+        circuitTransitions.computeIfAbsent(topic, key -> new ConcurrentHashMap<>()).computeIfAbsent(state, key ->
+                Counter.builder(CIRCUIT_TRANSITIONS).tags(TAG_TOPIC, topic, TAG_STATE, key).register(registry)).increment();
+    }
+
+    /**
+     * @param originTopic The origin topic of a message sent to the permanent failure topic as its payload no longer exists.
+     */
+    public void payloadLost(String originTopic) {
+        getCounter(payloadsLost, PAYLOADS_LOST, TAG_TOPIC, originTopic).increment();
+    }
+
+    /**
+     * @param durationNanos Time spent reading the state stores while iterating over the messages due for dispatch.
+     */
+    public void storeScanned(long durationNanos) {
+        storeScanDuration.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param topic The destination topic.
+     * @param durationNanos Time from sending the message until it was acknowledged.
+     */
+    public void messageProduced(String topic, long durationNanos) {
+        getTimer(produceDuration, PRODUCE_DURATION, TAG_TOPIC, topic).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Register a gauge for the number of queued messages waiting for a retry attempt.
+     * @param retryAttempt The retry attempt.
+     * @param depth Supplies the current number of queued messages.
+     */
+    public void registerQueueDepth(int retryAttempt, Supplier<Number> depth) {
+        Gauge.builder(QUEUE_DEPTH, depth).tag(TAG_ATTEMPT, String.valueOf(retryAttempt)).register(registry);
+    }
+
+    private Counter getCounter(Map<String, Counter> counters, String name, String tag, String value) {
+        String key = String.valueOf(value);
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, tagValue -> Counter.builder(name).tag(tag, tagValue).register(registry));
+        }
+        return counter;
+    }
+
+    private Counter getCounter(Map<String, Map<Integer, Counter>> counters, String name, String originTopic, int retryAttempt) {
+        String topic = String.valueOf(originTopic);
+        Map<Integer, Counter> attemptCounters = counters.get(topic);
+        if (attemptCounters == null) {
+            attemptCounters = counters.computeIfAbsent(topic, key -> new ConcurrentHashMap<>());
+        }
+        Counter counter = attemptCounters.get(retryAttempt);
+        if (counter == null) {
+            counter = attemptCounters.computeIfAbsent(retryAttempt, attempt -> Counter.builder(name)
+                    .tags(TAG_TOPIC, topic, TAG_ATTEMPT, String.valueOf(attempt)).register(registry));
+        }
+        return counter;
+    }
+
+    private Timer getTimer(Map<String, Timer> timers, String name, String tag, String value) {
+        String key = String.valueOf(value);
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, tagValue -> Timer.builder(name).tag(tag, tagValue).register(registry));
+        }
+        return timer;
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A step in the lifecycle of a message handled by the retry engine, published to the audit topic.
+ */
+@Data
+@Builder(builderClassName = "Builder")
+public class AuditEvent {
+
+    private final Type type;
+
+    private final long timeStamp;
+
+    private final String messageId;
+
+    private final String originTopic;
+
+    private final int retryAttempt;
+
+    public enum Type {
+
+        QUEUED((byte) 1), DISPATCHED((byte) 2), DEAD_LETTERED((byte) 3), DROPPED((byte) 4);
+
+        private final byte code;
+
+        Type(byte code) {
+            this.code = code;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        public static Type fromCode(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown audit event type " + code);
+        }
+
+    }
+
+}
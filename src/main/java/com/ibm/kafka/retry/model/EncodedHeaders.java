@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.utils.ByteUtils;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compact encoding of the original headers of a message, kept with the message while it is queued so they can be written
+ * back unchanged when it is retried:
+ * <pre>
+ * [key length (varint) | key (UTF-8) | value length + 1 (varint) | value] ...
+ * </pre>
+ * Headers are kept in their original order, including repeated keys, and a length of zero encodes a null value. The
+ * retry headers and the content type are not kept, as they are written again for each retry, and neither are the headers
+ * that the binder and its header mapper add, as they describe the record received rather than the message.
+ */
+public final class EncodedHeaders {
+
+    private static final Set<String> EXCLUDED_KEYS = new HashSet<>(Arrays.asList(
+            org.springframework.messaging.MessageHeaders.CONTENT_TYPE,
+            org.springframework.messaging.MessageHeaders.ID,
+            org.springframework.messaging.MessageHeaders.TIMESTAMP,
+            DefaultKafkaHeaderMapper.JSON_TYPES));
+
+    private static final String[] EXCLUDED_PREFIXES = {MessageHeaders.PREFIX, KafkaHeaders.PREFIX, BinderHeaders.PREFIX};
+
+    private EncodedHeaders() {
+    }
+
+    /**
+     * @param headers The headers of the message.
+     * @return The encoded headers, or null if there are no headers to keep.
+     */
+    public static byte[] encode(Headers headers) {
+        int size = 0;
+        for (Header header : headers) {
+            if (isKept(header.key())) {
+                int keyLength = Utils.utf8Length(header.key());
+                int valueLength = header.value() == null ? 0 : header.value().length + 1;
+                size += ByteUtils.sizeOfUnsignedVarint(keyLength) + keyLength + ByteUtils.sizeOfUnsignedVarint(valueLength)
+                        + Math.max(0, valueLength - 1);
+            }
+        }
+        byte[] encoded = null;
+        if (size > 0) {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (Header header : headers) {
+                if (isKept(header.key())) {
+                    byte[] key = header.key().getBytes(StandardCharsets.UTF_8);
+                    ByteUtils.writeUnsignedVarint(key.length, buffer);
+                    buffer.put(key);
+                    if (header.value() == null) {
+                        ByteUtils.writeUnsignedVarint(0, buffer);
+                    } else {
+                        ByteUtils.writeUnsignedVarint(header.value().length + 1, buffer);
+                        buffer.put(header.value());
+                    }
+                }
+            }
+            encoded = buffer.array();
+        }
+        return encoded;
+    }
+
+    /**
+     * Add the encoded headers to the headers of a message.
+     * @param encoded The encoded headers, or null.
+     * @param headers The headers to add to.
+     * @throws IllegalArgumentException Thrown if the encoded headers are malformed.
+     */
+    public static void decode(byte[] encoded, Headers headers) {
+        if (encoded != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            try {
+                while (buffer.hasRemaining()) {
+                    int keyLength = ByteUtils.readUnsignedVarint(buffer);
+                    String key = new String(encoded, buffer.position(), keyLength, StandardCharsets.UTF_8);
+                    buffer.position(buffer.position() + keyLength);
+                    int valueLength = ByteUtils.readUnsignedVarint(buffer);
+                    byte[] value = null;
+                    if (valueLength > 0) {
+                        value = new byte[valueLength - 1];
+                        buffer.get(value);
+                    }
+                    headers.add(key, value);
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+                throw new IllegalArgumentException("Malformed encoded headers", ex);
+            }
+        }
+    }
+
+    private static boolean isKept(String key) {
+        boolean kept = !EXCLUDED_KEYS.contains(key);
+        for (int i = 0; kept && i < EXCLUDED_PREFIXES.length; i++) {
+            kept = !key.startsWith(EXCLUDED_PREFIXES[i]);
+        }
+        return kept;
+    }
+
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+/**
+ * How a message is routed based on its exception type. When an exception name matches more than one route, the first
+ * declared here wins.
+ */
+public enum ExceptionRoute {
+
+    DROPPABLE,
+
+    RETRIABLE,
+
+    FATAL,
+
+    NONE
+
+}
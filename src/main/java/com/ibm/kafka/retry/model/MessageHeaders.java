@@ -7,7 +7,7 @@ package com.ibm.kafka.retry.model;
 
 public class MessageHeaders {
 
-    private static final String PREFIX = "x-ibm-retry-";
+    static final String PREFIX = "x-ibm-retry-";
 
     public static final String RETRY_ATTEMPTS = PREFIX + "attempts";
 
@@ -17,4 +17,6 @@ public class MessageHeaders {
 
     public static final String PRODUCED_TIMESTAMP_MS = PREFIX + "timestamp-ms";
 
+    public static final String PAYLOAD_LOST = PREFIX + "payload-lost";
+
 }
@@ -0,0 +1,24 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Location of a payload kept outside the retry queue, in a segment file of the payload store of the task.
+ */
+@Data
+@Builder(builderClassName = "Builder")
+public class PayloadReference {
+
+    private final long segment;
+
+    private final int offset;
+
+    private final int length;
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Values of the {@link MessageHeaders#RETRY_ATTEMPTS} and {@link MessageHeaders#PRODUCED_TIMESTAMP_MS} headers, in
+ * either the text format or a versioned binary format:
+ * <pre>
+ * version (1 byte) | value (4 bytes for retry attempts, 8 bytes for the time stamp, big-endian)
+ * </pre>
+ * The version byte is never the first byte of a text value, so when binary values are read, a value of the binary length
+ * that starts with a known version is read as binary and any other value falls back to the text format. This lets
+ * producers switch format while messages in the other format are still in flight.
+ */
+public final class RetryHeaderCodec {
+
+    static final byte VERSION_1 = 1;
+
+    private RetryHeaderCodec() {
+    }
+
+    /**
+     * @param retryAttempts The number of retry attempts.
+     * @param binary Whether to use the binary format rather than text.
+     * @return The header value.
+     */
+    public static byte[] encodeRetryAttempts(int retryAttempts, boolean binary) {
+        return binary ? ByteBuffer.allocate(1 + Integer.BYTES).put(VERSION_1).putInt(retryAttempts).array()
+                : String.valueOf(retryAttempts).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param timeStamp The time stamp in UNIX epoch milliseconds.
+     * @param binary Whether to use the binary format rather than text.
+     * @return The header value.
+     */
+    public static byte[] encodeTimestamp(long timeStamp, boolean binary) {
+        return binary ? ByteBuffer.allocate(1 + Long.BYTES).put(VERSION_1).putLong(timeStamp).array()
+                : String.valueOf(timeStamp).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param value The header value, or null if the header is missing. Text values may be quoted, as written by the Spring
+     * Cloud Stream binder.
+     * @param binary Whether binary values are read. Text values are always read.
+     * @return The number of retry attempts, or zero if the header is missing or blank.
+     * @throws NumberFormatException Thrown if the value is not a number.
+     */
+    public static int decodeRetryAttempts(byte[] value, boolean binary) {
+        int retryAttempts = 0;
+        if (value != null) {
+            if (binary && isBinary(value, Integer.BYTES)) {
+                retryAttempts = ByteBuffer.wrap(value, 1, Integer.BYTES).getInt();
+            } else {
+                String text = StringUtils.strip(new String(value, StandardCharsets.UTF_8), "\"");
+                if (StringUtils.isNotBlank(text)) {
+                    retryAttempts = Integer.parseInt(text);
+                }
+            }
+        }
+        return retryAttempts;
+    }
+
+    /**
+     * @param value The header value. Text values may be quoted, as written by the Spring Cloud Stream binder.
+     * @param binary Whether binary values are read. Text values are always read.
+     * @return The time stamp in UNIX epoch milliseconds.
+     * @throws NumberFormatException Thrown if the value is not a number.
+     */
+    public static long decodeTimestamp(byte[] value, boolean binary) {
+        return binary && isBinary(value, Long.BYTES) ? ByteBuffer.wrap(value, 1, Long.BYTES).getLong()
+                : Long.parseLong(StringUtils.strip(new String(value, StandardCharsets.UTF_8), "\""));
+    }
+
+    private static boolean isBinary(byte[] value, int width) {
+        return value.length == 1 + width && value[0] == VERSION_1;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Singular;
+import lombok.ToString;
+
+import java.util.Set;
+
+/**
+ * The retry headers of a message, decoded in a single pass over the Kafka Streams headers. A missing or duplicated
+ * header is only reported when its value is requested, the same as reading the header directly. The retry attempts and
+ * time stamp are kept as the raw header values and decoded by {@link RetryHeaderCodec} when requested.
+ */
+@ToString
+@EqualsAndHashCode
+@Builder(builderClassName = "Builder")
+public final class RetryHeaders {
+
+    private final String exceptionName;
+
+    private final String originTopic;
+
+    private final byte[] retryAttempts;
+
+    private final byte[] timeStamp;
+
+    /**
+     * Whether the retry attempts and time stamp may be in the binary format.
+     */
+    private final boolean binaryValues;
+
+    @Singular
+    private final Set<String> duplicateKeys;
+
+    /**
+     * @return The simple name of the exception that caused the message to be sent for retry.
+     * @throws IllegalRetryStateException Thrown if the header is missing or duplicated.
+     */
+    public String getExceptionName() throws IllegalRetryStateException {
+        return getRequiredHeader(MessageHeaders.EXCEPTION_TYPE, exceptionName);
+    }
+
+    /**
+     * @return The name of the topic from which the message was consumed when it failed.
+     * @throws IllegalRetryStateException Thrown if the header is missing or duplicated.
+     */
+    public String getOriginTopic() throws IllegalRetryStateException {
+        return getRequiredHeader(MessageHeaders.ORIGIN_TOPIC, originTopic);
+    }
+
+    /**
+     * @return The number of retry attempts that the message has already had, or zero if the header is missing.
+     * @throws IllegalRetryStateException Thrown if the header is duplicated.
+     */
+    public int getCompletedRetries() throws IllegalRetryStateException {
+        checkNotDuplicated(MessageHeaders.RETRY_ATTEMPTS);
+        return RetryHeaderCodec.decodeRetryAttempts(retryAttempts, binaryValues);
+    }
+
+    /**
+     * @return The timestamp of when the message was added to the retry topic.
+     * @throws IllegalRetryStateException Thrown if the header is missing or duplicated.
+     */
+    public long getTimestamp() throws IllegalRetryStateException {
+        return RetryHeaderCodec.decodeTimestamp(getRequiredHeader(MessageHeaders.PRODUCED_TIMESTAMP_MS, timeStamp), binaryValues);
+    }
+
+    private <T> T getRequiredHeader(String key, T value) throws IllegalRetryStateException {
+        checkNotDuplicated(key);
+        if (value == null) {
+            throw new IllegalRetryStateException("Message is missing header with key {}", key);
+        }
+        return value;
+    }
+
+    private void checkNotDuplicated(String key) throws IllegalRetryStateException {
+        if (duplicateKeys.contains(key)) {
+            throw new IllegalRetryStateException("Message has more than one header with key {}", key);
+        }
+    }
+
+}
@@ -5,28 +5,55 @@
 
 package com.ibm.kafka.retry.model;
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
-import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
 import lombok.Builder;
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
+@Slf4j
 @Data
-@Builder(builderClassName = "Builder")
-@JsonDeserialize(builder = RetryInfo.Builder.class)
+@Builder(builderClassName = "Builder", toBuilder = true)
 public class RetryInfo {
 
     private final long timeStamp;
 
+    /**
+     * When the retry attempt is due, or 0 for messages queued by versions that computed it from the retry delays.
+     */
+    private final long dueTimeStamp;
+
     private final String originTopic;
 
     private final int retryAttempt;
 
-    private final JsonNode payload;
-
-    @JsonPOJOBuilder(withPrefix = "")
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class Builder { }
+    private final byte[] payload;
+
+    /**
+     * Where the payload is kept when it was too large to store with the message, in which case the stored payload is null.
+     */
+    private final PayloadReference payloadReference;
+
+    /**
+     * The original headers of the message in the encoding of {@link EncodedHeaders}, or null if it had none to keep.
+     */
+    private final byte[] headers;
+
+    /**
+     * @param retryDelaysMs The configured retry delays by retry attempt.
+     * @return The due time stamp stored with the message, or for messages queued by earlier versions the time stamp plus
+     * the configured retry delay.
+     */
+    public long getDueTimeStamp(Map<Integer, Long> retryDelaysMs) {
+        if (dueTimeStamp != 0) {
+            return dueTimeStamp;
+        }
+        Long retryDelayMs = retryDelaysMs.get(retryAttempt);
+        if (retryDelayMs == null) {
+            log.error("Retry attempt {} not enabled", retryAttempt);
+            retryDelayMs = 0L;
+        }
+        return timeStamp + retryDelayMs;
+    }
 
 }
@@ -5,22 +5,58 @@
 
 package com.ibm.kafka.retry.producer;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.streams.processor.ProcessorContext;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface MessageProducer {
 
+    /**
+     * Bind the producer to the processor that sends through it. Only needed by producers that send messages through the
+     * Kafka Streams topology, which are created for each processor.
+     * @param context The context of the processor.
+     */
+    default void init(ProcessorContext context) {
+        // Not needed by producers outside the topology
+    }
+
     /**
      * Send a message for a retry attempt to the origin topic where it failed.
      * @param topic The origin topic.
-     * @param headers New headers to attach to the message.
+     * @param headers The headers to attach to the message, which the producer may add to.
      * @param payload The message payload.
      * @throws IOException Thrown if the message couldn't be sent.
      */
-    void sendToOriginTopic(String topic, Map<String, Object> headers, JsonNode payload) throws IOException;
+    void sendToOriginTopic(String topic, Headers headers, byte[] payload) throws IOException;
+
+    /**
+     * Send a message for a retry attempt to the origin topic where it failed, without waiting for it to be acknowledged.
+     * Producers that can only send synchronously complete the returned future before returning.
+     * @param topic The origin topic.
+     * @param headers The headers to attach to the message, which the producer may add to.
+     * @param payload The message payload.
+     * @return A future that completes when the message has been acknowledged, or completes exceptionally with an
+     * IOException if the message couldn't be sent.
+     */
+    default CompletableFuture<Void> sendToOriginTopicAsync(String topic, Headers headers, byte[] payload) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            sendToOriginTopic(topic, headers, payload);
+            future.complete(null);
+        } catch (IOException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Wait until all messages sent asynchronously have been acknowledged or have failed.
+     */
+    default void flush() {
+        // Nothing is buffered by synchronous producers
+    }
 
     /**
      * Send a message to the permanent failure topic.
@@ -28,6 +64,6 @@ public interface MessageProducer {
      * @param payload The message payload.
      * @throws IOException Thrown if the message couldn't be sent.
      */
-    void sendToPermanentFailureTopic(Headers headers, JsonNode payload) throws IOException;
+    void sendToPermanentFailureTopic(Headers headers, byte[] payload) throws IOException;
 
 }
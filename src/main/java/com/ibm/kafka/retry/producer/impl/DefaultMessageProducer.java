@@ -5,20 +5,17 @@
 
 package com.ibm.kafka.retry.producer.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
 import com.ibm.kafka.retry.producer.MessageProducer;
 import lombok.AllArgsConstructor;
 import org.apache.kafka.common.header.Headers;
 import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
-import org.springframework.http.MediaType;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 @AllArgsConstructor
 public class DefaultMessageProducer implements MessageProducer {
@@ -27,32 +24,33 @@ public class DefaultMessageProducer implements MessageProducer {
 
     private final BinderAwareChannelResolver resolver;
 
+    private final RetryMetrics metrics;
+
     @Override
-    public void sendToOriginTopic(String topic, Map<String, Object> headers, JsonNode payload) throws IOException {
+    public void sendToOriginTopic(String topic, Headers headers, byte[] payload) throws IOException {
         sendMessage(topic, createMessage(headers, payload));
     }
 
     @Override
-    public void sendToPermanentFailureTopic(Headers headers, JsonNode payload) throws IOException {
-        sendMessage(props.getPermanentFailureTopic(), createMessage(convertHeaders(headers), payload));
+    public void sendToPermanentFailureTopic(Headers headers, byte[] payload) throws IOException {
+        sendMessage(props.getPermanentFailureTopic(), createMessage(headers, payload));
     }
 
-    private Message<?> createMessage(Map<String, Object> headers, JsonNode payload) {
+    /**
+     * Header values are set as raw bytes, which the binder writes to the record unchanged.
+     */
+    private Message<?> createMessage(Headers headers, byte[] payload) {
         MessageBuilder<?> builder = MessageBuilder.withPayload(payload);
-        headers.forEach(builder::setHeader);
-        builder.setHeader(MessageHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        headers.forEach(header -> builder.setHeader(header.key(), header.value()));
+        builder.setHeader(MessageHeaders.CONTENT_TYPE, props.getPayloadContentType());
         return builder.build();
     }
 
-    private Map<String, Object> convertHeaders(Headers headers) {
-        Map<String, Object> headerMap = new HashMap<>();
-        headers.forEach(header -> headerMap.put(header.key(), header.value()));
-        return headerMap;
-    }
-
     private void sendMessage(String topic, Message<?> message) throws IOException {
         try {
+            long start = System.nanoTime();
             resolver.resolveDestination(topic).send(message);
+            metrics.messageProduced(topic, System.nanoTime() - start);
         } catch (RuntimeException ex) {
             throw new IOException("Failed to send message to topic " + topic, ex);
         }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.producer.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import lombok.AllArgsConstructor;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.messaging.MessageHeaders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sends messages with a native Kafka producer rather than through the Spring Cloud Stream binder, so retries can be
+ * sent asynchronously and batched by the producer (see the linger.ms and batch.size producer properties).
+ */
+@AllArgsConstructor
+public class KafkaMessageProducer implements MessageProducer, AutoCloseable {
+
+    private final ApplicationProperties props;
+
+    private final Producer<String, byte[]> producer;
+
+    private final RetryMetrics metrics;
+
+    @Override
+    public void sendToOriginTopic(String topic, Headers headers, byte[] payload) throws IOException {
+        sendMessage(createRecord(topic, headers, payload));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendToOriginTopicAsync(String topic, Headers headers, byte[] payload) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+        try {
+            producer.send(createRecord(topic, headers, payload), (metadata, ex) -> {
+                if (ex == null) {
+                    metrics.messageProduced(topic, System.nanoTime() - start);
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(new IOException("Failed to send message to topic " + topic, ex));
+                }
+            });
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(new IOException("Failed to send message to topic " + topic, ex));
+        }
+        return future;
+    }
+
+    @Override
+    public void sendToPermanentFailureTopic(Headers headers, byte[] payload) throws IOException {
+        Headers recordHeaders = new RecordHeaders();
+        headers.forEach(recordHeaders::add);
+        sendMessage(createRecord(props.getPermanentFailureTopic(), recordHeaders, payload));
+    }
+
+    @Override
+    public void flush() {
+        producer.flush();
+    }
+
+    @Override
+    public void close() {
+        producer.close();
+    }
+
+    private ProducerRecord<String, byte[]> createRecord(String topic, Headers headers, byte[] payload) {
+        headers.remove(MessageHeaders.CONTENT_TYPE);
+        headers.add(MessageHeaders.CONTENT_TYPE, props.getPayloadContentType().getBytes(StandardCharsets.UTF_8));
+        return new ProducerRecord<>(topic, null, null, payload, headers);
+    }
+
+    private void sendMessage(ProducerRecord<String, byte[]> record) throws IOException {
+        try {
+            long start = System.nanoTime();
+            producer.send(record).get();
+            metrics.messageProduced(record.topic(), System.nanoTime() - start);
+        } catch (ExecutionException | RuntimeException ex) {
+            throw new IOException("Failed to send message to topic " + record.topic(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted sending message to topic " + record.topic(), ex);
+        }
+    }
+
+}
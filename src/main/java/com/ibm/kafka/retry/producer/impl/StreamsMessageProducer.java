@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.producer.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.internals.InternalProcessorContext;
+import org.apache.kafka.streams.processor.internals.ProcessorRecordContext;
+import org.springframework.messaging.MessageHeaders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends messages by forwarding them to the sink of the Kafka Streams topology, which writes each one to the topic held
+ * in {@link RetryInfo#getOriginTopic()}. Messages are sent by the producer of the stream task, so they are batched with
+ * the task's other output and committed with its state store changes, including under exactly-once processing.
+ * <p>
+ * The producer forwards through the context of the processor it is bound to, so each processor has its own producer.
+ */
+@RequiredArgsConstructor
+public class StreamsMessageProducer implements MessageProducer {
+
+    private final ApplicationProperties props;
+
+    private ProcessorContext context;
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public void sendToOriginTopic(String topic, Headers headers, byte[] payload) throws IOException {
+        forward(topic, headers, payload);
+    }
+
+    @Override
+    public void sendToPermanentFailureTopic(Headers headers, byte[] payload) throws IOException {
+        forward(props.getPermanentFailureTopic(), headers, payload);
+    }
+
+    /**
+     * A forwarded record is sent with the headers of the current record context, and the producer marks the headers it
+     * sends read-only, so each message is forwarded with a record context of its own holding a copy of its headers. The
+     * record context of the processor is put back afterwards and its headers are never changed.
+     */
+    private void forward(String topic, Headers headers, byte[] payload) throws IOException {
+        if (context == null) {
+            throw new IOException("Producer is not initialized with a processor context");
+        }
+        Headers recordHeaders = new RecordHeaders(headers.toArray());
+        recordHeaders.remove(MessageHeaders.CONTENT_TYPE);
+        recordHeaders.add(MessageHeaders.CONTENT_TYPE, props.getPayloadContentType().getBytes(StandardCharsets.UTF_8));
+        InternalProcessorContext internalContext = (InternalProcessorContext) context;
+        ProcessorRecordContext recordContext = internalContext.recordContext();
+        internalContext.setRecordContext(new ProcessorRecordContext(recordContext.timestamp(), recordContext.offset(),
+                recordContext.partition(), recordContext.topic(), recordHeaders));
+        try {
+            context.forward(null, RetryInfo.builder().originTopic(topic).payload(payload).build());
+        } catch (RuntimeException ex) {
+            throw new IOException("Failed to send message to topic " + topic, ex);
+        } finally {
+            internalContext.setRecordContext(recordContext);
+        }
+    }
+
+}
@@ -6,17 +6,40 @@
 package com.ibm.kafka.retry.repository;
 
 import com.ibm.kafka.retry.model.RetryInfo;
+import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.state.KeyValueStore;
 
+import java.io.File;
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 public interface MessageRepository {
 
     /**
      * Initialize the repository. All operations will fail until the repository is initialized.
      * @param messageStore The state store for retriable messages.
+     * @param indexStore The state store indexing the retriable messages by due time stamp.
+     * @param claimCheckStore The state store of the payloads too large to keep in the message store, by message ID, or
+     * null if claim checks are disabled.
+     * @param stateDir The state directory of the task, where those payloads are also kept for reading, or null if payloads
+     * are only kept in the state stores.
      */
-    void init(KeyValueStore<String, RetryInfo> messageStore);
+    void init(KeyValueStore<String, RetryInfo> messageStore, KeyValueStore<Bytes, String> indexStore,
+              KeyValueStore<String, byte[]> claimCheckStore, File stateDir);
+
+    /**
+     * Get a repository for a single processor, which is initialized with the stores of the processor's task and only used
+     * by its stream thread. The repositories of all processors share the queue depth metrics.
+     * @return A new, uninitialized repository.
+     */
+    MessageRepository forProcessor();
+
+    /**
+     * Rebuild the due time index from the message store if the index is empty but messages are queued, e.g. when
+     * upgrading from a version without the index.
+     */
+    void rebuildIndex();
 
     /**
      * Queue a message to a retry attempt.
@@ -31,6 +54,21 @@ public interface MessageRepository {
      */
     void removeFromRetryQueue(String messageId);
 
+    /**
+     * Get a handle for removing messages of the current task from the retry queue on another thread, e.g. once a dispatch
+     * worker has sent them. The removals are queued until {@link #applyPendingRemovals()} is called on the stream thread
+     * of the task. A removal is skipped if the message has since been queued to another retry attempt.
+     * @return The handle, taking the message ID and the message as read from the retry queue. May be called from any
+     * thread.
+     */
+    BiConsumer<String, RetryInfo> getPendingRemover();
+
+    /**
+     * Apply the removals queued through the pending remover of the current task.
+     * @return The IDs of the messages whose removal was applied or skipped.
+     */
+    List<String> applyPendingRemovals();
+
     /**
      * Get the queued retriable messages for dispatch.
      * @param retryAttempt The retry attempt number.
@@ -38,4 +76,20 @@ public interface MessageRepository {
      */
     Map<String, RetryInfo> getQueuedMessages(int retryAttempt);
 
+    /**
+     * Iterate over the queued messages that are due for dispatch, in order of due time. Each message is read from the
+     * store as the iterator advances. Calling remove() on the iterator removes the current message from the retry queue,
+     * and calling defer() moves it to a later due time. A message whose payload is kept by reference and can no longer be
+     * read is returned with its payload reference and without a payload. The iterator must be closed after use.
+     * @param timeStamp The current time stamp.
+     * @return An iterator of message references and the original message payload.
+     */
+    RetryQueueIterator getDueMessages(long timeStamp);
+
+    /**
+     * Get the due time stamp of the earliest queued message.
+     * @return The due time stamp, or Long.MAX_VALUE if no messages are queued.
+     */
+    long getNextDueTimeStamp();
+
 }
@@ -0,0 +1,24 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository;
+
+import com.ibm.kafka.retry.model.RetryInfo;
+import org.apache.kafka.streams.state.KeyValueIterator;
+
+/**
+ * Iterates over the queued messages that are due for dispatch. See {@link MessageRepository#getDueMessages(long)}.
+ */
+public interface RetryQueueIterator extends KeyValueIterator<String, RetryInfo> {
+
+    /**
+     * Move the current message to a later due time, e.g. when its origin topic is rate limited. The message stays queued
+     * to the same retry attempt and is not read again until it is due. Only the due time index is updated, so the message
+     * keeps the due time stamp it was queued with. The move is applied when the iterator is closed.
+     * @param dueTimeStamp The new due time stamp.
+     */
+    void defer(long dueTimeStamp);
+
+}
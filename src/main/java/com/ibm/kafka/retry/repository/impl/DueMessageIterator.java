@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.repository.RetryQueueIterator;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Walks the due time index up to a time stamp and looks up each message as the iterator advances, so only one message
+ * payload is held at a time. Index entries are deleted and moved when the iterator is closed, as not all store
+ * implementations tolerate modification while a range iterator is open.
+ */
+class DueMessageIterator implements RetryQueueIterator {
+
+    private final KeyValueStore<String, RetryInfo> messageStore;
+
+    private final KeyValueStore<Bytes, String> indexStore;
+
+    private final KeyValueIterator<Bytes, String> indexIterator;
+
+    private final long timeStamp;
+
+    private final ToLongFunction<RetryInfo> dueTimeStamp;
+
+    private final RetryMetrics metrics;
+
+    private final BiConsumer<String, RetryInfo> removalListener;
+
+    private long scanNanos;
+
+    private final List<Bytes> removedKeys = new ArrayList<>();
+
+    private final List<Deferral> deferrals = new ArrayList<>();
+
+    private Bytes nextIndexKey;
+
+    private KeyValue<String, RetryInfo> next;
+
+    private Bytes currentIndexKey;
+
+    private KeyValue<String, RetryInfo> current;
+
+    DueMessageIterator(KeyValueStore<String, RetryInfo> messageStore, KeyValueStore<Bytes, String> indexStore, long timeStamp,
+                       ToLongFunction<RetryInfo> dueTimeStamp, RetryMetrics metrics,
+                       BiConsumer<String, RetryInfo> removalListener) {
+        long start = System.nanoTime();
+        this.messageStore = messageStore;
+        this.indexStore = indexStore;
+        this.timeStamp = timeStamp;
+        this.dueTimeStamp = dueTimeStamp;
+        this.metrics = metrics;
+        this.removalListener = removalListener;
+        this.indexIterator = indexStore.range(DueTimeIndexKey.lowerBound(), DueTimeIndexKey.upperBound(timeStamp));
+        scanNanos = System.nanoTime() - start;
+    }
+
+    @Override
+    public boolean hasNext() {
+        long start = System.nanoTime();
+        while (next == null && indexIterator.hasNext()) {
+            KeyValue<Bytes, String> entry = indexIterator.next();
+            if (DueTimeIndexKey.getDueTimeStamp(entry.key) > timeStamp) {
+                break;
+            }
+            RetryInfo retryInfo = messageStore.get(entry.value);
+            if (retryInfo != null) {
+                nextIndexKey = entry.key;
+                next = new KeyValue<>(entry.value, retryInfo);
+            } else {
+                removedKeys.add(entry.key);
+            }
+        }
+        scanNanos += System.nanoTime() - start;
+        return next != null;
+    }
+
+    @Override
+    public KeyValue<String, RetryInfo> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        current = next;
+        currentIndexKey = nextIndexKey;
+        next = null;
+        nextIndexKey = null;
+        return current;
+    }
+
+    @Override
+    public String peekNextKey() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return next.key;
+    }
+
+    /**
+     * Remove the current message from the retry queue.
+     */
+    @Override
+    public void remove() {
+        if (current == null) {
+            throw new IllegalStateException("No current message to remove");
+        }
+        messageStore.delete(current.key);
+        removalListener.accept(current.key, current.value);
+        removedKeys.add(currentIndexKey);
+        if (DueTimeIndexKey.getDueTimeStamp(currentIndexKey) != dueTimeStamp.applyAsLong(current.value)) {
+            removedKeys.add(DueTimeIndexKey.toDeferralKey(current.key));
+        }
+        current = null;
+        currentIndexKey = null;
+    }
+
+    @Override
+    public void defer(long deferredTimeStamp) {
+        if (current == null) {
+            throw new IllegalStateException("No current message to defer");
+        }
+        deferrals.add(new Deferral(current.key, DueTimeIndexKey.getDueTimeStamp(currentIndexKey), deferredTimeStamp));
+        current = null;
+        currentIndexKey = null;
+    }
+
+    @Override
+    public void close() {
+        indexIterator.close();
+        removedKeys.forEach(indexStore::delete);
+        removedKeys.clear();
+        deferrals.forEach(deferral -> moveIndexEntry(indexStore, deferral.messageId, deferral.indexedTimeStamp,
+                deferral.dueTimeStamp));
+        deferrals.clear();
+        metrics.storeScanned(scanNanos);
+    }
+
+    /**
+     * Move the index entry of a message to a later due time, and record the due time it is now indexed under in its
+     * deferral key. The message itself is not written.
+     */
+    static void moveIndexEntry(KeyValueStore<Bytes, String> indexStore, String messageId, long indexedTimeStamp,
+                               long dueTimeStamp) {
+        indexStore.delete(DueTimeIndexKey.toKey(indexedTimeStamp, messageId));
+        indexStore.put(DueTimeIndexKey.toKey(dueTimeStamp, messageId), messageId);
+        indexStore.put(DueTimeIndexKey.toDeferralKey(messageId), Long.toString(dueTimeStamp));
+    }
+
+    @RequiredArgsConstructor
+    private static class Deferral {
+
+        private final String messageId;
+
+        private final long indexedTimeStamp;
+
+        private final long dueTimeStamp;
+
+    }
+
+}
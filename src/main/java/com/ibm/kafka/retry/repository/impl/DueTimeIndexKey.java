@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import org.apache.kafka.common.utils.Bytes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Key layout for the due time index: an 8 byte big-endian due time stamp followed by the UTF-8 message ID. Keys
+ * therefore sort by due time first, so a range query from zero to the current time returns exactly the due messages.
+ * <p>
+ * A message deferred to a later due time than the one stored with it also has a deferral key: a 0xFF byte followed by
+ * the UTF-8 message ID, whose value is the due time stamp the message is indexed under. As due time stamps are never
+ * negative, deferral keys sort after every due time key and are outside every due time range.
+ */
+public final class DueTimeIndexKey {
+
+    private static final int TIMESTAMP_BYTES = Long.BYTES;
+
+    private static final byte DEFERRAL_PREFIX = (byte) 0xFF;
+
+    private DueTimeIndexKey() { }
+
+    public static Bytes toKey(long dueTimeStamp, String messageId) {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        return Bytes.wrap(ByteBuffer.allocate(TIMESTAMP_BYTES + id.length).putLong(Math.max(0, dueTimeStamp)).put(id).array());
+    }
+
+    /**
+     * @param timeStamp The time stamp to search up to.
+     * @return The smallest key that sorts after every key with a due time stamp less than or equal to the time stamp.
+     */
+    public static Bytes upperBound(long timeStamp) {
+        return Bytes.wrap(ByteBuffer.allocate(TIMESTAMP_BYTES).putLong(timeStamp + 1).array());
+    }
+
+    public static Bytes lowerBound() {
+        return Bytes.wrap(new byte[TIMESTAMP_BYTES]);
+    }
+
+    public static long getDueTimeStamp(Bytes key) {
+        return ByteBuffer.wrap(key.get()).getLong();
+    }
+
+    public static Bytes toDeferralKey(String messageId) {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        return Bytes.wrap(ByteBuffer.allocate(1 + id.length).put(DEFERRAL_PREFIX).put(id).array());
+    }
+
+    public static boolean isDeferralKey(Bytes key) {
+        return key.get().length > 0 && key.get()[0] == DEFERRAL_PREFIX;
+    }
+
+}
@@ -5,25 +5,135 @@
 
 package com.ibm.kafka.retry.repository.impl;
 
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
 import com.ibm.kafka.retry.model.RetryInfo;
 import com.ibm.kafka.retry.repository.MessageRepository;
+import com.ibm.kafka.retry.repository.RetryQueueIterator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.state.KeyValueIterator;
 import org.apache.kafka.streams.state.KeyValueStore;
 
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
+/**
+ * Keeps the retry queue of a task in its state stores. The repository created as a bean only tracks the queue depth of
+ * all tasks; each processor reads and writes the stores of its task through a repository of its own, see
+ * {@link #forProcessor()}, so the stores, timing wheel and flush counters of a task are only used by its stream thread.
+ */
 @Slf4j
-@RequiredArgsConstructor
 public class KafkaStreamsMessageRepository implements MessageRepository {
 
+    private static final long DEFAULT_TICK_MS = 100;
+
+    static final String PAYLOAD_DIRECTORY = "retry-payloads";
+
+    private final ApplicationProperties props;
+
+    private final RetryMetrics metrics;
+
+    /**
+     * State of each message store that the repositories of the processors have been initialized with. Only open stores
+     * are counted in the queue depth, so the totals follow the tasks assigned to this instance.
+     */
+    private final Map<KeyValueStore<String, RetryInfo>, TaskState> taskStates;
+
+    private TaskState taskState;
+
     private KeyValueStore<String, RetryInfo> messageStore;
 
+    private KeyValueStore<Bytes, String> indexStore;
+
+    private KeyValueStore<String, byte[]> claimCheckStore;
+
+    private int pendingWrites;
+
+    private long lastFlushTimeStamp;
+
+    public KafkaStreamsMessageRepository(ApplicationProperties props, RetryMetrics metrics) {
+        this(props, metrics, new ConcurrentHashMap<>());
+        Set<Integer> retryAttempts = new TreeSet<>(props.getRetryDelaysMs().keySet());
+        for (int retryAttempt = 1; retryAttempt <= props.getRetryMaxAttempts(); retryAttempt++) {
+            retryAttempts.add(retryAttempt);
+        }
+        retryAttempts.forEach(retryAttempt -> metrics.registerQueueDepth(retryAttempt, () -> getQueueDepth(retryAttempt)));
+    }
+
+    private KafkaStreamsMessageRepository(ApplicationProperties props, RetryMetrics metrics,
+                                          Map<KeyValueStore<String, RetryInfo>, TaskState> taskStates) {
+        this.props = props;
+        this.metrics = metrics;
+        this.taskStates = taskStates;
+    }
+
+    @Override
+    public MessageRepository forProcessor() {
+        return new KafkaStreamsMessageRepository(props, metrics, taskStates);
+    }
+
     @Override
-    public void init(KeyValueStore<String, RetryInfo> messageStore) {
+    public void init(KeyValueStore<String, RetryInfo> messageStore, KeyValueStore<Bytes, String> indexStore,
+                     KeyValueStore<String, byte[]> claimCheckStore, File stateDir) {
+        if (messageStore != this.messageStore && messageStore != null) {
+            taskState = taskStates.get(messageStore);
+            if (taskState == null) {
+                removeClosedTasks();
+                SegmentPayloadStore payloadStore = createPayloadStore(stateDir);
+                taskState = new TaskState(countQueuedMessages(messageStore, payloadStore),
+                        props.isRetryTimingWheelEnabled() ? createTimingWheel(indexStore) : null, payloadStore);
+                if (payloadStore != null) {
+                    payloadStore.deleteUnreferenced();
+                }
+                taskStates.put(messageStore, taskState);
+            }
+        }
         this.messageStore = messageStore;
+        this.indexStore = indexStore;
+        this.claimCheckStore = claimCheckStore;
+    }
+
+    @Override
+    public void rebuildIndex() {
+        if (isInitialized()) {
+            boolean indexEmpty;
+            try (KeyValueIterator<Bytes, String> iterator = indexStore.all()) {
+                indexEmpty = !iterator.hasNext();
+            }
+            if (indexEmpty) {
+                long count = 0;
+                try (KeyValueIterator<String, RetryInfo> iterator = messageStore.all()) {
+                    while (iterator.hasNext()) {
+                        KeyValue<String, RetryInfo> entry = iterator.next();
+                        long dueTimeStamp = entry.value.getDueTimeStamp(props.getRetryDelaysMs());
+                        indexStore.put(DueTimeIndexKey.toKey(dueTimeStamp, entry.key), entry.key);
+                        if (taskState.timingWheel != null) {
+                            taskState.timingWheel.add(entry.key, dueTimeStamp);
+                        }
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    log.info("Rebuilt due time index for {} queued messages", count);
+                    indexStore.flush();
+                }
+            }
+        }
     }
 
     @Override
@@ -33,7 +143,9 @@ public class KafkaStreamsMessageRepository implements MessageRepository {
             try (KeyValueIterator<String, RetryInfo> iterator = messageStore.all()) {
                 iterator.forEachRemaining(entry -> {
                     if (entry.value.getRetryAttempt() == retryAttempt) {
-                        messages.put(entry.key, entry.value);
+                        RetryInfo retryInfo = entry.value.getPayloadReference() == null ? entry.value
+                                : PayloadLoadingIterator.load(entry.key, entry.value, taskState.payloadStore, claimCheckStore);
+                        messages.put(entry.key, retryInfo == null ? entry.value : retryInfo);
                     }
                 });
             }
@@ -41,25 +153,266 @@ public class KafkaStreamsMessageRepository implements MessageRepository {
         return messages;
     }
 
+    @Override
+    public RetryQueueIterator getDueMessages(long timeStamp) {
+        RetryQueueIterator iterator;
+        if (isInitialized() && taskState.timingWheel != null) {
+            iterator = loadPayloads(new TimingWheelIterator(messageStore, indexStore, taskState.timingWheel, timeStamp,
+                    retryInfo -> retryInfo.getDueTimeStamp(props.getRetryDelaysMs()), metrics, this::messageRemoved));
+        } else if (isInitialized()) {
+            iterator = loadPayloads(new DueMessageIterator(messageStore, indexStore, timeStamp,
+                    retryInfo -> retryInfo.getDueTimeStamp(props.getRetryDelaysMs()), metrics, this::messageRemoved));
+        } else {
+            iterator = new EmptyIterator();
+        }
+        return iterator;
+    }
+
+    /**
+     * Reads the first key of the due time index, which is a single seek, or the next due slot of the timing wheel.
+     */
+    @Override
+    public long getNextDueTimeStamp() {
+        long dueTimeStamp = Long.MAX_VALUE;
+        if (isInitialized() && taskState.timingWheel != null) {
+            dueTimeStamp = taskState.timingWheel.getNextDueTimeStamp();
+        } else if (isInitialized()) {
+            try (KeyValueIterator<Bytes, String> iterator = indexStore.all()) {
+                if (iterator.hasNext() && !DueTimeIndexKey.isDeferralKey(iterator.peekNextKey())) {
+                    dueTimeStamp = DueTimeIndexKey.getDueTimeStamp(iterator.peekNextKey());
+                }
+            }
+        }
+        return dueTimeStamp;
+    }
+
     @Override
     public void addToRetryQueue(String messageId, RetryInfo retryInfo) {
         if (isInitialized()) {
-            messageStore.put(messageId, retryInfo);
-            messageStore.flush();
+            RetryInfo previous = messageStore.get(messageId);
+            if (previous != null) {
+                deleteIndexEntry(messageId, previous);
+                messageRemoved(messageId, previous);
+            }
+            messageStore.put(messageId, storePayload(messageId, retryInfo));
+            updateQueueDepth(retryInfo.getRetryAttempt(), 1);
+            long dueTimeStamp = retryInfo.getDueTimeStamp(props.getRetryDelaysMs());
+            indexStore.put(DueTimeIndexKey.toKey(dueTimeStamp, messageId), messageId);
+            if (taskState.timingWheel != null) {
+                taskState.timingWheel.add(messageId, dueTimeStamp);
+            }
+            flushIfRequired();
         }
     }
 
     @Override
     public void removeFromRetryQueue(String messageId) {
         if (isInitialized()) {
+            RetryInfo retryInfo = messageStore.get(messageId);
+            if (retryInfo != null) {
+                deleteIndexEntry(messageId, retryInfo);
+                messageRemoved(messageId, retryInfo);
+            }
             messageStore.delete(messageId);
+            flushIfRequired();
+        }
+    }
+
+    @Override
+    public BiConsumer<String, RetryInfo> getPendingRemover() {
+        Queue<PendingRemoval> pendingRemovals = taskState == null ? null : taskState.pendingRemovals;
+        return (messageId, retryInfo) -> {
+            if (pendingRemovals != null) {
+                pendingRemovals.add(new PendingRemoval(messageId, retryInfo.getRetryAttempt(), retryInfo.getTimeStamp()));
+            }
+        };
+    }
+
+    /**
+     * A message is removed only if it is still queued to the retry attempt that was sent, as a message that failed again
+     * may have been queued to the next retry attempt under the same ID in the meantime.
+     */
+    @Override
+    public List<String> applyPendingRemovals() {
+        List<String> messageIds = new ArrayList<>();
+        if (isInitialized()) {
+            PendingRemoval removal = taskState.pendingRemovals.poll();
+            while (removal != null) {
+                RetryInfo retryInfo = messageStore.get(removal.messageId);
+                if (retryInfo != null && retryInfo.getRetryAttempt() == removal.retryAttempt
+                        && retryInfo.getTimeStamp() == removal.timeStamp) {
+                    deleteIndexEntry(removal.messageId, retryInfo);
+                    messageRemoved(removal.messageId, retryInfo);
+                    messageStore.delete(removal.messageId);
+                    flushIfRequired();
+                }
+                messageIds.add(removal.messageId);
+                removal = taskState.pendingRemovals.poll();
+            }
+        }
+        return messageIds;
+    }
+
+    /**
+     * A deferred message is indexed under the due time stamp in its deferral key rather than the one stored with it.
+     */
+    private void deleteIndexEntry(String messageId, RetryInfo retryInfo) {
+        Bytes deferralKey = DueTimeIndexKey.toDeferralKey(messageId);
+        String deferredTimeStamp = indexStore.get(deferralKey);
+        if (deferredTimeStamp != null) {
+            indexStore.delete(DueTimeIndexKey.toKey(Long.parseLong(deferredTimeStamp), messageId));
+            indexStore.delete(deferralKey);
+        } else {
+            indexStore.delete(DueTimeIndexKey.toKey(retryInfo.getDueTimeStamp(props.getRetryDelaysMs()), messageId));
+        }
+    }
+
+    /**
+     * Writes are left to the Kafka Streams commit cycle, which flushes the stores, unless an explicit flush is configured
+     * after a number of writes or an interval.
+     */
+    private void flushIfRequired() {
+        pendingWrites++;
+        int maxWrites = props.getRetryStoreFlushMaxWrites();
+        long intervalMs = props.getRetryStoreFlushIntervalMs();
+        boolean maxWritesReached = maxWrites > 0 && pendingWrites >= maxWrites;
+        long now = intervalMs > 0 ? System.currentTimeMillis() : 0;
+        boolean intervalElapsed = intervalMs > 0 && now - lastFlushTimeStamp >= intervalMs;
+        if (maxWritesReached || intervalElapsed) {
+            if (taskState.payloadStore != null) {
+                taskState.payloadStore.flush();
+            }
+            if (claimCheckStore != null) {
+                claimCheckStore.flush();
+            }
             messageStore.flush();
+            indexStore.flush();
+            pendingWrites = 0;
+            lastFlushTimeStamp = now;
+        }
+    }
+
+    /**
+     * Payloads over the claim check threshold are appended to the payload store of the task, and only the reference is
+     * kept in the message store. The payload is also written to the claim check store, whose changelog restores it
+     * wherever the task is assigned next, as the payload store is local to the instance. A payload that cannot be
+     * appended is kept in the message store.
+     */
+    private RetryInfo storePayload(String messageId, RetryInfo retryInfo) {
+        RetryInfo stored = retryInfo;
+        byte[] payload = retryInfo.getPayload();
+        int thresholdBytes = props.getRetryClaimCheckThresholdBytes();
+        if (taskState.payloadStore != null && claimCheckStore != null && thresholdBytes > 0 && payload != null
+                && payload.length >= thresholdBytes) {
+            try {
+                stored = retryInfo.toBuilder().payload(null).payloadReference(taskState.payloadStore.append(payload)).build();
+                claimCheckStore.put(messageId, payload);
+            } catch (UncheckedIOException ex) {
+                log.error("Failed to store payload of message {} in payload store. Keeping it in the retry queue", messageId, ex);
+            }
+        }
+        return stored;
+    }
+
+    private RetryQueueIterator loadPayloads(RetryQueueIterator iterator) {
+        return taskState.payloadStore == null && claimCheckStore == null ? iterator
+                : new PayloadLoadingIterator(iterator, taskState.payloadStore, claimCheckStore);
+    }
+
+    private void messageRemoved(String messageId, RetryInfo retryInfo) {
+        updateQueueDepth(retryInfo.getRetryAttempt(), -1);
+        if (retryInfo.getPayloadReference() != null) {
+            if (taskState.payloadStore != null) {
+                taskState.payloadStore.release(retryInfo.getPayloadReference());
+            }
+            if (claimCheckStore != null) {
+                claimCheckStore.delete(messageId);
+            }
+        }
+    }
+
+    /**
+     * The payload store of a task is opened when claim checks are enabled, or when the task has payloads stored while
+     * they were enabled, so that those can still be dispatched.
+     */
+    private SegmentPayloadStore createPayloadStore(File stateDir) {
+        SegmentPayloadStore payloadStore = null;
+        if (stateDir != null) {
+            File directory = new File(stateDir, PAYLOAD_DIRECTORY);
+            if (props.getRetryClaimCheckThresholdBytes() > 0 || directory.isDirectory()) {
+                payloadStore = new SegmentPayloadStore(directory, props.getRetryClaimCheckSegmentBytes());
+            }
         }
+        return payloadStore;
+    }
+
+    /**
+     * Forget the state of the tasks whose stores have been closed, i.e. that are no longer assigned.
+     */
+    private void removeClosedTasks() {
+        taskStates.entrySet().removeIf(entry -> {
+            boolean closed = !entry.getKey().isOpen();
+            if (closed && entry.getValue().payloadStore != null) {
+                entry.getValue().payloadStore.close();
+            }
+            return closed;
+        });
+    }
+
+    /**
+     * Count the messages in a store seen for the first time, i.e. when a task is assigned, and the payloads they keep in
+     * the payload store.
+     */
+    private Map<Integer, AtomicLong> countQueuedMessages(KeyValueStore<String, RetryInfo> store, SegmentPayloadStore payloadStore) {
+        Map<Integer, AtomicLong> depth = new ConcurrentHashMap<>();
+        try (KeyValueIterator<String, RetryInfo> iterator = store.all()) {
+            iterator.forEachRemaining(entry -> {
+                depth.computeIfAbsent(entry.value.getRetryAttempt(), attempt -> new AtomicLong()).incrementAndGet();
+                if (payloadStore != null && entry.value.getPayloadReference() != null) {
+                    payloadStore.retain(entry.value.getPayloadReference());
+                }
+            });
+        }
+        return depth;
+    }
+
+    /**
+     * Build the timing wheel of a store seen for the first time from the due time index, which holds only the message IDs.
+     * Removed messages are deleted from the wheel lazily, so entries are only added. Deferral keys are skipped, as the
+     * message is added under the due time key it was deferred to.
+     */
+    private TimingWheel createTimingWheel(KeyValueStore<Bytes, String> indexStore) {
+        long tickMs = props.getRetrySchedulerGranularityMs() > 0 ? props.getRetrySchedulerGranularityMs() : DEFAULT_TICK_MS;
+        TimingWheel timingWheel = new TimingWheel(tickMs, System.currentTimeMillis());
+        try (KeyValueIterator<Bytes, String> iterator = indexStore.all()) {
+            iterator.forEachRemaining(entry -> {
+                if (!DueTimeIndexKey.isDeferralKey(entry.key)) {
+                    timingWheel.add(entry.value, DueTimeIndexKey.getDueTimeStamp(entry.key));
+                }
+            });
+        }
+        log.info("Built timing wheel for {} queued messages", timingWheel.size());
+        return timingWheel;
+    }
+
+    private void updateQueueDepth(int retryAttempt, long delta) {
+        taskState.queueDepth.computeIfAbsent(retryAttempt, attempt -> new AtomicLong()).addAndGet(delta);
+    }
+
+    private long getQueueDepth(int retryAttempt) {
+        long depth = 0;
+        for (Map.Entry<KeyValueStore<String, RetryInfo>, TaskState> entry : taskStates.entrySet()) {
+            AtomicLong count = entry.getValue().queueDepth.get(retryAttempt);
+            if (count != null && entry.getKey().isOpen()) {
+                depth += count.get();
+            }
+        }
+        return depth;
     }
 
     private boolean isInitialized() {
         boolean initialized = false;
-        if (messageStore != null) {
+        if (messageStore != null && indexStore != null) {
             initialized = true;
         } else {
             log.error("Cannot perform operation as state stores are not initialized");
@@ -67,4 +420,69 @@ public class KafkaStreamsMessageRepository implements MessageRepository {
         return initialized;
     }
 
+    @RequiredArgsConstructor
+    private static class TaskState {
+
+        /**
+         * Number of queued messages per retry attempt. Read by the metrics thread.
+         */
+        private final Map<Integer, AtomicLong> queueDepth;
+
+        /**
+         * Only used by the stream thread of the task, or null if the timing wheel is disabled.
+         */
+        private final TimingWheel timingWheel;
+
+        /**
+         * Only used by the stream thread of the task, or null if claim checks are disabled.
+         */
+        private final SegmentPayloadStore payloadStore;
+
+        /**
+         * Removals of messages sent by the dispatch workers, applied by the stream thread of the task.
+         */
+        private final Queue<PendingRemoval> pendingRemovals = new ConcurrentLinkedQueue<>();
+
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingRemoval {
+
+        private final String messageId;
+
+        private final int retryAttempt;
+
+        private final long timeStamp;
+
+    }
+
+    private static class EmptyIterator implements RetryQueueIterator {
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public KeyValue<String, RetryInfo> next() {
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public String peekNextKey() {
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void defer(long dueTimeStamp) {
+            throw new IllegalStateException("No current message to defer");
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+
+    }
+
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.repository.RetryQueueIterator;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads back the payloads of due messages that are kept in the {@link SegmentPayloadStore}, as the iterator advances.
+ * The payload is copied from the mapped segment straight into the array that is sent. A payload whose segment does not
+ * exist on this instance, e.g. because the task was moved from another instance, is read from the claim check store
+ * instead, which is restored from its changelog topic with the task. A message whose payload is in neither is returned
+ * as stored, with its payload reference and without a payload, so that it can be sent to the permanent failure topic.
+ */
+@RequiredArgsConstructor
+class PayloadLoadingIterator implements RetryQueueIterator {
+
+    private final RetryQueueIterator iterator;
+
+    /**
+     * Null if the task has no payload store, e.g. without a state directory.
+     */
+    private final SegmentPayloadStore payloadStore;
+
+    /**
+     * Null if claim checks are disabled.
+     */
+    private final KeyValueStore<String, byte[]> claimCheckStore;
+
+    private KeyValue<String, RetryInfo> next;
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && iterator.hasNext()) {
+            KeyValue<String, RetryInfo> message = iterator.next();
+            RetryInfo retryInfo = load(message.key, message.value, payloadStore, claimCheckStore);
+            next = retryInfo == null ? message : new KeyValue<>(message.key, retryInfo);
+        }
+        return next != null;
+    }
+
+    @Override
+    public KeyValue<String, RetryInfo> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        KeyValue<String, RetryInfo> current = next;
+        next = null;
+        return current;
+    }
+
+    @Override
+    public String peekNextKey() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return next.key;
+    }
+
+    /**
+     * Remove the message last returned by next(). Must not be called after hasNext(), which may advance the underlying
+     * iterator.
+     */
+    @Override
+    public void remove() {
+        iterator.remove();
+    }
+
+    /**
+     * Defer the message last returned by next(). Must not be called after hasNext(), as for remove().
+     */
+    @Override
+    public void defer(long dueTimeStamp) {
+        iterator.defer(dueTimeStamp);
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+    }
+
+    /**
+     * @return The message with its payload, or null if the payload no longer exists.
+     */
+    static RetryInfo load(String messageId, RetryInfo retryInfo, SegmentPayloadStore payloadStore,
+                          KeyValueStore<String, byte[]> claimCheckStore) {
+        RetryInfo loaded = retryInfo;
+        if (retryInfo.getPayloadReference() != null) {
+            ByteBuffer buffer = payloadStore == null ? null : payloadStore.read(retryInfo.getPayloadReference());
+            byte[] payload = null;
+            if (buffer != null) {
+                payload = new byte[buffer.remaining()];
+                buffer.get(payload);
+            } else if (claimCheckStore != null) {
+                payload = claimCheckStore.get(messageId);
+            }
+            loaded = payload == null ? null : retryInfo.toBuilder().payload(payload).build();
+        }
+        return loaded;
+    }
+
+}
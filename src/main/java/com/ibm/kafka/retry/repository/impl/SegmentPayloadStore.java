@@ -0,0 +1,271 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import com.ibm.kafka.retry.model.PayloadReference;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.utils.MappedByteBuffers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Append-only store of the payloads too large to keep in the retry queue, in memory mapped segment files in a directory
+ * of the task. Payloads are appended to the active segment, and a new segment is started when it is full. A payload
+ * larger than a segment gets a segment of its own.
+ * <p>
+ * The bytes of the payloads still referenced by queued messages are counted per segment, and a segment other than the
+ * active one is deleted as soon as none of its payloads are referenced, so the files are reclaimed as the messages are
+ * dispatched. Payloads are not moved between segments, so a segment is kept while any of its payloads is queued. The
+ * counts are not persisted: they are rebuilt from the queued messages when the task is assigned, after which the
+ * segments without queued payloads are deleted.
+ * <p>
+ * The segments of a task may be written on several instances as the task moves between them, and a segment left on an
+ * instance may be found again when the task returns. Each opened store numbers its segments from a random base, so a
+ * reference never resolves to a segment written by another store, and a payload whose segment was written elsewhere is
+ * simply not found here.
+ * <p>
+ * The mapping of a segment is released as soon as the segment is deleted or the store is closed, rather than when the
+ * buffer is garbage collected, so views returned by {@link #read(PayloadReference)} must be copied before the payload is
+ * released.
+ * <p>
+ * Not thread safe. Each instance is used by the stream thread of a single task.
+ */
+@Slf4j
+class SegmentPayloadStore implements AutoCloseable {
+
+    static final String SEGMENT_SUFFIX = ".segment";
+
+    private final File directory;
+
+    private final int segmentBytes;
+
+    private final Map<Long, Segment> segments = new HashMap<>();
+
+    private Segment active;
+
+    private long nextSegment;
+
+    /**
+     * Open the store, finding the segments written before. A new segment is started for the payloads appended.
+     * @param directory The directory of the segment files, created if it does not exist.
+     * @param segmentBytes The size of a segment.
+     */
+    SegmentPayloadStore(File directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new UncheckedIOException(new IOException("Failed to create payload store directory " + directory));
+        }
+        nextSegment = (long) ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE) << Integer.SIZE;
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        for (File file : files == null ? new File[0] : files) {
+            try {
+                long id = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, new Segment(id, file, (int) Math.min(file.length(), Integer.MAX_VALUE)));
+            } catch (NumberFormatException ex) {
+                log.warn("Ignoring unexpected file {} in payload store", file);
+            }
+        }
+    }
+
+    /**
+     * Append a payload to the active segment.
+     * @param payload The payload.
+     * @return The reference for reading the payload back.
+     * @throws UncheckedIOException Thrown if a new segment could not be created.
+     */
+    PayloadReference append(byte[] payload) {
+        if (active == null || active.capacity - active.position < payload.length) {
+            Segment sealed = active;
+            active = createSegment(Math.max(segmentBytes, payload.length));
+            if (sealed != null && sealed.liveBytes <= 0) {
+                delete(sealed);
+            }
+        }
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(active.position);
+        buffer.put(payload);
+        PayloadReference reference = PayloadReference.builder().segment(active.id).offset(active.position)
+                .length(payload.length).build();
+        active.position += payload.length;
+        active.liveBytes += payload.length;
+        return reference;
+    }
+
+    /**
+     * @param reference The reference of a payload.
+     * @return A read only view of the payload in the mapped segment, or null if the segment no longer exists, e.g. when
+     * the task was moved from another instance.
+     */
+    ByteBuffer read(PayloadReference reference) {
+        Segment segment = segments.get(reference.getSegment());
+        ByteBuffer view = null;
+        if (segment != null && reference.getOffset() >= 0 && reference.getLength() >= 0
+                && (long) reference.getOffset() + reference.getLength() <= segment.capacity) {
+            MappedByteBuffer buffer = segment.map();
+            if (buffer != null) {
+                view = buffer.asReadOnlyBuffer();
+                view.position(reference.getOffset());
+                view.limit(reference.getOffset() + reference.getLength());
+                view = view.slice();
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Count a payload referenced by a queued message when the store is opened.
+     * @param reference The reference of the payload.
+     */
+    void retain(PayloadReference reference) {
+        Segment segment = segments.get(reference.getSegment());
+        if (segment != null) {
+            segment.liveBytes += reference.getLength();
+        }
+    }
+
+    /**
+     * Release a payload that is no longer referenced, deleting its segment if no other payloads in it are referenced.
+     * @param reference The reference of the payload.
+     */
+    void release(PayloadReference reference) {
+        Segment segment = segments.get(reference.getSegment());
+        if (segment != null) {
+            segment.liveBytes -= reference.getLength();
+            if (segment.liveBytes <= 0 && segment != active) {
+                delete(segment);
+            }
+        }
+    }
+
+    /**
+     * Delete the segments without referenced payloads, once the payloads of the queued messages have been retained.
+     */
+    void deleteUnreferenced() {
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.liveBytes <= 0 && segment != active) {
+                iterator.remove();
+                deleteFile(segment);
+            }
+        }
+    }
+
+    /**
+     * @return The number of segment files.
+     */
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Write the appended payloads to disk.
+     */
+    void flush() {
+        if (active != null) {
+            active.buffer.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        segments.values().forEach(SegmentPayloadStore::unmap);
+        segments.clear();
+        active = null;
+    }
+
+    private Segment createSegment(int capacity) {
+        long id = nextSegment++;
+        while (segments.containsKey(id)) {
+            id = nextSegment++;
+        }
+        File file = new File(directory, String.format("%020d%s", id, SEGMENT_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(capacity);
+            Segment segment = new Segment(id, file, capacity);
+            segment.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            segments.put(id, segment);
+            return segment;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to create payload segment " + file, ex);
+        }
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment.id);
+        deleteFile(segment);
+    }
+
+    private void deleteFile(Segment segment) {
+        unmap(segment);
+        try {
+            Files.deleteIfExists(segment.file.toPath());
+        } catch (IOException ex) {
+            log.warn("Failed to delete payload segment {}", segment.file, ex);
+        }
+    }
+
+    private static void unmap(Segment segment) {
+        if (segment.buffer != null) {
+            try {
+                MappedByteBuffers.unmap(segment.file.getPath(), segment.buffer);
+            } catch (IOException ex) {
+                log.warn("Failed to unmap payload segment {}", segment.file, ex);
+            }
+            segment.buffer = null;
+        }
+    }
+
+    private static class Segment {
+
+        private final long id;
+
+        private final File file;
+
+        private final int capacity;
+
+        /**
+         * Mapped when created, or for segments written before the store was opened, when first read.
+         */
+        private MappedByteBuffer buffer;
+
+        private int position;
+
+        private long liveBytes;
+
+        Segment(long id, File file, int capacity) {
+            this.id = id;
+            this.file = file;
+            this.capacity = capacity;
+        }
+
+        private MappedByteBuffer map() {
+            if (buffer == null) {
+                try (FileChannel channel = FileChannel.open(file.toPath())) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+                } catch (IOException ex) {
+                    log.error("Failed to map payload segment {}", file, ex);
+                }
+            }
+            return buffer;
+        }
+
+    }
+
+}
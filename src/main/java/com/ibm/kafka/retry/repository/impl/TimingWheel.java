@@ -0,0 +1,277 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel of message IDs by due time stamp. There are four levels of 256 slots, where a slot at level 0
+ * spans one tick and a slot at each higher level spans a full turn of the level below. Entries beyond the top level are
+ * kept in an overflow list. Entries are moved to lower levels as the wheel turns, so finding the due entries costs
+ * amortized O(1) per entry, and empty stretches of the wheel are skipped.
+ * <p>
+ * Entries are held in parallel primitive arrays linked into a list per slot, so each entry costs a long, an int and a
+ * reference to the message ID. Entries cannot be removed, so an entry for a message that has since been removed or
+ * queued again must be discarded by the caller when it is returned as due.
+ * <p>
+ * Not thread safe. Each instance is used by the stream thread of a single task.
+ */
+class TimingWheel {
+
+    /**
+     * Receives the due entries. Must not modify the wheel.
+     */
+    interface EntryConsumer {
+
+        void accept(String messageId, long dueTimeStamp);
+
+    }
+
+    private static final int SLOT_BITS = 8;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    private static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final long tickMs;
+
+    private final int[] slots = new int[LEVELS * SLOTS];
+
+    private int overflow = NONE;
+
+    private long[] dueTimeStamps = new long[INITIAL_CAPACITY];
+
+    private String[] messageIds = new String[INITIAL_CAPACITY];
+
+    private int[] nextEntries = new int[INITIAL_CAPACITY];
+
+    private int freeEntry = NONE;
+
+    private int allocated;
+
+    private int size;
+
+    /**
+     * Every tick before the current tick has been expired.
+     */
+    private long currentTick;
+
+    /**
+     * @param tickMs The time span of a slot at level 0.
+     * @param timeStamp The current time stamp.
+     */
+    TimingWheel(long tickMs, long timeStamp) {
+        this.tickMs = tickMs;
+        this.currentTick = timeStamp / tickMs;
+        Arrays.fill(slots, NONE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(String messageId, long dueTimeStamp) {
+        int entry = allocate();
+        messageIds[entry] = messageId;
+        dueTimeStamps[entry] = dueTimeStamp;
+        place(entry);
+        size++;
+    }
+
+    /**
+     * Remove and return every entry due at or before a time stamp.
+     * @param timeStamp The current time stamp.
+     * @param consumer Receives each due entry.
+     */
+    void expire(long timeStamp, EntryConsumer consumer) {
+        expire(timeStamp, Integer.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Remove and return up to a number of the entries due at or before a time stamp. The wheel stops at the slot where
+     * the limit was reached, so the next call carries on from there.
+     * @param timeStamp The current time stamp.
+     * @param limit The maximum number of entries to return.
+     * @param consumer Receives each due entry.
+     * @return The number of entries returned, which is less than the limit only if no more entries are due.
+     */
+    int expire(long timeStamp, int limit, EntryConsumer consumer) {
+        long targetTick = timeStamp / tickMs;
+        int expired = 0;
+        while (currentTick < targetTick && expired < limit) {
+            long eventTick = getNextEventTick();
+            if (eventTick > currentTick) {
+                currentTick = Math.min(eventTick, targetTick);
+            } else {
+                int index = (int) (currentTick & SLOT_MASK);
+                expired += drain(index, Long.MAX_VALUE, limit - expired, consumer);
+                if (slots[index] != NONE) {
+                    break;
+                }
+                currentTick++;
+            }
+            cascade();
+        }
+        if (currentTick == targetTick && expired < limit) {
+            expired += drain((int) (currentTick & SLOT_MASK), timeStamp, limit - expired, consumer);
+        }
+        return expired;
+    }
+
+    /**
+     * @return The earliest due time stamp, a lower bound for it if the earliest entry has not reached level 0 yet, or
+     * Long.MAX_VALUE if the wheel is empty.
+     */
+    long getNextDueTimeStamp() {
+        long eventTick = getNextEventTick();
+        long dueTimeStamp;
+        if (eventTick == Long.MAX_VALUE) {
+            dueTimeStamp = Long.MAX_VALUE;
+        } else if (eventTick >>> SLOT_BITS == currentTick >>> SLOT_BITS) {
+            dueTimeStamp = getMinimumDueTimeStamp(slots[(int) (eventTick & SLOT_MASK)]);
+        } else {
+            dueTimeStamp = eventTick * tickMs;
+        }
+        return dueTimeStamp;
+    }
+
+    /**
+     * The next tick at which an entry may be due: the tick of the next occupied slot at level 0, or the first tick of the
+     * next occupied slot at a higher level, when its entries are cascaded. Ticks before it can be skipped, as no entry is
+     * due and no slot is cascaded.
+     */
+    private long getNextEventTick() {
+        if (size > 0) {
+            for (int level = 0; level < LEVELS; level++) {
+                int shift = SLOT_BITS * level;
+                int digit = (int) ((currentTick >>> shift) & SLOT_MASK);
+                for (int slot = level == 0 ? digit : digit + 1; slot < SLOTS; slot++) {
+                    if (slots[level * SLOTS + slot] != NONE) {
+                        long windowTick = currentTick >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+                        return windowTick | (long) slot << shift;
+                    }
+                }
+            }
+        }
+        return overflow == NONE ? Long.MAX_VALUE : (currentTick >>> (SLOT_BITS * LEVELS)) + 1 << (SLOT_BITS * LEVELS);
+    }
+
+    /**
+     * An entry goes in the lowest level whose slots span the entry and the current tick, i.e. where the ticks only
+     * differ in the digits of that level and below. Overdue entries go in the slot of the current tick.
+     */
+    private void place(int entry) {
+        long tick = Math.max(dueTimeStamps[entry] / tickMs, currentTick);
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            if ((tick ^ currentTick) >>> (shift + SLOT_BITS) == 0) {
+                push(level * SLOTS + (int) ((tick >>> shift) & SLOT_MASK), entry);
+                return;
+            }
+        }
+        nextEntries[entry] = overflow;
+        overflow = entry;
+    }
+
+    /**
+     * When the current tick starts a new slot at a higher level, the entries of that slot are placed again, which moves
+     * them to lower levels. Higher levels are cascaded first, as their entries may land in a slot cascaded next.
+     */
+    private void cascade() {
+        if ((currentTick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) {
+            int entry = overflow;
+            overflow = NONE;
+            placeAll(entry);
+        }
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = SLOT_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) == 0) {
+                int index = level * SLOTS + (int) ((currentTick >>> shift) & SLOT_MASK);
+                int entry = slots[index];
+                slots[index] = NONE;
+                placeAll(entry);
+            }
+        }
+    }
+
+    private void placeAll(int entry) {
+        while (entry != NONE) {
+            int next = nextEntries[entry];
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private int drain(int index, long timeStamp, int limit, EntryConsumer consumer) {
+        int drained = 0;
+        int previous = NONE;
+        int entry = slots[index];
+        while (entry != NONE && drained < limit) {
+            int next = nextEntries[entry];
+            if (dueTimeStamps[entry] <= timeStamp) {
+                if (previous == NONE) {
+                    slots[index] = next;
+                } else {
+                    nextEntries[previous] = next;
+                }
+                String messageId = messageIds[entry];
+                long dueTimeStamp = dueTimeStamps[entry];
+                release(entry);
+                consumer.accept(messageId, dueTimeStamp);
+                drained++;
+            } else {
+                previous = entry;
+            }
+            entry = next;
+        }
+        return drained;
+    }
+
+    private long getMinimumDueTimeStamp(int entry) {
+        long dueTimeStamp = Long.MAX_VALUE;
+        while (entry != NONE) {
+            dueTimeStamp = Math.min(dueTimeStamp, dueTimeStamps[entry]);
+            entry = nextEntries[entry];
+        }
+        return dueTimeStamp;
+    }
+
+    private void push(int index, int entry) {
+        nextEntries[entry] = slots[index];
+        slots[index] = entry;
+    }
+
+    private int allocate() {
+        int entry;
+        if (freeEntry != NONE) {
+            entry = freeEntry;
+            freeEntry = nextEntries[entry];
+        } else {
+            if (allocated == messageIds.length) {
+                int capacity = messageIds.length * 2;
+                dueTimeStamps = Arrays.copyOf(dueTimeStamps, capacity);
+                messageIds = Arrays.copyOf(messageIds, capacity);
+                nextEntries = Arrays.copyOf(nextEntries, capacity);
+            }
+            entry = allocated++;
+        }
+        return entry;
+    }
+
+    private void release(int entry) {
+        messageIds[entry] = null;
+        nextEntries[entry] = freeEntry;
+        freeEntry = entry;
+        size--;
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.repository.RetryQueueIterator;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Iterates over the messages that a {@link TimingWheel} returns as due, looking up each message as the iterator
+ * advances. Due entries are taken from the wheel in small batches as they are needed, so a dispatch that stops at a
+ * budget only takes the entries it looked at. Entries for messages that have since been removed or queued again with
+ * another due time are skipped. Entries for messages that are not removed, i.e. that were not dispatched or are waiting
+ * to be acknowledged, and entries taken but not looked at, are returned to the wheel when the iterator is closed, so
+ * they are due again on the next dispatch. Deferred messages are returned to the wheel at their new due time.
+ */
+class TimingWheelIterator implements RetryQueueIterator {
+
+    static final int BATCH_SIZE = 64;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final KeyValueStore<String, RetryInfo> messageStore;
+
+    private final KeyValueStore<Bytes, String> indexStore;
+
+    private final TimingWheel timingWheel;
+
+    private final long timeStamp;
+
+    private final ToLongFunction<RetryInfo> dueTimeStamp;
+
+    private final RetryMetrics metrics;
+
+    private final BiConsumer<String, RetryInfo> removalListener;
+
+    /**
+     * Entries taken from the wheel that have not been looked up yet.
+     */
+    private final String[] batchIds = new String[BATCH_SIZE];
+
+    private final long[] batchTimeStamps = new long[BATCH_SIZE];
+
+    private int batchCount;
+
+    private int batchPosition;
+
+    private boolean wheelDrained;
+
+    /**
+     * Entries returned by the iterator, which go back to the wheel unless removed.
+     */
+    private final Set<String> returnedIds = new HashSet<>();
+
+    private String[] dueIds = new String[INITIAL_CAPACITY];
+
+    private long[] dueTimeStamps = new long[INITIAL_CAPACITY];
+
+    private boolean[] removed = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * The due time stamp each returned entry was deferred to, or zero if it was not deferred.
+     */
+    private long[] deferredTimeStamps = new long[INITIAL_CAPACITY];
+
+    private int dueCount;
+
+    private int nextEntry = -1;
+
+    private KeyValue<String, RetryInfo> next;
+
+    private int currentEntry = -1;
+
+    private KeyValue<String, RetryInfo> current;
+
+    private long scanNanos;
+
+    TimingWheelIterator(KeyValueStore<String, RetryInfo> messageStore, KeyValueStore<Bytes, String> indexStore,
+                        TimingWheel timingWheel, long timeStamp, ToLongFunction<RetryInfo> dueTimeStamp, RetryMetrics metrics,
+                        BiConsumer<String, RetryInfo> removalListener) {
+        this.messageStore = messageStore;
+        this.indexStore = indexStore;
+        this.timingWheel = timingWheel;
+        this.timeStamp = timeStamp;
+        this.dueTimeStamp = dueTimeStamp;
+        this.metrics = metrics;
+        this.removalListener = removalListener;
+    }
+
+    @Override
+    public boolean hasNext() {
+        long start = System.nanoTime();
+        while (next == null && (batchPosition < batchCount || !wheelDrained)) {
+            if (batchPosition == batchCount) {
+                batchPosition = 0;
+                batchCount = 0;
+                wheelDrained = timingWheel.expire(timeStamp, BATCH_SIZE, this::addBatchEntry) < BATCH_SIZE;
+            } else {
+                String messageId = batchIds[batchPosition];
+                long entryTimeStamp = batchTimeStamps[batchPosition];
+                batchIds[batchPosition++] = null;
+                RetryInfo retryInfo = returnedIds.contains(messageId) ? null : messageStore.get(messageId);
+                if (retryInfo != null && isIndexedAt(messageId, retryInfo, entryTimeStamp)) {
+                    returnedIds.add(messageId);
+                    nextEntry = addDueEntry(messageId, entryTimeStamp);
+                    next = new KeyValue<>(messageId, retryInfo);
+                }
+            }
+        }
+        scanNanos += System.nanoTime() - start;
+        return next != null;
+    }
+
+    @Override
+    public KeyValue<String, RetryInfo> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        current = next;
+        currentEntry = nextEntry;
+        next = null;
+        nextEntry = -1;
+        return current;
+    }
+
+    @Override
+    public String peekNextKey() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return next.key;
+    }
+
+    /**
+     * Remove the current message from the retry queue.
+     */
+    @Override
+    public void remove() {
+        if (current == null) {
+            throw new IllegalStateException("No current message to remove");
+        }
+        messageStore.delete(current.key);
+        indexStore.delete(DueTimeIndexKey.toKey(dueTimeStamps[currentEntry], current.key));
+        if (dueTimeStamps[currentEntry] != dueTimeStamp.applyAsLong(current.value)) {
+            indexStore.delete(DueTimeIndexKey.toDeferralKey(current.key));
+        }
+        removalListener.accept(current.key, current.value);
+        removed[currentEntry] = true;
+        current = null;
+        currentEntry = -1;
+    }
+
+    @Override
+    public void defer(long deferredTimeStamp) {
+        if (current == null) {
+            throw new IllegalStateException("No current message to defer");
+        }
+        deferredTimeStamps[currentEntry] = deferredTimeStamp;
+        current = null;
+        currentEntry = -1;
+    }
+
+    @Override
+    public void close() {
+        for (int entry = 0; entry < dueCount; entry++) {
+            if (deferredTimeStamps[entry] != 0) {
+                DueMessageIterator.moveIndexEntry(indexStore, dueIds[entry], dueTimeStamps[entry], deferredTimeStamps[entry]);
+                timingWheel.add(dueIds[entry], deferredTimeStamps[entry]);
+            } else if (!removed[entry]) {
+                timingWheel.add(dueIds[entry], dueTimeStamps[entry]);
+            }
+        }
+        for (int entry = batchPosition; entry < batchCount; entry++) {
+            timingWheel.add(batchIds[entry], batchTimeStamps[entry]);
+        }
+        dueCount = 0;
+        batchCount = 0;
+        batchPosition = 0;
+        metrics.storeScanned(scanNanos);
+    }
+
+    /**
+     * An entry is current if it has the due time stamp of the message, or the due time stamp the message was deferred to.
+     * Any other entry is left from a message since removed or queued again.
+     */
+    private boolean isIndexedAt(String messageId, RetryInfo retryInfo, long entryTimeStamp) {
+        return dueTimeStamp.applyAsLong(retryInfo) == entryTimeStamp
+                || Long.toString(entryTimeStamp).equals(indexStore.get(DueTimeIndexKey.toDeferralKey(messageId)));
+    }
+
+    private void addBatchEntry(String messageId, long entryTimeStamp) {
+        batchIds[batchCount] = messageId;
+        batchTimeStamps[batchCount] = entryTimeStamp;
+        batchCount++;
+    }
+
+    private int addDueEntry(String messageId, long entryTimeStamp) {
+        if (dueCount == dueIds.length) {
+            int capacity = dueIds.length * 2;
+            dueIds = Arrays.copyOf(dueIds, capacity);
+            dueTimeStamps = Arrays.copyOf(dueTimeStamps, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+            deferredTimeStamps = Arrays.copyOf(deferredTimeStamps, capacity);
+        }
+        dueIds[dueCount] = messageId;
+        dueTimeStamps[dueCount] = entryTimeStamp;
+        removed[dueCount] = false;
+        deferredTimeStamps[dueCount] = 0;
+        return dueCount++;
+    }
+
+}
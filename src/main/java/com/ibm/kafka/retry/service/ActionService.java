@@ -5,8 +5,10 @@
 
 package com.ibm.kafka.retry.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.model.RetryHeaders;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.repository.MessageRepository;
 import org.apache.kafka.common.header.Headers;
 
 import java.io.IOException;
@@ -19,20 +21,42 @@ public interface ActionService {
     /**
      * Queue a message to be retried during the next scheduled retry cycle.
      * @param messageId The unique message ID.
-     * @param headers The Kafka Streams message headers.
+     * @param headers The Kafka Streams message headers, which are kept with the message.
      * @param payload The message payload.
      * @throws IllegalRetryStateException Thrown if the message could not be queued.
      */
-    void queueMessageForRetry(String messageId, Headers headers, JsonNode payload) throws IllegalRetryStateException;
+    void queueMessageForRetry(String messageId, Headers headers, byte[] payload) throws IllegalRetryStateException;
+
+    /**
+     * Queue a message to be retried during the next scheduled retry cycle.
+     * @param messageId The unique message ID.
+     * @param retryHeaders The decoded retry headers of the message.
+     * @param headers The Kafka Streams message headers, which are kept with the message.
+     * @param payload The message payload.
+     * @throws IllegalRetryStateException Thrown if the message could not be queued.
+     */
+    void queueMessageForRetry(String messageId, RetryHeaders retryHeaders, Headers headers, byte[] payload)
+            throws IllegalRetryStateException;
+
+    /**
+     * Send a permanently failed message to the permanent failure topic.
+     * @param messageId The unique message ID.
+     * @param headers The Kafka Streams message headers.
+     * @param payload The message payload.
+     * @throws IOException Thrown is the message could not be sent.
+     */
+    void dispatchPermanentlyFailedMessage(String messageId, Headers headers, byte[] payload) throws IOException;
 
     /**
      * Send a permanently failed message to the permanent failure topic.
      * @param messageId The unique message ID.
+     * @param retryHeaders The decoded retry headers of the message.
      * @param headers The Kafka Streams message headers.
      * @param payload The message payload.
      * @throws IOException Thrown is the message could not be sent.
      */
-    void dispatchPermanentlyFailedMessage(String messageId, Headers headers, JsonNode payload) throws IOException;
+    void dispatchPermanentlyFailedMessage(String messageId, RetryHeaders retryHeaders, Headers headers, byte[] payload)
+            throws IOException;
 
     /**
      * Drop a message from all further processing. It will not be retried and it will not be sent to the permanent
@@ -41,4 +65,16 @@ public interface ActionService {
      */
     void dropMessage(String messageId);
 
+    /**
+     * @param repository The repository of a single processor, see {@link MessageRepository#forProcessor()}.
+     * @return An action service that reads and writes the retry queue through the given repository.
+     */
+    ActionService withRepository(MessageRepository repository);
+
+    /**
+     * @param producer The producer to send messages with, for producers that are bound to a single processor.
+     * @return An action service that sends messages with the given producer.
+     */
+    ActionService withProducer(MessageProducer producer);
+
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service;
+
+import com.ibm.kafka.retry.model.AuditEvent;
+
+public interface AuditService {
+
+    /**
+     * Record a lifecycle event of a message. Events are published asynchronously in batches, so the events of the last
+     * batch may be lost if the instance fails.
+     * @param type The lifecycle step.
+     * @param messageId The unique message ID.
+     * @param originTopic The origin topic of the message, or null if unknown.
+     * @param retryAttempt The retry attempt that the message was queued to or dispatched as, or the number of completed
+     * retries for other events.
+     */
+    void record(AuditEvent.Type type, String messageId, String originTopic, int retryAttempt);
+
+    /**
+     * Publish the events recorded since the last batch.
+     */
+    void flush();
+
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service;
+
+public interface BackoffPolicy {
+
+    /**
+     * Get the delay before a retry attempt. Called once when a message is queued, and the resulting due time stamp is
+     * stored with the message, so randomized policies give each message a stable due time.
+     * @param retryAttempt The retry attempt, starting from 1.
+     * @return The delay in milliseconds from the time stamp of the failed message until the retry attempt is due.
+     */
+    long getDelayMs(int retryAttempt);
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service;
+
+public interface CircuitBreakerService {
+
+    /**
+     * Record a message read from the retry topic. A message that has already had retry attempts is a dispatched retry
+     * that failed again.
+     * @param originTopic The origin topic of the message.
+     * @param completedRetries The number of retry attempts that the message has already had.
+     * @param timeStamp The current time stamp.
+     */
+    void recordInflow(String originTopic, int completedRetries, long timeStamp);
+
+    /**
+     * Record a retry acknowledged by its origin topic.
+     * @param originTopic The origin topic of the message.
+     * @param timeStamp The current time stamp.
+     */
+    void recordDispatched(String originTopic, long timeStamp);
+
+    /**
+     * Check whether a due message may be sent to its origin topic, taking one of the probe messages if the circuit of
+     * the topic is half open.
+     * @param originTopic The origin topic of the message.
+     * @param timeStamp The current time stamp.
+     * @return 0 if the message may be sent, otherwise the time in milliseconds until the circuit may allow it.
+     */
+    long tryAcquire(String originTopic, long timeStamp);
+
+    /**
+     * Check whether a due message may be sent to its origin topic, without taking a probe message, e.g. before other
+     * limits are applied to the message.
+     * @param originTopic The origin topic of the message.
+     * @param timeStamp The current time stamp.
+     * @return 0 if the message may be sent, otherwise the time in milliseconds until the circuit may allow it.
+     */
+    long getWaitMs(String originTopic, long timeStamp);
+
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service;
+
+import com.ibm.kafka.retry.model.ExceptionRoute;
+
+/**
+ * Decides how a message is routed from the exception type that caused it to be sent for retry.
+ */
+public interface ExceptionRoutingService {
+
+    /**
+     * @param originTopic The name of the topic from which the message was consumed when it failed.
+     * @param exceptionName The simple name of the exception that caused the message to be sent for retry.
+     * @return The route configured for the exception, or {@link ExceptionRoute#NONE} if no rule matches.
+     */
+    ExceptionRoute getRoute(String originTopic, String exceptionName);
+
+}
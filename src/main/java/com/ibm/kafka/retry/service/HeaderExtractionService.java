@@ -6,6 +6,7 @@
 package com.ibm.kafka.retry.service;
 
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import org.apache.kafka.common.header.Headers;
 
 public interface HeaderExtractionService {
@@ -38,4 +39,11 @@ public interface HeaderExtractionService {
      */
     long getTimestamp(Headers headers) throws IllegalRetryStateException;
 
+    /**
+     * Decode all of the retry headers in a single pass, for use when several of them are needed for the same message.
+     * @param headers The Kafka Streams headers for the message.
+     * @return The decoded retry headers.
+     */
+    RetryHeaders getRetryHeaders(Headers headers);
+
 }
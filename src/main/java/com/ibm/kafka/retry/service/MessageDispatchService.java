@@ -5,12 +5,28 @@
 
 package com.ibm.kafka.retry.service;
 
+import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.repository.MessageRepository;
+
 public interface MessageDispatchService {
 
     /**
-     * Dispatch all queued messages for the retry attempt to their origin topics.
+     * Dispatch the queued messages that are due for retry to their origin topics, up to the configured dispatch budgets.
      * @param timeStamp The time stamp from the Kafka Streams processing context
+     * @return True if a budget was exhausted and due messages were deferred to the next dispatch.
+     */
+    boolean dispatchRetries(long timeStamp);
+
+    /**
+     * @param repository The repository of a single processor, see {@link MessageRepository#forProcessor()}.
+     * @return A dispatch service that reads and writes the retry queue through the given repository.
+     */
+    MessageDispatchService withRepository(MessageRepository repository);
+
+    /**
+     * @param producer The producer to send messages with, for producers that are bound to a single processor.
+     * @return A dispatch service that sends messages with the given producer.
      */
-    void dispatchRetries(long timeStamp);
+    MessageDispatchService withProducer(MessageProducer producer);
 
 }
@@ -6,6 +6,7 @@
 package com.ibm.kafka.retry.service;
 
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import org.apache.kafka.common.header.Headers;
 
 public interface MessageQueryService {
@@ -32,4 +33,26 @@ public interface MessageQueryService {
      */
     boolean isDroppable(Headers headers) throws IllegalRetryStateException;
 
+    /**
+     * @param headers The decoded retry headers of the message.
+     * @return True if the message should be queued for retry, false otherwise.
+     * @throws IllegalRetryStateException Thrown if the headers are in a bad state.
+     */
+    boolean isRetriable(RetryHeaders headers) throws IllegalRetryStateException;
+
+    /**
+     * @param headers The decoded retry headers of the message.
+     * @return True if the message should be sent to the permanent failure topic, false otherwise.
+     * @throws IllegalRetryStateException Thrown if the headers are in a bad state.
+     */
+    boolean isPermanentlyFailed(RetryHeaders headers) throws IllegalRetryStateException;
+
+    /**
+     * @param headers The decoded retry headers of the message.
+     * @return True if the message should be dropped, i.e. not queued for retry nor sent to the permanent failure topic,
+     * and false otherwise.
+     * @throws IllegalRetryStateException Thrown if the headers are in a bad state.
+     */
+    boolean isDroppable(RetryHeaders headers) throws IllegalRetryStateException;
+
 }
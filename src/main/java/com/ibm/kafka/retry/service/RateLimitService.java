@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+
+import java.util.Map;
+
+public interface RateLimitService {
+
+    /**
+     * Take the permits for sending a message to its origin topic, if the rate limits of the topic allow it now.
+     * @param originTopic The origin topic of the message.
+     * @param bytes The size of the message payload.
+     * @param timeStamp The current time stamp.
+     * @return 0 if the message may be sent, otherwise the time in milliseconds until the limits allow it.
+     */
+    long tryAcquire(String originTopic, long bytes, long timeStamp);
+
+    /**
+     * @param originTopic The origin topic.
+     * @param bytes The size of a message payload.
+     * @return The time in milliseconds that the rate limits of a topic take to allow a message, or 0 if not limited.
+     */
+    long getIntervalMs(String originTopic, long bytes);
+
+    /**
+     * @return The rate limits set for individual origin topics. Other topics are limited by the default rate limit.
+     */
+    Map<String, ApplicationProperties.RateLimit> getRateLimits();
+
+    /**
+     * Set the rate limit of an origin topic, replacing any previous limit. The permits of the topic are refilled.
+     * @param originTopic The origin topic.
+     * @param rateLimit The rate limit.
+     */
+    void setRateLimit(String originTopic, ApplicationProperties.RateLimit rateLimit);
+
+    /**
+     * Remove the rate limit of an origin topic, so it falls back to the default rate limit.
+     * @param originTopic The origin topic.
+     */
+    void removeRateLimit(String originTopic);
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.service.BackoffPolicy;
+import lombok.AllArgsConstructor;
+
+/**
+ * Decorrelated jitter, where each delay is drawn uniformly between the initial delay and three times the previous delay,
+ * up to the maximum delay. The previous delay of a message is not carried through its origin topic, so the upper bound
+ * of the previous attempt is used in its place, giving a range that triples with each attempt. Messages that failed
+ * together are spread over the whole range rather than coming due at the same time.
+ */
+@AllArgsConstructor
+public class DecorrelatedJitterBackoffPolicy implements BackoffPolicy {
+
+    private static final int GROWTH = 3;
+
+    private final ApplicationProperties props;
+
+    @Override
+    public long getDelayMs(int retryAttempt) {
+        long initialDelayMs = props.getRetryBackoffInitialDelayMs();
+        long maxDelayMs = props.getRetryBackoffMaxDelayMs();
+        double upperBoundMs = initialDelayMs * Math.pow(GROWTH, Math.max(1, retryAttempt));
+        return Jitter.between(Math.min(initialDelayMs, maxDelayMs), (long) Math.min(upperBoundMs, maxDelayMs));
+    }
+
+}
@@ -5,12 +5,18 @@
 
 package com.ibm.kafka.retry.service.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.logging.SampledLogger;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.AuditEvent;
+import com.ibm.kafka.retry.model.EncodedHeaders;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import com.ibm.kafka.retry.model.RetryInfo;
 import com.ibm.kafka.retry.producer.MessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
 import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.BackoffPolicy;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -22,31 +28,95 @@ import java.io.IOException;
 @AllArgsConstructor
 public class DefaultActionService implements ActionService {
 
+    private static final SampledLogger QUEUED_LOG = new SampledLogger(log, 1000);
+
+    private static final SampledLogger FAILED_LOG = new SampledLogger(log, 1000);
+
+    private static final SampledLogger DROPPED_LOG = new SampledLogger(log, 1000);
+
     private final HeaderExtractionService headerService;
 
     private final MessageRepository repository;
 
     private final MessageProducer producer;
 
+    private final RetryMetrics metrics;
+
+    private final AuditService auditService;
+
+    private final BackoffPolicy backoffPolicy;
+
     @Override
-    public void queueMessageForRetry(String messageId, Headers headers, JsonNode payload) throws IllegalRetryStateException {
+    public void queueMessageForRetry(String messageId, Headers headers, byte[] payload) throws IllegalRetryStateException {
         // TODO validate message
         int numCompletedRetries = headerService.getCompletedRetries(headers);
-        log.info("Queueing message {} for retry attempt {}", messageId, numCompletedRetries + 1);
-        RetryInfo retryInfo = RetryInfo.builder().payload(payload).timeStamp(headerService.getTimestamp(headers))
-                .originTopic(headerService.getOriginTopic(headers)).retryAttempt(numCompletedRetries + 1).build();
-        repository.addToRetryQueue(messageId, retryInfo);
+        queueMessageForRetry(messageId, numCompletedRetries, headerService.getTimestamp(headers),
+                headerService.getOriginTopic(headers), headers, payload);
+    }
+
+    @Override
+    public void queueMessageForRetry(String messageId, RetryHeaders retryHeaders, Headers headers, byte[] payload)
+            throws IllegalRetryStateException {
+        int numCompletedRetries = retryHeaders.getCompletedRetries();
+        queueMessageForRetry(messageId, numCompletedRetries, retryHeaders.getTimestamp(), retryHeaders.getOriginTopic(),
+                headers, payload);
+    }
+
+    @Override
+    public void dispatchPermanentlyFailedMessage(String messageId, Headers headers, byte[] payload) throws IOException {
+        dispatchPermanentlyFailedMessage(messageId, headerService.getRetryHeaders(headers), headers, payload);
     }
 
     @Override
-    public void dispatchPermanentlyFailedMessage(String messageId, Headers headers, JsonNode payload) throws IOException {
-        log.warn("Sending message {} to permanent failure topic", messageId);
+    public void dispatchPermanentlyFailedMessage(String messageId, RetryHeaders retryHeaders, Headers headers,
+                                                 byte[] payload) throws IOException {
+        FAILED_LOG.warn("Sending message {} to permanent failure topic", messageId);
         producer.sendToPermanentFailureTopic(headers, payload);
+        recordDeadLettered(messageId, retryHeaders);
     }
 
     @Override
     public void dropMessage(String messageId) {
-        log.warn("Dropping message {}. It will not be retried or sent to permanent failure topic", messageId);
+        DROPPED_LOG.warn("Dropping message {}. It will not be retried or sent to permanent failure topic", messageId);
+        auditService.record(AuditEvent.Type.DROPPED, messageId, null, 0);
+    }
+
+    @Override
+    public ActionService withRepository(MessageRepository repository) {
+        return new DefaultActionService(headerService, repository, producer, metrics, auditService, backoffPolicy);
+    }
+
+    @Override
+    public ActionService withProducer(MessageProducer producer) {
+        return new DefaultActionService(headerService, repository, producer, metrics, auditService, backoffPolicy);
+    }
+
+    /**
+     * Invalid headers are a common reason for a message to fail permanently, so the event is recorded with whichever
+     * details could be read.
+     */
+    private void recordDeadLettered(String messageId, RetryHeaders retryHeaders) {
+        String originTopic = null;
+        int completedRetries = 0;
+        try {
+            originTopic = retryHeaders.getOriginTopic();
+            completedRetries = retryHeaders.getCompletedRetries();
+        } catch (IllegalRetryStateException ex) {
+            log.debug("Recording message {} as dead-lettered without retry details", messageId);
+        }
+        auditService.record(AuditEvent.Type.DEAD_LETTERED, messageId, originTopic, completedRetries);
+    }
+
+    private void queueMessageForRetry(String messageId, int numCompletedRetries, long timeStamp, String originTopic,
+                                      Headers headers, byte[] payload) {
+        int retryAttempt = numCompletedRetries + 1;
+        QUEUED_LOG.info("Queueing message {} for retry attempt {}", messageId, retryAttempt);
+        RetryInfo retryInfo = RetryInfo.builder().payload(payload).timeStamp(timeStamp)
+                .dueTimeStamp(timeStamp + backoffPolicy.getDelayMs(retryAttempt))
+                .originTopic(originTopic).retryAttempt(retryAttempt).headers(EncodedHeaders.encode(headers)).build();
+        repository.addToRetryQueue(messageId, retryInfo);
+        metrics.messageQueued(originTopic, retryInfo.getRetryAttempt());
+        auditService.record(AuditEvent.Type.QUEUED, messageId, originTopic, retryInfo.getRetryAttempt());
     }
 
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opens the circuit of an origin topic when retries sent to it keep coming back to the retry topic, or when messages from
+ * it arrive on the retry topic faster than a threshold, i.e. a retry storm. Messages are counted per origin topic over
+ * a fixed window. While the circuit is open, due messages are parked until it half opens, when a few probe messages are
+ * sent. If too many of the probes fail within the next window the circuit opens again for twice as long, up to the
+ * maximum, otherwise it closes.
+ * <p>
+ * The circuits are shared by the stream threads of this instance, so each instance decides on the messages it sees.
+ */
+@Slf4j
+public class DefaultCircuitBreakerService implements CircuitBreakerService {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final ApplicationProperties props;
+
+    private final RetryMetrics metrics;
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public DefaultCircuitBreakerService(ApplicationProperties props, RetryMetrics metrics) {
+        this.props = props;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void recordInflow(String originTopic, int completedRetries, long timeStamp) {
+        getCircuit(originTopic).recordInflow(completedRetries > 0, timeStamp);
+    }
+
+    @Override
+    public void recordDispatched(String originTopic, long timeStamp) {
+        getCircuit(originTopic).recordDispatched(timeStamp);
+    }
+
+    @Override
+    public long tryAcquire(String originTopic, long timeStamp) {
+        return getCircuit(originTopic).getWaitMs(timeStamp, true);
+    }
+
+    @Override
+    public long getWaitMs(String originTopic, long timeStamp) {
+        return getCircuit(originTopic).getWaitMs(timeStamp, false);
+    }
+
+    State getState(String originTopic) {
+        return getCircuit(originTopic).state;
+    }
+
+    private Circuit getCircuit(String originTopic) {
+        return circuits.computeIfAbsent(String.valueOf(originTopic), Circuit::new);
+    }
+
+    private class Circuit {
+
+        private final String originTopic;
+
+        private State state = State.CLOSED;
+
+        private long windowStart;
+
+        private long inflow;
+
+        private long returned;
+
+        private long dispatched;
+
+        private long openMs;
+
+        private long openUntil;
+
+        private int probes;
+
+        Circuit(String originTopic) {
+            this.originTopic = originTopic;
+            this.openMs = props.getRetryCircuitBreakerOpenMs();
+        }
+
+        synchronized void recordInflow(boolean returnedRetry, long timeStamp) {
+            rollWindow(timeStamp);
+            inflow++;
+            if (returnedRetry) {
+                returned++;
+            }
+            if (state == State.CLOSED && (isStorm() || isFailing(props.getRetryCircuitBreakerMinDispatched()))) {
+                open(timeStamp);
+            }
+        }
+
+        synchronized void recordDispatched(long timeStamp) {
+            rollWindow(timeStamp);
+            dispatched++;
+        }
+
+        synchronized long getWaitMs(long timeStamp, boolean acquireProbe) {
+            if (state == State.OPEN && timeStamp >= openUntil) {
+                transition(State.HALF_OPEN, timeStamp);
+            }
+            if (state == State.HALF_OPEN && timeStamp >= windowStart + props.getRetryCircuitBreakerWindowMs()) {
+                if (dispatched == 0) {
+                    resetWindow(timeStamp);
+                } else if (isFailing(1)) {
+                    openMs = Math.min(openMs * 2, props.getRetryCircuitBreakerMaxOpenMs());
+                    open(timeStamp);
+                } else {
+                    openMs = props.getRetryCircuitBreakerOpenMs();
+                    transition(State.CLOSED, timeStamp);
+                }
+            }
+            long waitMs = 0;
+            if (state == State.OPEN) {
+                waitMs = openUntil - timeStamp;
+            } else if (state == State.HALF_OPEN) {
+                if (probes >= props.getRetryCircuitBreakerProbeMessages()) {
+                    waitMs = windowStart + props.getRetryCircuitBreakerWindowMs() - timeStamp;
+                } else if (acquireProbe) {
+                    probes++;
+                }
+            }
+            return waitMs;
+        }
+
+        private boolean isStorm() {
+            double maxInflowPerSecond = props.getRetryCircuitBreakerMaxInflowPerSecond();
+            return maxInflowPerSecond > 0 && inflow > maxInflowPerSecond * props.getRetryCircuitBreakerWindowMs() / 1000;
+        }
+
+        private boolean isFailing(long minDispatched) {
+            return dispatched >= minDispatched && dispatched > 0
+                    && returned >= props.getRetryCircuitBreakerFailureRate() * dispatched;
+        }
+
+        private void open(long timeStamp) {
+            log.warn("Opening circuit of origin topic {} for {} ms after {} messages in, {} retries sent and {} failed again",
+                    originTopic, openMs, inflow, dispatched, returned);
+            openUntil = timeStamp + openMs;
+            transition(State.OPEN, timeStamp);
+        }
+
+        /**
+         * While the circuit is closed the counts cover a fixed window. While it is half open they cover the probes, so
+         * they are only reset by a change of state.
+         */
+        private void rollWindow(long timeStamp) {
+            if (state == State.CLOSED && timeStamp >= windowStart + props.getRetryCircuitBreakerWindowMs()) {
+                resetWindow(timeStamp);
+            }
+        }
+
+        private void resetWindow(long timeStamp) {
+            windowStart = timeStamp;
+            inflow = 0;
+            returned = 0;
+            dispatched = 0;
+            probes = 0;
+        }
+
+        private void transition(State newState, long timeStamp) {
+            if (newState != State.OPEN) {
+                log.info("Circuit of origin topic {} is {}", originTopic, newState);
+            }
+            state = newState;
+            resetWindow(timeStamp);
+            metrics.circuitStateChanged(originTopic, newState.name());
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.model.ExceptionRoute;
+import com.ibm.kafka.retry.service.ExceptionRoutingService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Routes exceptions using rules compiled from the application properties at startup. Exact exception names are held in
+ * a hash table. The result of matching a name against the wildcard rules is cached, so each routing decision after the
+ * first for an exception name is a hash lookup. Rules for an origin topic take priority over the global rules, and exact
+ * names take priority over wildcards.
+ */
+@Slf4j
+public class DefaultExceptionRoutingService implements ExceptionRoutingService {
+
+    private static final int MAX_CACHED_ROUTES = 10000;
+
+    private final RuleSet globalRules;
+
+    private final Map<String, RuleSet> topicRules = new HashMap<>();
+
+    public DefaultExceptionRoutingService(ApplicationProperties props) {
+        globalRules = new RuleSet(props.getRetriableException(), props.getFatalException(), props.getDroppableException(), null);
+        props.getTopicExceptionRules().forEach((topic, rules) -> topicRules.put(topic, new RuleSet(rules.getRetriableException(),
+                rules.getFatalException(), rules.getDroppableException(), globalRules)));
+        log.info("Compiled exception rules for {} origin topics", topicRules.size());
+    }
+
+    @Override
+    public ExceptionRoute getRoute(String originTopic, String exceptionName) {
+        ExceptionRoute route = ExceptionRoute.NONE;
+        if (exceptionName != null) {
+            RuleSet rules = originTopic == null ? globalRules : topicRules.getOrDefault(originTopic, globalRules);
+            route = rules.getRoute(exceptionName);
+        }
+        return route;
+    }
+
+    private static class RuleSet {
+
+        private final Map<String, ExceptionRoute> exactRoutes = new HashMap<>();
+
+        private final List<Map.Entry<Pattern, ExceptionRoute>> wildcardRoutes = new ArrayList<>();
+
+        private final Map<String, ExceptionRoute> matchedRoutes = new ConcurrentHashMap<>();
+
+        private final RuleSet fallback;
+
+        RuleSet(String retriableException, String fatalException, String droppableException, RuleSet fallback) {
+            this.fallback = fallback;
+            // Added in order of precedence, so the first rule added for an exception name wins
+            addRules(droppableException, ExceptionRoute.DROPPABLE);
+            addRules(retriableException, ExceptionRoute.RETRIABLE);
+            addRules(fatalException, ExceptionRoute.FATAL);
+        }
+
+        ExceptionRoute getRoute(String exceptionName) {
+            ExceptionRoute route = exactRoutes.get(exceptionName);
+            if (route == null) {
+                route = matchedRoutes.get(exceptionName);
+                if (route == null) {
+                    route = matchWildcards(exceptionName);
+                    if (matchedRoutes.size() < MAX_CACHED_ROUTES) {
+                        matchedRoutes.put(exceptionName, route);
+                    }
+                }
+            }
+            return route;
+        }
+
+        private ExceptionRoute matchWildcards(String exceptionName) {
+            for (Map.Entry<Pattern, ExceptionRoute> rule : wildcardRoutes) {
+                if (rule.getKey().matcher(exceptionName).matches()) {
+                    return rule.getValue();
+                }
+            }
+            return fallback == null ? ExceptionRoute.NONE : fallback.getRoute(exceptionName);
+        }
+
+        private void addRules(String exceptionNames, ExceptionRoute route) {
+            for (String exceptionName : StringUtils.split(StringUtils.defaultString(exceptionNames), ',')) {
+                String rule = exceptionName.trim();
+                if (rule.contains("*")) {
+                    wildcardRoutes.add(new AbstractMap.SimpleImmutableEntry<>(toPattern(rule), route));
+                } else if (!rule.isEmpty()) {
+                    exactRoutes.putIfAbsent(rule, route);
+                }
+            }
+        }
+
+        private static Pattern toPattern(String rule) {
+            return Pattern.compile(Arrays.stream(rule.split("\\*", -1)).map(Pattern::quote).collect(Collectors.joining(".*")));
+        }
+
+    }
+
+}
@@ -8,6 +8,8 @@ package com.ibm.kafka.retry.service.impl;
 import com.google.common.collect.Streams;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
 import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.RetryHeaderCodec;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.common.header.Header;
@@ -18,6 +20,20 @@ import java.util.stream.Stream;
 
 public class DefaultHeaderExtractionService implements HeaderExtractionService {
 
+    private final boolean binaryValues;
+
+    public DefaultHeaderExtractionService() {
+        this(false);
+    }
+
+    /**
+     * @param binaryValues Whether to read the retry attempts and time stamp headers in the binary format of
+     * {@link RetryHeaderCodec} as well as in text.
+     */
+    public DefaultHeaderExtractionService(boolean binaryValues) {
+        this.binaryValues = binaryValues;
+    }
+
     @Override
     public String getExceptionName(Headers headers) throws IllegalRetryStateException {
         return getRequiredHeader(headers, MessageHeaders.EXCEPTION_TYPE);
@@ -34,10 +50,7 @@ public class DefaultHeaderExtractionService implements HeaderExtractionService {
         if (getHeaderStream(headers, MessageHeaders.RETRY_ATTEMPTS).count() == 1) {
             Optional<Header> optional = getHeaderStream(headers, MessageHeaders.RETRY_ATTEMPTS).findFirst();
             if (optional.isPresent()) {
-                String rawValue = new String(optional.get().value());
-                if (StringUtils.isNotBlank(rawValue)) {
-                    numCompletedRetries = Integer.parseInt(rawValue);
-                }
+                numCompletedRetries = RetryHeaderCodec.decodeRetryAttempts(optional.get().value(), binaryValues);
             }
         }
         return numCompletedRetries;
@@ -45,7 +58,53 @@ public class DefaultHeaderExtractionService implements HeaderExtractionService {
 
     @Override
     public long getTimestamp(Headers headers) throws IllegalRetryStateException {
-        return Long.parseLong(getRequiredHeader(headers, MessageHeaders.PRODUCED_TIMESTAMP_MS));
+        return RetryHeaderCodec.decodeTimestamp(getRequiredValue(headers, MessageHeaders.PRODUCED_TIMESTAMP_MS), binaryValues);
+    }
+
+    @Override
+    public RetryHeaders getRetryHeaders(Headers headers) {
+        RetryHeaders.Builder builder = RetryHeaders.builder().binaryValues(binaryValues);
+        boolean hasExceptionName = false;
+        boolean hasOriginTopic = false;
+        boolean hasRetryAttempts = false;
+        boolean hasTimeStamp = false;
+        for (Header header : headers) {
+            switch (header.key()) {
+                case MessageHeaders.EXCEPTION_TYPE:
+                    builder.exceptionName(stripQuotes(header.value()));
+                    addIfDuplicate(builder, header.key(), hasExceptionName);
+                    hasExceptionName = true;
+                    break;
+                case MessageHeaders.ORIGIN_TOPIC:
+                    builder.originTopic(stripQuotes(header.value()));
+                    addIfDuplicate(builder, header.key(), hasOriginTopic);
+                    hasOriginTopic = true;
+                    break;
+                case MessageHeaders.RETRY_ATTEMPTS:
+                    builder.retryAttempts(header.value());
+                    addIfDuplicate(builder, header.key(), hasRetryAttempts);
+                    hasRetryAttempts = true;
+                    break;
+                case MessageHeaders.PRODUCED_TIMESTAMP_MS:
+                    builder.timeStamp(header.value());
+                    addIfDuplicate(builder, header.key(), hasTimeStamp);
+                    hasTimeStamp = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return builder.build();
+    }
+
+    private void addIfDuplicate(RetryHeaders.Builder builder, String key, boolean alreadyPresent) {
+        if (alreadyPresent) {
+            builder.duplicateKey(key);
+        }
+    }
+
+    private String stripQuotes(byte[] value) {
+        return StringUtils.strip(new String(value), "\"");
     }
 
     private Stream<Header> getHeaderStream(Headers headers, String key) throws IllegalRetryStateException {
@@ -56,18 +115,22 @@ public class DefaultHeaderExtractionService implements HeaderExtractionService {
     }
 
     private String getRequiredHeader(Headers headers, String key) throws IllegalRetryStateException {
-        String value;
+        return stripQuotes(getRequiredValue(headers, key));
+    }
+
+    private byte[] getRequiredValue(Headers headers, String key) throws IllegalRetryStateException {
+        byte[] value;
         if (getHeaderStream(headers, key).count() == 1) {
             Optional<Header> optional = getHeaderStream(headers, key).findFirst();
             if (optional.isPresent()) {
-                value = new String(optional.get().value());
+                value = optional.get().value();
             } else {
                 throw new IllegalRetryStateException("Message is missing header with key {}", key);
             }
         } else {
             throw new IllegalRetryStateException("Message is missing header with key {}", key);
         }
-        return StringUtils.strip(value, "\"");
+        return value;
     }
 
 }
@@ -6,22 +6,49 @@
 package com.ibm.kafka.retry.service.impl;
 
 import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.logging.SampledLogger;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.AuditEvent;
+import com.ibm.kafka.retry.model.EncodedHeaders;
 import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.RetryHeaderCodec;
 import com.ibm.kafka.retry.model.RetryInfo;
 import com.ibm.kafka.retry.producer.MessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
+import com.ibm.kafka.retry.repository.RetryQueueIterator;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
 import com.ibm.kafka.retry.service.MessageDispatchService;
+import com.ibm.kafka.retry.service.RateLimitService;
 import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.util.CollectionUtils;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.streams.KeyValue;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 @Slf4j
 @AllArgsConstructor
-public class DefaultMessageDispatchService implements MessageDispatchService {
+public class DefaultMessageDispatchService implements MessageDispatchService, AutoCloseable {
+
+    private static final SampledLogger SENDING_LOG = new SampledLogger(log, 1000);
+
+    private static final SampledLogger DEFERRED_LOG = new SampledLogger(log, 1000);
 
     private final ApplicationProperties props;
 
@@ -29,45 +56,335 @@ public class DefaultMessageDispatchService implements MessageDispatchService {
 
     private final MessageProducer producer;
 
+    private final RetryMetrics metrics;
+
+    private final AuditService auditService;
+
+    private final RateLimitService rateLimitService;
+
+    private final CircuitBreakerService circuitBreakerService;
+
+    /**
+     * Workers that send the due messages, so the stream thread only selects them, or null to send on the stream thread.
+     */
+    private final ExecutorService dispatchExecutor;
+
+    /**
+     * Messages handed to the dispatch workers that have not been removed from the retry queue yet, by message ID. Held by
+     * the service of each processor, and completed by the workers and the producer threads.
+     */
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Messages whose send completes while iterating are removed through the iterator. Any still in flight are tracked
+     * until the producer has been flushed, and only the acknowledged ones are then removed from the retry queue.
+     * <p>
+     * Dispatch stops when a budget is exhausted, so that a large backlog does not hold the stream thread past the poll
+     * interval. The messages left stay queued in due time order and are dispatched first on the next punctuation.
+     * <p>
+     * Messages whose origin topic is over its rate limit are deferred to when the limit is expected to allow them. The
+     * deferred messages of a topic are spaced out by the time the limit takes to allow each, so the backlog of a topic is
+     * read again at the rate it can be sent rather than on every punctuation. Messages whose origin topic has an open
+     * circuit are parked until the circuit may allow them. A half open circuit only gives its probes to messages within
+     * the rate limit, so a deferred message does not use one up. Only the due time index entry of a deferred or parked
+     * message is moved, so it is not written again and keeps the due time it was queued with, from which its lateness is
+     * measured.
+     * <p>
+     * With dispatch workers, the messages are handed to the workers instead, under a lease that makes later dispatches
+     * skip them while they are being sent. The workers report each acknowledged message to the repository, which removes
+     * it on the stream thread at the start of the next dispatch of the task, so the state stores are only accessed by the
+     * stream thread. A message whose send failed, or whose lease expired, is dispatched again.
+     */
     @Override
-    public void dispatchRetries(long timeStamp) {
-        props.getRetryDelaysMs().forEach((retryAttempt, retryDelayMs) -> {
-            Map<String, RetryInfo> messages = repository.getQueuedMessages(retryAttempt);
-            if (!CollectionUtils.isEmpty(messages)) {
-                messages.forEach((id, retryInfo) -> {
-                    try {
-                        if (timeStamp >= getMinimumDispatchTimeStamp(retryAttempt, retryInfo.getTimeStamp())) {
-                            String originTopic = retryInfo.getOriginTopic();
-                            log.info("Sending message {} to origin topic {}", id, originTopic);
-                            producer.sendToOriginTopic(originTopic, createRetryHeaders(retryAttempt), retryInfo.getPayload());
-                            repository.removeFromRetryQueue(id);
-                        }
-                    } catch (IOException ex) {
-                        log.error("Failed to dispatch message {} for retry attempt {}. Will try again on next scheduled dispatch",
-                                id, retryAttempt, ex);
+    public boolean dispatchRetries(long timeStamp) {
+        long start = System.nanoTime();
+        int dueCount = 0;
+        long dueBytes = 0;
+        int leasedCount = 0;
+        String exhaustedBudget = null;
+        int deferredCount = 0;
+        List<InFlightMessage> inFlight = new ArrayList<>();
+        Map<String, Long> deferredUntil = new HashMap<>();
+        if (dispatchExecutor != null) {
+            releaseLeases(timeStamp);
+        }
+        try (RetryQueueIterator messages = repository.getDueMessages(timeStamp)) {
+            while (messages.hasNext()) {
+                exhaustedBudget = getExhaustedBudget(dueCount + deferredCount, dueBytes, start);
+                if (exhaustedBudget != null) {
+                    break;
+                }
+                KeyValue<String, RetryInfo> message = messages.next();
+                if (isLeased(message.key, timeStamp)) {
+                    leasedCount++;
+                    continue;
+                }
+                if (isPayloadLost(message.value)) {
+                    dueCount++;
+                    if (sendLostPayload(message.key, message.value)) {
+                        messages.remove();
                     }
-                });
-            } else {
-                log.info("No messages queued for retry attempt {}", retryAttempt);
+                    continue;
+                }
+                long bytes = message.value.getPayload() == null ? 0 : message.value.getPayload().length;
+                String originTopic = message.value.getOriginTopic();
+                long circuitWaitMs = circuitBreakerService.getWaitMs(originTopic, timeStamp);
+                if (circuitWaitMs > 0) {
+                    parkMessage(messages, message.key, originTopic, timeStamp + circuitWaitMs);
+                    deferredCount++;
+                    continue;
+                }
+                long waitMs = rateLimitService.tryAcquire(originTopic, bytes, timeStamp);
+                if (waitMs > 0) {
+                    long dueTimeStamp = Math.max(timeStamp + waitMs, deferredUntil.getOrDefault(originTopic, 0L));
+                    deferredUntil.put(originTopic, dueTimeStamp + rateLimitService.getIntervalMs(originTopic, bytes));
+                    messages.defer(dueTimeStamp);
+                    deferredCount++;
+                    DEFERRED_LOG.info("Deferring message {} as origin topic {} is over its rate limit", message.key, originTopic);
+                    metrics.dispatchRateLimited(originTopic);
+                    continue;
+                }
+                circuitWaitMs = circuitBreakerService.tryAcquire(originTopic, timeStamp);
+                if (circuitWaitMs > 0) {
+                    parkMessage(messages, message.key, originTopic, timeStamp + circuitWaitMs);
+                    deferredCount++;
+                    continue;
+                }
+                if (dispatchExecutor != null && !submitRetry(message.key, message.value, timeStamp)) {
+                    exhaustedBudget = "workers";
+                    break;
+                }
+                dueCount++;
+                dueBytes += bytes;
+                if (dispatchExecutor == null) {
+                    CompletableFuture<Void> result = dispatchRetry(message.key, message.value);
+                    if (!result.isDone()) {
+                        inFlight.add(new InFlightMessage(message.key, message.value, result));
+                    } else if (isAcknowledged(message.key, message.value, result, timeStamp)) {
+                        messages.remove();
+                    }
+                }
             }
-        });
+        }
+        if (!inFlight.isEmpty()) {
+            producer.flush();
+            inFlight.forEach(message -> {
+                if (isAcknowledged(message.id, message.retryInfo, message.result, timeStamp)) {
+                    repository.removeFromRetryQueue(message.id);
+                }
+            });
+        }
+        if (dueCount == 0 && deferredCount == 0 && leasedCount == 0) {
+            log.debug("No messages due for retry");
+        }
+        if (exhaustedBudget != null) {
+            log.info("Dispatch {} budget exhausted after {} messages. Deferring remaining due messages", exhaustedBudget, dueCount);
+            metrics.dispatchDeferred(exhaustedBudget, timeStamp - repository.getNextDueTimeStamp());
+        }
+        metrics.dispatchCompleted(System.nanoTime() - start);
+        return exhaustedBudget != null || (dispatchExecutor != null && dueCount + leasedCount > 0);
     }
 
-    private Map<String, Object> createRetryHeaders(int retryAttempt) {
-        Map<String, Object> headers = new HashMap<>();
-        headers.put(MessageHeaders.RETRY_ATTEMPTS, retryAttempt);
-        return headers;
+    private void parkMessage(RetryQueueIterator messages, String id, String originTopic, long dueTimeStamp) {
+        messages.defer(dueTimeStamp);
+        DEFERRED_LOG.info("Parking message {} as the circuit of origin topic {} is open", id, originTopic);
+        metrics.dispatchCircuitOpen(originTopic);
     }
 
-    private long getMinimumDispatchTimeStamp(int retryAttempt, long messageTimeStamp) {
-        long timeStamp;
-        if (props.getRetryDelaysMs().containsKey(retryAttempt)) {
-            timeStamp = messageTimeStamp + props.getRetryDelaysMs().get(retryAttempt);
+    /**
+     * The returned service shares the dispatch workers, so only the service created as a bean shuts them down.
+     */
+    @Override
+    public MessageDispatchService withRepository(MessageRepository repository) {
+        return new DefaultMessageDispatchService(props, repository, producer, metrics, auditService, rateLimitService,
+                circuitBreakerService, dispatchExecutor);
+    }
+
+    /**
+     * Producers bound to a single processor send on the stream thread, so the returned service has no dispatch workers.
+     */
+    @Override
+    public MessageDispatchService withProducer(MessageProducer producer) {
+        return new DefaultMessageDispatchService(props, repository, producer, metrics, auditService, rateLimitService,
+                circuitBreakerService, null);
+    }
+
+    @Override
+    public void close() {
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Remove the leases of the messages that the repository has now removed, and of the messages whose lease expired
+     * without being acknowledged, e.g. because a worker is stuck.
+     */
+    private void releaseLeases(long timeStamp) {
+        repository.applyPendingRemovals().forEach(leases::remove);
+        leases.values().removeIf(lease -> lease.expiryTimeStamp <= timeStamp);
+    }
+
+    private boolean isLeased(String id, long timeStamp) {
+        Lease lease = leases.get(id);
+        return lease != null && lease.expiryTimeStamp > timeStamp;
+    }
+
+    /**
+     * Hand a message to the dispatch workers under a lease.
+     * @return False if the workers are saturated, in which case the message stays queued.
+     */
+    private boolean submitRetry(String id, RetryInfo retryInfo, long timeStamp) {
+        Lease lease = new Lease(repository.getPendingRemover(), timeStamp + props.getRetryDispatchLeaseMs());
+        leases.put(id, lease);
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    dispatchRetry(id, retryInfo).whenComplete((result, ex) -> leaseCompleted(id, retryInfo, lease, ex, timeStamp));
+                } catch (RuntimeException ex) {
+                    leaseCompleted(id, retryInfo, lease, ex, timeStamp);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            leases.remove(id, lease);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called by a worker or a producer thread. An acknowledged message keeps its lease until the repository has removed
+     * it, so it is not sent again in the meantime.
+     */
+    private void leaseCompleted(String id, RetryInfo retryInfo, Lease lease, Throwable failure, long timeStamp) {
+        if (failure == null) {
+            recordDispatched(id, retryInfo, timeStamp);
+            lease.remover.accept(id, retryInfo);
         } else {
-            timeStamp = messageTimeStamp;
-            log.error("Retry attempt {} not enabled", retryAttempt);
+            recordFailed(id, retryInfo, failure instanceof CompletionException ? failure.getCause() : failure);
+            leases.remove(id, lease);
         }
-        return timeStamp;
+    }
+
+    /**
+     * @return The name of the first budget exhausted by the messages dispatched so far, or null if none are exhausted.
+     */
+    private String getExhaustedBudget(int dueCount, long dueBytes, long start) {
+        String budget = null;
+        if (props.getRetryDispatchMaxMessages() > 0 && dueCount >= props.getRetryDispatchMaxMessages()) {
+            budget = "messages";
+        } else if (props.getRetryDispatchMaxBytes() > 0 && dueBytes >= props.getRetryDispatchMaxBytes()) {
+            budget = "bytes";
+        } else if (props.getRetryDispatchMaxTimeMs() > 0
+                && System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(props.getRetryDispatchMaxTimeMs())) {
+            budget = "time";
+        }
+        return budget;
+    }
+
+    /**
+     * A message kept by reference whose payload could not be read back is returned without a payload.
+     */
+    private static boolean isPayloadLost(RetryInfo retryInfo) {
+        return retryInfo.getPayload() == null && retryInfo.getPayloadReference() != null;
+    }
+
+    /**
+     * A message whose payload no longer exists cannot be retried, so it is sent to the permanent failure topic with its
+     * headers and an empty payload, marked by the payload lost header, rather than dropped.
+     * @return True if the message was sent, otherwise it stays queued and is sent again on the next dispatch.
+     */
+    private boolean sendLostPayload(String id, RetryInfo retryInfo) {
+        String originTopic = retryInfo.getOriginTopic();
+        log.error("Payload of message {} from origin topic {} is missing from the payload store. Sending message to permanent "
+                + "failure topic", id, originTopic);
+        Headers headers = createRetryHeaders(id, retryInfo);
+        if (originTopic != null) {
+            headers.add(MessageHeaders.ORIGIN_TOPIC, originTopic.getBytes(StandardCharsets.UTF_8));
+        }
+        headers.add(MessageHeaders.PAYLOAD_LOST, Boolean.TRUE.toString().getBytes(StandardCharsets.UTF_8));
+        boolean sent = false;
+        try {
+            producer.sendToPermanentFailureTopic(headers, new byte[0]);
+            metrics.payloadLost(originTopic);
+            auditService.record(AuditEvent.Type.DEAD_LETTERED, id, originTopic, retryInfo.getRetryAttempt() - 1);
+            sent = true;
+        } catch (IOException ex) {
+            log.error("Failed to send message {} to permanent failure topic. Will try again on next scheduled dispatch", id, ex);
+        }
+        return sent;
+    }
+
+    private CompletableFuture<Void> dispatchRetry(String id, RetryInfo retryInfo) {
+        String originTopic = retryInfo.getOriginTopic();
+        SENDING_LOG.info("Sending message {} to origin topic {}", id, originTopic);
+        return producer.sendToOriginTopicAsync(originTopic, createRetryHeaders(id, retryInfo), retryInfo.getPayload());
+    }
+
+    private boolean isAcknowledged(String id, RetryInfo retryInfo, CompletableFuture<Void> result, long timeStamp) {
+        boolean acknowledged = false;
+        try {
+            result.get();
+            acknowledged = true;
+            recordDispatched(id, retryInfo, timeStamp);
+        } catch (ExecutionException ex) {
+            recordFailed(id, retryInfo, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted waiting for message {} to be dispatched. Will try again on next scheduled dispatch", id);
+        }
+        return acknowledged;
+    }
+
+    private void recordDispatched(String id, RetryInfo retryInfo, long timeStamp) {
+        circuitBreakerService.recordDispatched(retryInfo.getOriginTopic(), timeStamp);
+        metrics.messageDispatched(retryInfo.getOriginTopic(), retryInfo.getRetryAttempt(),
+                timeStamp - retryInfo.getDueTimeStamp(props.getRetryDelaysMs()));
+        auditService.record(AuditEvent.Type.DISPATCHED, id, retryInfo.getOriginTopic(), retryInfo.getRetryAttempt());
+    }
+
+    private void recordFailed(String id, RetryInfo retryInfo, Throwable cause) {
+        metrics.dispatchFailed(retryInfo.getOriginTopic(), retryInfo.getRetryAttempt());
+        log.error("Failed to dispatch message {}. Will try again on next scheduled dispatch", id, cause);
+    }
+
+    /**
+     * The original headers of the message are written back as they were queued, followed by the retry attempts header.
+     * A message whose stored headers cannot be decoded is still retried, with the headers decoded before the error.
+     */
+    private Headers createRetryHeaders(String id, RetryInfo retryInfo) {
+        Headers headers = new RecordHeaders();
+        try {
+            EncodedHeaders.decode(retryInfo.getHeaders(), headers);
+        } catch (IllegalArgumentException ex) {
+            log.warn("Failed to decode the original headers of message {}", id, ex);
+        }
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, RetryHeaderCodec.encodeRetryAttempts(retryInfo.getRetryAttempt(),
+                props.isRetryHeadersBinaryWriteEnabled()));
+        return headers;
+    }
+
+    @RequiredArgsConstructor
+    private static class InFlightMessage {
+
+        private final String id;
+
+        private final RetryInfo retryInfo;
+
+        private final CompletableFuture<Void> result;
+
+    }
+
+    @RequiredArgsConstructor
+    private static class Lease {
+
+        /**
+         * Removes the message from the retry queue of its task once it has been acknowledged.
+         */
+        private final BiConsumer<String, RetryInfo> remover;
+
+        private final long expiryTimeStamp;
+
     }
 
 }
@@ -7,6 +7,9 @@ package com.ibm.kafka.retry.service.impl;
 
 import com.ibm.kafka.retry.ApplicationProperties;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.model.ExceptionRoute;
+import com.ibm.kafka.retry.model.RetryHeaders;
+import com.ibm.kafka.retry.service.ExceptionRoutingService;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.service.MessageQueryService;
 import lombok.AllArgsConstructor;
@@ -21,55 +24,82 @@ public class DefaultMessageQueryService implements MessageQueryService {
 
     private final HeaderExtractionService headerService;
 
+    private final ExceptionRoutingService routingService;
+
     @Override
     public boolean isRetriable(Headers headers) throws IllegalRetryStateException {
-        boolean exhausted = isRetriesExhausted(headers);
-        if (exhausted) {
-            log.info("Retry attempts exhausted");
-        }
-        boolean retriableException = isRetriableException(headers);
-        return !exhausted && retriableException;
+        int completedRetries = headerService.getCompletedRetries(headers);
+        String exceptionName = headerService.getExceptionName(headers);
+        return isRetriable(completedRetries, exceptionName, headerService.getOriginTopic(headers));
     }
 
     @Override
     public boolean isPermanentlyFailed(Headers headers) throws IllegalRetryStateException {
         String exceptionName = headerService.getExceptionName(headers);
-        boolean isFatal = isMatchingException(exceptionName, props.getFatalException());
-        if (isFatal) {
-            log.info("Exception type {} is not retriable", exceptionName);
-        }
-        return isRetriesExhausted(headers) || isFatal;
+        String originTopic = headerService.getOriginTopic(headers);
+        return isPermanentlyFailed(exceptionName, originTopic, headerService.getCompletedRetries(headers));
     }
 
     @Override
     public boolean isDroppable(Headers headers) throws IllegalRetryStateException {
         String exceptionName = headerService.getExceptionName(headers);
-        boolean fromFailureTopic = props.getPermanentFailureTopic().equals(headerService.getOriginTopic(headers));
-        if (fromFailureTopic) {
-            log.info("Message is from permanent failure topic");
+        return isDroppable(exceptionName, headerService.getOriginTopic(headers));
+    }
+
+    @Override
+    public boolean isRetriable(RetryHeaders headers) throws IllegalRetryStateException {
+        int completedRetries = headers.getCompletedRetries();
+        String exceptionName = headers.getExceptionName();
+        return isRetriable(completedRetries, exceptionName, headers.getOriginTopic());
+    }
+
+    @Override
+    public boolean isPermanentlyFailed(RetryHeaders headers) throws IllegalRetryStateException {
+        String exceptionName = headers.getExceptionName();
+        String originTopic = headers.getOriginTopic();
+        return isPermanentlyFailed(exceptionName, originTopic, headers.getCompletedRetries());
+    }
+
+    @Override
+    public boolean isDroppable(RetryHeaders headers) throws IllegalRetryStateException {
+        String exceptionName = headers.getExceptionName();
+        return isDroppable(exceptionName, headers.getOriginTopic());
+    }
+
+    private boolean isRetriable(int completedRetries, String exceptionName, String originTopic) {
+        boolean exhausted = isRetriesExhausted(completedRetries);
+        if (exhausted) {
+            log.debug("Retry attempts exhausted");
         }
-        boolean matchingException = isMatchingException(exceptionName, props.getDroppableException());
-        if (matchingException) {
-            log.info("Exception type {} is droppable", exceptionName);
+        boolean retriableException = routingService.getRoute(originTopic, exceptionName) == ExceptionRoute.RETRIABLE;
+        if (retriableException) {
+            log.debug("Exception type {} is retriable", exceptionName);
         }
-        return fromFailureTopic || matchingException;
+        return !exhausted && retriableException;
     }
 
-    private boolean isRetriableException(Headers headers) throws IllegalRetryStateException {
-        String exceptionName = headerService.getExceptionName(headers);
-        boolean matches = isMatchingException(exceptionName, props.getRetriableException());
-        if (matches) {
-            log.info("Exception type {} is retriable", exceptionName);
+    private boolean isPermanentlyFailed(String exceptionName, String originTopic, int completedRetries) {
+        boolean isFatal = routingService.getRoute(originTopic, exceptionName) == ExceptionRoute.FATAL;
+        if (isFatal) {
+            log.debug("Exception type {} is not retriable", exceptionName);
         }
-        return matches;
+        return isRetriesExhausted(completedRetries) || isFatal;
     }
 
-    private boolean isRetriesExhausted(Headers headers) throws IllegalRetryStateException {
-        return headerService.getCompletedRetries(headers) >= props.getMaxRetryCount();
+    private boolean isDroppable(String exceptionName, String originTopic) {
+        boolean fromFailureTopic = props.getPermanentFailureTopic().equals(originTopic);
+        if (fromFailureTopic) {
+            log.debug("Message is from permanent failure topic");
+        }
+        boolean matchingException = routingService.getRoute(originTopic, exceptionName) == ExceptionRoute.DROPPABLE;
+        if (matchingException) {
+            log.debug("Exception type {} is droppable", exceptionName);
+        }
+        return fromFailureTopic || matchingException;
     }
 
-    private boolean isMatchingException(String name, String targetException) {
-        return targetException.equals(name);
+    private boolean isRetriesExhausted(int completedRetries) {
+        return completedRetries >= props.getMaxRetryCount();
     }
 
 }
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.service.BackoffPolicy;
+import lombok.AllArgsConstructor;
+
+/**
+ * Delays that grow by a multiplier with each retry attempt, from the initial delay up to the maximum delay.
+ */
+@AllArgsConstructor
+public class ExponentialBackoffPolicy implements BackoffPolicy {
+
+    private final ApplicationProperties props;
+
+    @Override
+    public long getDelayMs(int retryAttempt) {
+        double delayMs = props.getRetryBackoffInitialDelayMs() * Math.pow(props.getRetryBackoffMultiplier(), Math.max(0, retryAttempt - 1));
+        return Jitter.apply((long) Math.min(delayMs, props.getRetryBackoffMaxDelayMs()), props.getRetryBackoffJitter());
+    }
+
+}
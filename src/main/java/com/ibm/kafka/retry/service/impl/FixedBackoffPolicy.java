@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.service.BackoffPolicy;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Delays from the table of retry delays, keyed by retry attempt. Attempts beyond the last entry in the table use the delay
+ * of the last entry, so the maximum attempts can exceed the size of the table.
+ */
+@Slf4j
+public class FixedBackoffPolicy implements BackoffPolicy {
+
+    private final TreeMap<Integer, Long> retryDelaysMs;
+
+    private final double jitter;
+
+    public FixedBackoffPolicy(ApplicationProperties props) {
+        this.retryDelaysMs = new TreeMap<>(props.getRetryDelaysMs());
+        this.jitter = props.getRetryBackoffJitter();
+    }
+
+    @Override
+    public long getDelayMs(int retryAttempt) {
+        Map.Entry<Integer, Long> entry = retryDelaysMs.floorEntry(retryAttempt);
+        long delayMs = 0;
+        if (entry == null) {
+            log.error("Retry attempt {} not enabled", retryAttempt);
+        } else {
+            delayMs = entry.getValue();
+        }
+        return Jitter.apply(delayMs, jitter);
+    }
+
+}
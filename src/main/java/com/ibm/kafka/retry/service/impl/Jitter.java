@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+final class Jitter {
+
+    private Jitter() {
+    }
+
+    /**
+     * Shorten a delay by a random fraction, so messages that failed together are spread over the jitter range rather than
+     * coming due at the same time. The configured delay remains the maximum.
+     * @param delayMs The delay.
+     * @param jitter The maximum fraction of the delay to remove, from 0 for no jitter to 1.
+     * @return The randomized delay.
+     */
+    static long apply(long delayMs, double jitter) {
+        long randomizedDelayMs = delayMs;
+        if (jitter > 0 && delayMs > 0) {
+            randomizedDelayMs = delayMs - (long) (delayMs * Math.min(jitter, 1) * ThreadLocalRandom.current().nextDouble());
+        }
+        return randomizedDelayMs;
+    }
+
+    /**
+     * @return A uniformly distributed value from the lower bound up to the upper bound.
+     */
+    static long between(long lowerBound, long upperBound) {
+        return upperBound > lowerBound ? lowerBound + (long) ((upperBound - lowerBound) * ThreadLocalRandom.current().nextDouble())
+                : lowerBound;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.consumer.serde.AuditEventBatchSerde;
+import com.ibm.kafka.retry.logging.SampledLogger;
+import com.ibm.kafka.retry.model.AuditEvent;
+import com.ibm.kafka.retry.service.AuditService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes lifecycle events to the audit topic with a native Kafka producer. Events from all stream threads are
+ * collected into batches, and each batch is sent as a single record in the format of {@link AuditEventBatchSerde} when
+ * it is full or when the flush interval elapses. Sends are asynchronous, so recording an event never waits for the
+ * broker.
+ */
+@Slf4j
+public class KafkaAuditService implements AuditService, AutoCloseable {
+
+    private static final SampledLogger SAMPLED_LOG = new SampledLogger(log, 1000);
+
+    private final ApplicationProperties props;
+
+    private final Producer<String, byte[]> producer;
+
+    private final Serializer<List<AuditEvent>> serializer = new AuditEventBatchSerde().serializer();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Guarded by this.
+     */
+    private List<AuditEvent> batch;
+
+    public KafkaAuditService(ApplicationProperties props, Producer<String, byte[]> producer) {
+        this.props = props;
+        this.producer = producer;
+        this.batch = new ArrayList<>(props.getRetryAuditBatchMaxEvents());
+        long intervalMs = props.getRetryAuditFlushIntervalMs();
+        if (intervalMs > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "kafka-retry-audit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void record(AuditEvent.Type type, String messageId, String originTopic, int retryAttempt) {
+        AuditEvent event = AuditEvent.builder().type(type).timeStamp(System.currentTimeMillis()).messageId(messageId)
+                .originTopic(originTopic).retryAttempt(retryAttempt).build();
+        List<AuditEvent> fullBatch = null;
+        synchronized (this) {
+            batch.add(event);
+            if (batch.size() >= props.getRetryAuditBatchMaxEvents()) {
+                fullBatch = batch;
+                batch = new ArrayList<>(props.getRetryAuditBatchMaxEvents());
+            }
+        }
+        if (fullBatch != null) {
+            send(fullBatch);
+        }
+    }
+
+    @Override
+    public void flush() {
+        List<AuditEvent> events = null;
+        synchronized (this) {
+            if (!batch.isEmpty()) {
+                events = batch;
+                batch = new ArrayList<>(props.getRetryAuditBatchMaxEvents());
+            }
+        }
+        if (events != null) {
+            send(events);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        flush();
+        producer.close();
+    }
+
+    private void send(List<AuditEvent> events) {
+        String topic = props.getRetryAuditTopic();
+        try {
+            producer.send(new ProducerRecord<>(topic, serializer.serialize(topic, events)), (metadata, ex) -> {
+                if (ex != null) {
+                    SAMPLED_LOG.warn("Failed to publish {} audit events", events.size());
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.error("Failed to publish {} audit events", events.size(), ex);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.model.AuditEvent;
+import com.ibm.kafka.retry.service.AuditService;
+
+/**
+ * Used when the audit topic is disabled.
+ */
+public class NoOpAuditService implements AuditService {
+
+    @Override
+    public void record(AuditEvent.Type type, String messageId, String originTopic, int retryAttempt) {
+        // Audit disabled
+    }
+
+    @Override
+    public void flush() {
+        // Audit disabled
+    }
+
+}
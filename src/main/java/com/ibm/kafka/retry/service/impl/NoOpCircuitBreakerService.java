@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+
+/**
+ * Used when the circuit breaker is disabled.
+ */
+public class NoOpCircuitBreakerService implements CircuitBreakerService {
+
+    @Override
+    public void recordInflow(String originTopic, int completedRetries, long timeStamp) {
+        // Circuit breaker disabled
+    }
+
+    @Override
+    public void recordDispatched(String originTopic, long timeStamp) {
+        // Circuit breaker disabled
+    }
+
+    @Override
+    public long tryAcquire(String originTopic, long timeStamp) {
+        return 0;
+    }
+
+    @Override
+    public long getWaitMs(String originTopic, long timeStamp) {
+        return 0;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+/**
+ * Token bucket refilled at a fixed rate, holding up to one second of tokens. A cost larger than the bucket is allowed
+ * once the bucket is full, leaving the bucket in debt, so that large messages are delayed rather than blocked forever.
+ * <p>
+ * Not thread safe.
+ */
+class TokenBucket {
+
+    private final double tokensPerSecond;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private long lastRefillTimeStamp;
+
+    /**
+     * @param tokensPerSecond The refill rate.
+     * @param timeStamp The current time stamp. The bucket starts full.
+     */
+    TokenBucket(double tokensPerSecond, long timeStamp) {
+        this.tokensPerSecond = tokensPerSecond;
+        this.capacity = tokensPerSecond;
+        this.tokens = capacity;
+        this.lastRefillTimeStamp = timeStamp;
+    }
+
+    /**
+     * @return 0 if the bucket holds enough tokens for a cost, otherwise the time in milliseconds until it does.
+     */
+    long getWaitMs(double cost, long timeStamp) {
+        refill(timeStamp);
+        double required = Math.min(cost, capacity);
+        return tokens >= required ? 0 : toMillis(required - tokens);
+    }
+
+    void consume(double cost) {
+        tokens -= cost;
+    }
+
+    /**
+     * @return The time in milliseconds that the bucket takes to refill a cost.
+     */
+    long getIntervalMs(double cost) {
+        return toMillis(cost);
+    }
+
+    private void refill(long timeStamp) {
+        if (timeStamp > lastRefillTimeStamp) {
+            tokens = Math.min(capacity, tokens + (timeStamp - lastRefillTimeStamp) * tokensPerSecond / 1000);
+            lastRefillTimeStamp = timeStamp;
+        }
+    }
+
+    private long toMillis(double tokens) {
+        return (long) Math.ceil(tokens * 1000 / tokensPerSecond);
+    }
+
+}
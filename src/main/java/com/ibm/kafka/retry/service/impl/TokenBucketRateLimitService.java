@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.service.RateLimitService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the rate of retries per origin topic with a token bucket for messages and one for payload bytes. The buckets are
+ * shared by the stream threads of this instance, so the limits apply per instance rather than across the application.
+ * Topics without a rate limit of their own use the default rate limit.
+ */
+@Slf4j
+public class TokenBucketRateLimitService implements RateLimitService {
+
+    private static final TopicLimiter UNLIMITED = new TopicLimiter(null, null);
+
+    private final ApplicationProperties.RateLimit defaultRateLimit;
+
+    private final Map<String, ApplicationProperties.RateLimit> rateLimits = new ConcurrentHashMap<>();
+
+    private final Map<String, TopicLimiter> limiters = new ConcurrentHashMap<>();
+
+    public TokenBucketRateLimitService(ApplicationProperties props) {
+        defaultRateLimit = new ApplicationProperties.RateLimit(props.getRetryRateLimitMessagesPerSecond(),
+                props.getRetryRateLimitBytesPerSecond());
+        rateLimits.putAll(props.getTopicRateLimits());
+    }
+
+    @Override
+    public long tryAcquire(String originTopic, long bytes, long timeStamp) {
+        return getLimiter(originTopic, timeStamp).tryAcquire(bytes, timeStamp);
+    }
+
+    @Override
+    public long getIntervalMs(String originTopic, long bytes) {
+        return getLimiter(originTopic, System.currentTimeMillis()).getIntervalMs(bytes);
+    }
+
+    @Override
+    public Map<String, ApplicationProperties.RateLimit> getRateLimits() {
+        return Collections.unmodifiableMap(new HashMap<>(rateLimits));
+    }
+
+    @Override
+    public void setRateLimit(String originTopic, ApplicationProperties.RateLimit rateLimit) {
+        log.info("Setting rate limit of origin topic {} to {} messages and {} bytes per second", originTopic,
+                rateLimit.getMessagesPerSecond(), rateLimit.getBytesPerSecond());
+        rateLimits.put(originTopic, rateLimit);
+        limiters.remove(originTopic);
+    }
+
+    @Override
+    public void removeRateLimit(String originTopic) {
+        log.info("Removing rate limit of origin topic {}", originTopic);
+        rateLimits.remove(originTopic);
+        limiters.remove(originTopic);
+    }
+
+    private TopicLimiter getLimiter(String originTopic, long timeStamp) {
+        return limiters.computeIfAbsent(String.valueOf(originTopic), topic -> {
+            ApplicationProperties.RateLimit rateLimit = rateLimits.getOrDefault(topic, defaultRateLimit);
+            TokenBucket messages = rateLimit.getMessagesPerSecond() > 0 ? new TokenBucket(rateLimit.getMessagesPerSecond(), timeStamp) : null;
+            TokenBucket bytes = rateLimit.getBytesPerSecond() > 0 ? new TokenBucket(rateLimit.getBytesPerSecond(), timeStamp) : null;
+            return messages == null && bytes == null ? UNLIMITED : new TopicLimiter(messages, bytes);
+        });
+    }
+
+    /**
+     * The buckets of an origin topic, either of which may be null if that rate is not limited.
+     */
+    private static class TopicLimiter {
+
+        private final TokenBucket messages;
+
+        private final TokenBucket bytes;
+
+        TopicLimiter(TokenBucket messages, TokenBucket bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Tokens are only taken when both buckets allow the message, so a message held back by one limit does not use up
+         * the other. Unlimited topics take no lock.
+         */
+        long tryAcquire(long size, long timeStamp) {
+            long waitMs = 0;
+            if (this != UNLIMITED) {
+                synchronized (this) {
+                    waitMs = Math.max(messages == null ? 0 : messages.getWaitMs(1, timeStamp),
+                            bytes == null ? 0 : bytes.getWaitMs(size, timeStamp));
+                    if (waitMs == 0) {
+                        if (messages != null) {
+                            messages.consume(1);
+                        }
+                        if (bytes != null) {
+                            bytes.consume(size);
+                        }
+                    }
+                }
+            }
+            return waitMs;
+        }
+
+        long getIntervalMs(long size) {
+            return Math.max(messages == null ? 0 : messages.getIntervalMs(1), bytes == null ? 0 : bytes.getIntervalMs(size));
+        }
+
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ibm.kafka.retry.consumer.MessageConsumer;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.repository.MessageRepository;
+import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import com.ibm.kafka.retry.service.HeaderExtractionService;
+import com.ibm.kafka.retry.service.MessageQueryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.kafka.config.StreamsBuilderFactoryBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Feeds synthetic messages through the topology built by the message consumer and advances the wall clock of the test
+ * driver, sending retries through the topology. Ingest and dispatch throughput are measured in real time, while retry
+ * delays are measured against the simulated wall clock. The results are written as JSON so runs can be compared.
+ * <p>
+ * Configured with system properties, which the loadTest Gradle task passes through from project properties:
+ * <ul>
+ *     <li>loadTest.messages - Number of messages to send to the retry topic. Default: 1000000.</li>
+ *     <li>loadTest.messagesPerSecond - Rate of messages per simulated second. Default: 10000.</li>
+ *     <li>loadTest.tickMs - Simulated time between advances of the wall clock. Default: 100.</li>
+ *     <li>loadTest.payloadSize - Payload size in bytes. Default: 1024.</li>
+ *     <li>loadTest.schedulerIntervalMs - Retry scheduler interval. Default: 1000.</li>
+ *     <li>loadTest.schedulerGranularityMs - Tick of the adaptive scheduler, or 0 to disable it. Default: 100.</li>
+ *     <li>loadTest.reportDir - Directory for the JSON report. Default: build/reports/load-test.</li>
+ * </ul>
+ */
+class RetryLoadTest {
+
+    private static final String ORIGIN_TOPIC = "orders";
+
+    private static final String PERMANENT_FAILURE_TOPIC = "permanent-failure";
+
+    private static final String RETRIABLE_EXCEPTION_NAME = "TimeoutException";
+
+    private static final String FATAL_EXCEPTION_NAME = "SchemaValidationException";
+
+    private static final String DROPPABLE_EXCEPTION_NAME = "DuplicateMessageException";
+
+    private static final String UNKNOWN_EXCEPTION_NAME = "UnknownException";
+
+    private static final long[] RETRY_DELAYS_MS = {1000, 5000, 30000};
+
+    /**
+     * Out of every 20 messages, 14 are retried, 2 have exhausted their retries, 2 are fatal, 1 is dropped and 1 has an
+     * exception that matches no rule.
+     */
+    private static final int MIX_SIZE = 20;
+
+    private static final int SAMPLE_EVERY_TICKS = 10;
+
+    private final int messages = Integer.getInteger("loadTest.messages", 1000000);
+
+    private final int messagesPerSecond = Integer.getInteger("loadTest.messagesPerSecond", 10000);
+
+    private final long tickMs = Long.getLong("loadTest.tickMs", 100L);
+
+    private final int payloadSize = Integer.getInteger("loadTest.payloadSize", 1024);
+
+    private final long schedulerIntervalMs = Long.getLong("loadTest.schedulerIntervalMs", 1000L);
+
+    private final long schedulerGranularityMs = Long.getLong("loadTest.schedulerGranularityMs", 100L);
+
+    private final File reportDir = new File(System.getProperty("loadTest.reportDir", "build/reports/load-test"));
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+    private File stateDir;
+
+    private TopologyTestDriver testDriver;
+
+    private ConsumerRecordFactory<String, byte[]> messageFactory;
+
+    private long wallClockMs;
+
+    /**
+     * Produced time stamp of each message, indexed by the message number held at the start of the payload.
+     */
+    private long[] producedTimeStamps;
+
+    /**
+     * Difference between the actual and configured retry delay of each dispatched retry.
+     */
+    private long[] latenessMs;
+
+    private int dispatched;
+
+    private int permanentlyFailed;
+
+    private long peakHeapBytes;
+
+    private long peakQueuedMessages;
+
+    @BeforeEach
+    void setup() throws Exception {
+        props.setRetriableException(RETRIABLE_EXCEPTION_NAME);
+        props.setFatalException(FATAL_EXCEPTION_NAME);
+        props.setDroppableException(DROPPABLE_EXCEPTION_NAME);
+        props.setPermanentFailureTopic(PERMANENT_FAILURE_TOPIC);
+        props.setPayloadContentType("application/octet-stream");
+        props.setRetryProducerType(ApplicationProperties.ProducerType.STREAMS);
+        props.setRetryInfoStoreName("retry-info-store");
+        props.setRetryIndexStoreName("retry-index-store");
+        props.setRetrySchedulerIntervalMs(schedulerIntervalMs);
+        props.setRetrySchedulerGranularityMs(schedulerGranularityMs);
+        Map<Integer, Long> retryDelays = new HashMap<>();
+        for (int i = 0; i < RETRY_DELAYS_MS.length; i++) {
+            retryDelays.put(i + 1, RETRY_DELAYS_MS[i]);
+        }
+        props.setRetryDelaysMs(retryDelays);
+
+        StreamsBuilder builder = new StreamsBuilder();
+        createConsumer(builder).consumeMessage(builder.stream(ApplicationProperties.RETRY_CHANNEL,
+                Consumed.with(Serdes.String(), Serdes.ByteArray())));
+        stateDir = Files.createTempDirectory("retry-load-test").toFile();
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "load-test");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "load-test:1234");
+        config.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.getAbsolutePath());
+        wallClockMs = System.currentTimeMillis();
+        testDriver = new TopologyTestDriver(builder.build(), config, wallClockMs);
+        messageFactory = new ConsumerRecordFactory<>(Serdes.String().serializer(), Serdes.ByteArray().serializer());
+        producedTimeStamps = new long[messages];
+        latenessMs = new long[messages];
+    }
+
+    @AfterEach
+    void shutdown() throws IOException {
+        testDriver.close();
+        Utils.delete(stateDir);
+    }
+
+    @Test
+    void retryThroughputAndDelayAccuracy() throws IOException {
+        Random random = new Random(messages);
+        byte[] filler = new byte[Math.max(0, payloadSize - Integer.BYTES)];
+        random.nextBytes(filler);
+        int messagesPerTick = (int) Math.max(1, messagesPerSecond * tickMs / 1000);
+        long endOfRunMs = Long.MAX_VALUE;
+        long ingestNanos = 0;
+        long dispatchNanos = 0;
+        long stateDirBytes = 0;
+        int sent = 0;
+        int tick = 0;
+        while (wallClockMs <= endOfRunMs) {
+            long start = System.nanoTime();
+            for (int i = 0; i < messagesPerTick && sent < messages; i++, sent++) {
+                sendMessage(sent, filler);
+            }
+            ingestNanos += System.nanoTime() - start;
+            if (sent == messages && endOfRunMs == Long.MAX_VALUE) {
+                endOfRunMs = wallClockMs + RETRY_DELAYS_MS[RETRY_DELAYS_MS.length - 1] + 2 * schedulerIntervalMs;
+                stateDirBytes = getSize(stateDir.toPath());
+            }
+            start = System.nanoTime();
+            testDriver.advanceWallClockTime(tickMs);
+            dispatchNanos += System.nanoTime() - start;
+            wallClockMs += tickMs;
+            readOutput();
+            if (tick++ % SAMPLE_EVERY_TICKS == 0) {
+                sampleResources();
+            }
+        }
+        sampleResources();
+
+        int expectedRetries = 0;
+        int expectedFailures = 0;
+        for (int i = 0; i < messages; i++) {
+            int mix = i % MIX_SIZE;
+            expectedRetries += mix < 14 ? 1 : 0;
+            expectedFailures += mix >= 14 && mix < 18 ? 1 : 0;
+        }
+        long[] lateness = Arrays.copyOf(latenessMs, dispatched);
+        Arrays.sort(lateness);
+        writeReport(ingestNanos, dispatchNanos, stateDirBytes, lateness);
+        assertEquals(expectedRetries, dispatched);
+        assertEquals(expectedFailures, permanentlyFailed);
+        assertTrue(lateness.length == 0 || lateness[0] >= 0, "Retry dispatched before its configured delay");
+    }
+
+    private MessageConsumer createConsumer(StreamsBuilder builder) throws Exception {
+        ConfigurableApplicationContext context = mock(ConfigurableApplicationContext.class);
+        StreamsBuilderFactoryBean factoryBean = mock(StreamsBuilderFactoryBean.class);
+        given(context.getBean(anyString(), any(Class.class))).willReturn(factoryBean);
+        given(factoryBean.getObject()).willReturn(builder);
+
+        ApplicationConfiguration configuration = new ApplicationConfiguration();
+        RetryMetrics metrics = configuration.retryMetrics(new SimpleMeterRegistry());
+        Serde<RetryInfo> retryInfoSerde = configuration.retryInfoSerde(props);
+        HeaderExtractionService headerService = configuration.headerExtractionService(props);
+        MessageQueryService queryService = configuration.messageQueryService(props, headerService,
+                configuration.exceptionRoutingService(props));
+        MessageRepository repository = configuration.messageRepository(props, metrics);
+        MessageProducer producer = configuration.messageProducer(props, mock(BinderAwareChannelResolver.class),
+                new KafkaProperties(), metrics);
+        AuditService auditService = configuration.auditService(props, new KafkaProperties());
+        ActionService actionService = configuration.actionService(headerService, repository, producer, metrics, auditService,
+                configuration.backoffPolicy(props));
+        CircuitBreakerService circuitBreakerService = configuration.circuitBreakerService(props, metrics);
+        return configuration.messageConsumer(context, retryInfoSerde, props, headerService, queryService, actionService, repository,
+                configuration.messageDispatchService(props, producer, repository, metrics, auditService,
+                        configuration.rateLimitService(props), circuitBreakerService), circuitBreakerService, producer, metrics);
+    }
+
+    /**
+     * The message number is written at the start of the payload, so retries can be matched to the original message.
+     */
+    private void sendMessage(int number, byte[] filler) {
+        int mix = number % MIX_SIZE;
+        String exceptionName;
+        int completedRetries = (number / MIX_SIZE) % RETRY_DELAYS_MS.length;
+        if (mix < 14) {
+            exceptionName = RETRIABLE_EXCEPTION_NAME;
+        } else if (mix < 16) {
+            exceptionName = RETRIABLE_EXCEPTION_NAME;
+            completedRetries = RETRY_DELAYS_MS.length;
+        } else if (mix < 18) {
+            exceptionName = FATAL_EXCEPTION_NAME;
+        } else if (mix < 19) {
+            exceptionName = DROPPABLE_EXCEPTION_NAME;
+        } else {
+            exceptionName = UNKNOWN_EXCEPTION_NAME;
+        }
+        Headers headers = new RecordHeaders();
+        headers.add(MessageHeaders.EXCEPTION_TYPE, quoted(exceptionName));
+        headers.add(MessageHeaders.ORIGIN_TOPIC, quoted(ORIGIN_TOPIC));
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, String.valueOf(completedRetries).getBytes(StandardCharsets.UTF_8));
+        headers.add(MessageHeaders.PRODUCED_TIMESTAMP_MS, quoted(String.valueOf(wallClockMs)));
+        byte[] payload = ByteBuffer.allocate(Integer.BYTES + filler.length).putInt(number).put(filler).array();
+        producedTimeStamps[number] = wallClockMs;
+        testDriver.pipeInput(messageFactory.create(ApplicationProperties.RETRY_CHANNEL, "message-" + number, payload, headers,
+                wallClockMs));
+    }
+
+    /**
+     * Retries are forwarded during punctuation, so the time stamp of each record is the time it was dispatched.
+     */
+    private void readOutput() {
+        ProducerRecord<String, byte[]> record;
+        while ((record = testDriver.readOutput(ORIGIN_TOPIC, Serdes.String().deserializer(), Serdes.ByteArray().deserializer())) != null) {
+            int number = ByteBuffer.wrap(record.value()).getInt();
+            int retryAttempt = Integer.parseInt(new String(record.headers().lastHeader(MessageHeaders.RETRY_ATTEMPTS).value(),
+                    StandardCharsets.UTF_8));
+            latenessMs[dispatched++] = record.timestamp() - producedTimeStamps[number] - RETRY_DELAYS_MS[retryAttempt - 1];
+        }
+        while (testDriver.readOutput(PERMANENT_FAILURE_TOPIC) != null) {
+            permanentlyFailed++;
+        }
+    }
+
+    private void sampleResources() {
+        peakHeapBytes = Math.max(peakHeapBytes, memoryBean.getHeapMemoryUsage().getUsed());
+        KeyValueStore<String, RetryInfo> store = testDriver.getKeyValueStore(props.getRetryInfoStoreName());
+        peakQueuedMessages = Math.max(peakQueuedMessages, store.approximateNumEntries());
+    }
+
+    private void writeReport(long ingestNanos, long dispatchNanos, long stateDirBytes, long[] lateness) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("messages", messages);
+        report.put("messagesPerSimulatedSecond", messagesPerSecond);
+        report.put("payloadSize", payloadSize);
+        report.put("tickMs", tickMs);
+        report.put("schedulerIntervalMs", schedulerIntervalMs);
+        report.put("schedulerGranularityMs", schedulerGranularityMs);
+        report.put("retryDelaysMs", RETRY_DELAYS_MS);
+        report.put("ingestMessagesPerSecond", perSecond(messages, ingestNanos));
+        report.put("dispatchedRetries", dispatched);
+        report.put("dispatchMessagesPerSecond", perSecond(dispatched, dispatchNanos));
+        report.put("permanentlyFailed", permanentlyFailed);
+        report.put("peakHeapBytes", peakHeapBytes);
+        report.put("peakQueuedMessages", peakQueuedMessages);
+        report.put("stateDirBytes", stateDirBytes);
+        Map<String, Long> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", percentile(lateness, 0.5));
+        percentiles.put("p90", percentile(lateness, 0.9));
+        percentiles.put("p99", percentile(lateness, 0.99));
+        percentiles.put("p999", percentile(lateness, 0.999));
+        percentiles.put("max", lateness.length == 0 ? 0 : lateness[lateness.length - 1]);
+        report.put("retryDelayLatenessMs", percentiles);
+        reportDir.mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(reportDir, "retry-load-test.json"), report);
+    }
+
+    private static long perSecond(long count, long nanos) {
+        return nanos == 0 ? 0 : count * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+    }
+
+    private static long getSize(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+        }
+    }
+
+    private static byte[] quoted(String value) {
+        return ("\"" + value + "\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -6,17 +6,40 @@
 package com.ibm.kafka.retry;
 
 import com.ibm.kafka.retry.consumer.MessageConsumer;
+import com.ibm.kafka.retry.consumer.serde.BinaryRetryInfoSerde;
+import com.ibm.kafka.retry.consumer.serde.RetryInfoSerde;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
 import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.producer.impl.DefaultMessageProducer;
+import com.ibm.kafka.retry.producer.impl.KafkaMessageProducer;
+import com.ibm.kafka.retry.producer.impl.StreamsMessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
 import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.BackoffPolicy;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import com.ibm.kafka.retry.service.ExceptionRoutingService;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.service.MessageDispatchService;
 import com.ibm.kafka.retry.service.MessageQueryService;
+import com.ibm.kafka.retry.service.RateLimitService;
+import com.ibm.kafka.retry.service.impl.DecorrelatedJitterBackoffPolicy;
+import com.ibm.kafka.retry.service.impl.DefaultCircuitBreakerService;
+import com.ibm.kafka.retry.service.impl.ExponentialBackoffPolicy;
+import com.ibm.kafka.retry.service.impl.FixedBackoffPolicy;
+import com.ibm.kafka.retry.service.impl.KafkaAuditService;
+import com.ibm.kafka.retry.service.impl.NoOpAuditService;
+import com.ibm.kafka.retry.service.impl.NoOpCircuitBreakerService;
+import com.ibm.kafka.retry.service.impl.TokenBucketRateLimitService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.kafka.common.serialization.Serde;
 import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
 import org.springframework.context.ConfigurableApplicationContext;
 
+import java.util.HashMap;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.mockito.Mockito.mock;
@@ -28,47 +51,146 @@ class ApplicationConfigurationTest {
     @Test
     void actionService() {
         assertThat(config.actionService(mock(HeaderExtractionService.class), mock(MessageRepository.class),
-                mock(MessageProducer.class)), instanceOf(ActionService.class));
+                mock(MessageProducer.class), mock(RetryMetrics.class), mock(AuditService.class), mock(BackoffPolicy.class)),
+                instanceOf(ActionService.class));
+    }
+
+    @Test
+    void fixedBackoffPolicy() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryDelaysMs(new HashMap<>());
+        assertThat(config.backoffPolicy(props), instanceOf(FixedBackoffPolicy.class));
+    }
+
+    @Test
+    void exponentialBackoffPolicy() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryBackoffPolicy(ApplicationProperties.BackoffPolicyType.EXPONENTIAL);
+        assertThat(config.backoffPolicy(props), instanceOf(ExponentialBackoffPolicy.class));
+    }
+
+    @Test
+    void decorrelatedJitterBackoffPolicy() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryBackoffPolicy(ApplicationProperties.BackoffPolicyType.DECORRELATED_JITTER);
+        assertThat(config.backoffPolicy(props), instanceOf(DecorrelatedJitterBackoffPolicy.class));
     }
 
     @Test
     void headerExtractionService() {
-        assertThat(config.headerExtractionService(), instanceOf(HeaderExtractionService.class));
+        assertThat(config.headerExtractionService(new ApplicationProperties()), instanceOf(HeaderExtractionService.class));
     }
 
     @Test
     void messageDispatchService() {
         assertThat(config.messageDispatchService(mock(ApplicationProperties.class), mock(MessageProducer.class),
-                mock(MessageRepository.class)), instanceOf(MessageDispatchService.class));
+                mock(MessageRepository.class), mock(RetryMetrics.class), mock(AuditService.class), mock(RateLimitService.class),
+                mock(CircuitBreakerService.class)), instanceOf(MessageDispatchService.class));
+    }
+
+    @Test
+    void circuitBreakerServiceDisabledByDefault() {
+        assertThat(config.circuitBreakerService(new ApplicationProperties(), mock(RetryMetrics.class)),
+                instanceOf(NoOpCircuitBreakerService.class));
+    }
+
+    @Test
+    void circuitBreakerServiceEnabled() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryCircuitBreakerEnabled(true);
+        assertThat(config.circuitBreakerService(props, mock(RetryMetrics.class)), instanceOf(DefaultCircuitBreakerService.class));
+    }
+
+    @Test
+    void rateLimitService() {
+        assertThat(config.rateLimitService(new ApplicationProperties()), instanceOf(TokenBucketRateLimitService.class));
+    }
+
+    @Test
+    void noOpAuditService() {
+        assertThat(config.auditService(new ApplicationProperties(), new KafkaProperties()), instanceOf(NoOpAuditService.class));
+    }
+
+    @Test
+    void kafkaAuditService() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryAuditEnabled(true);
+        AuditService auditService = config.auditService(props, new KafkaProperties());
+        assertThat(auditService, instanceOf(KafkaAuditService.class));
+        ((KafkaAuditService) auditService).close();
     }
 
     @Test
     void messageQueryService() {
-        assertThat(config.messageQueryService(mock(ApplicationProperties.class), mock(HeaderExtractionService.class)),
-                instanceOf(MessageQueryService.class));
+        assertThat(config.messageQueryService(mock(ApplicationProperties.class), mock(HeaderExtractionService.class),
+                mock(ExceptionRoutingService.class)), instanceOf(MessageQueryService.class));
+    }
+
+    @Test
+    void exceptionRoutingService() {
+        assertThat(config.exceptionRoutingService(new ApplicationProperties()), instanceOf(ExceptionRoutingService.class));
     }
 
     @Test
     void messageRepository() {
-        assertThat(config.messageRepository(), instanceOf(MessageRepository.class));
+        assertThat(config.messageRepository(new ApplicationProperties(), mock(RetryMetrics.class)), instanceOf(MessageRepository.class));
     }
 
     @Test
     void messageProducer() {
-        assertThat(config.messageProducer(mock(ApplicationProperties.class), mock(BinderAwareChannelResolver.class)),
-                instanceOf(MessageProducer.class));
+        assertThat(config.messageProducer(new ApplicationProperties(), mock(BinderAwareChannelResolver.class), new KafkaProperties(),
+                mock(RetryMetrics.class)), instanceOf(DefaultMessageProducer.class));
+    }
+
+    @Test
+    void streamsMessageProducer() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryProducerType(ApplicationProperties.ProducerType.STREAMS);
+        assertThat(config.messageProducer(props, mock(BinderAwareChannelResolver.class), new KafkaProperties(),
+                mock(RetryMetrics.class)), instanceOf(StreamsMessageProducer.class));
+    }
+
+    @Test
+    void kafkaMessageProducer() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryProducerType(ApplicationProperties.ProducerType.KAFKA);
+        MessageProducer producer = config.messageProducer(props, mock(BinderAwareChannelResolver.class), new KafkaProperties(),
+                mock(RetryMetrics.class));
+        assertThat(producer, instanceOf(KafkaMessageProducer.class));
+        ((KafkaMessageProducer) producer).close();
     }
 
     @Test
     void messageConsumer() {
         assertThat(config.messageConsumer(mock(ConfigurableApplicationContext.class), mock(Serde.class), mock(ApplicationProperties.class),
-                mock(MessageQueryService.class), mock(ActionService.class), mock(MessageRepository.class), mock(MessageDispatchService.class)),
+                mock(HeaderExtractionService.class), mock(MessageQueryService.class), mock(ActionService.class), mock(MessageRepository.class),
+                mock(MessageDispatchService.class), mock(CircuitBreakerService.class), mock(MessageProducer.class), mock(RetryMetrics.class)),
                 instanceOf(MessageConsumer.class));
     }
 
+    @Test
+    void retryMetrics() {
+        assertThat(config.retryMetrics(new SimpleMeterRegistry()), instanceOf(RetryMetrics.class));
+    }
+
     @Test
     void retryInfoListSerde() {
-        assertThat(config.retryInfoSerde(), instanceOf(Serde.class));
+        assertThat(config.retryInfoSerde(new ApplicationProperties()), instanceOf(RetryInfoSerde.class));
+    }
+
+    @Test
+    void compressionIgnoredByJsonRetryInfoSerde() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryStoreCompression(ApplicationProperties.StoreCompression.ZSTD);
+        props.setRetryStoreCompressionDictionary("missing-dictionary");
+        assertThat(config.retryInfoSerde(props), instanceOf(RetryInfoSerde.class));
+    }
+
+    @Test
+    void binaryRetryInfoSerde() {
+        ApplicationProperties props = new ApplicationProperties();
+        props.setRetryStoreFormat(ApplicationProperties.StoreFormat.BINARY);
+        assertThat(config.retryInfoSerde(props), instanceOf(BinaryRetryInfoSerde.class));
     }
 
 }
@@ -5,12 +5,16 @@
 
 package com.ibm.kafka.retry;
 
+import java.nio.charset.StandardCharsets;
+
 public class TestUtil {
 
     public static final String MESSAGE_ID = "testId";
 
     public static final String ORIGIN_TOPIC = "originTopic";
 
+    public static final byte[] PAYLOAD = "{\"key\":\"value\"}".getBytes(StandardCharsets.UTF_8);
+
     public static final String RETRIABLE_EXCEPTION_NAME = "ProcessingException";
 
     public static final String FATAL_EXCEPTION_NAME = "FatalProcessingException";
@@ -21,6 +25,10 @@ public class TestUtil {
 
     public static final String MESSAGE_STORE_NAME = "messageStore";
 
+    public static final String INDEX_STORE_NAME = "indexStore";
+
+    public static final String CLAIM_CHECK_STORE_NAME = "claimCheckStore";
+
     public static final long FIRST_RETRY_DELAY_MILLIS = 1000;
 
     public static final long SECOND_RETRY_DELAY_MILLIS = 3000;
@@ -5,19 +5,23 @@
 
 package com.ibm.kafka.retry.consumer;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ibm.kafka.retry.ApplicationProperties;
 import com.ibm.kafka.retry.consumer.impl.KafkaStreamsMessageConsumer;
-import com.ibm.kafka.retry.consumer.serde.MessageSerde;
 import com.ibm.kafka.retry.consumer.serde.RetryInfoSerde;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import com.ibm.kafka.retry.producer.impl.StreamsMessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
 import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
+import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.service.MessageDispatchService;
 import com.ibm.kafka.retry.service.MessageQueryService;
 import com.ibm.kafka.retry.TestUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.common.serialization.Serde;
@@ -28,11 +32,13 @@ import org.apache.kafka.streams.Topology;
 import org.apache.kafka.streams.TopologyTestDriver;
 import org.apache.kafka.streams.kstream.Consumed;
 import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.state.StoreBuilder;
 import org.apache.kafka.streams.state.Stores;
 import org.apache.kafka.streams.test.ConsumerRecordFactory;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.kafka.config.StreamsBuilderFactoryBean;
 
@@ -41,62 +47,74 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 
 class KafkaStreamsMessageConsumerTest {
 
+    private static final long SCHEDULER_GRANULARITY_MS = 100;
+
     private final ConfigurableApplicationContext context = mock(ConfigurableApplicationContext.class);
 
     private final Serde<RetryInfo> retryInfoSerde = mock(Serde.class);
 
     private final ApplicationProperties props = mock(ApplicationProperties.class);
 
+    private final HeaderExtractionService headerService = mock(HeaderExtractionService.class);
+
     private final MessageQueryService queryService = mock(MessageQueryService.class);
 
+    private final RetryHeaders retryHeaders = RetryHeaders.builder().build();
+
     private final ActionService actionService = mock(ActionService.class);
 
     private final MessageRepository repository = mock(MessageRepository.class);
 
     private final MessageDispatchService retryService = mock(MessageDispatchService.class);
 
-    private final MessageConsumer consumer = new KafkaStreamsMessageConsumer(context, retryInfoSerde, props, queryService, actionService,
-            repository, retryService);
+    private final CircuitBreakerService circuitBreakerService = mock(CircuitBreakerService.class);
+
+    private final MessageProducer producer = mock(MessageProducer.class);
+
+    private final MessageConsumer consumer = new KafkaStreamsMessageConsumer(context, retryInfoSerde, props, headerService, queryService,
+            actionService, repository, retryService, circuitBreakerService, producer, new RetryMetrics(new SimpleMeterRegistry()));
+
+    private final StreamsBuilder streamsBuilder = mock(StreamsBuilder.class);
 
     private TopologyTestDriver testDriver;
 
-    private ConsumerRecordFactory<String, JsonNode> messageFactory;
+    private ConsumerRecordFactory<String, byte[]> messageFactory;
 
     @BeforeEach
     void setup() throws Exception {
         StreamsBuilderFactoryBean factoryBean = mock(StreamsBuilderFactoryBean.class);
         given(context.getBean(anyString(), any(Class.class))).willReturn(factoryBean);
-        given(factoryBean.getObject()).willReturn(mock(StreamsBuilder.class));
+        given(factoryBean.getObject()).willReturn(streamsBuilder);
 
         given(props.getRetryInfoStoreName()).willReturn(TestUtil.MESSAGE_STORE_NAME);
+        given(props.getRetryIndexStoreName()).willReturn(TestUtil.INDEX_STORE_NAME);
         given(props.getRetrySchedulerIntervalMs()).willReturn(TestUtil.RETRY_SCHEDULER_INTERVAL_MS);
         Map<Integer, Long> retryDelays = new HashMap<>();
         retryDelays.put(1, TestUtil.FIRST_RETRY_DELAY_MILLIS);
         retryDelays.put(2, TestUtil.SECOND_RETRY_DELAY_MILLIS);
         retryDelays.put(3, TestUtil.THIRD_RETRY_DELAY_MILLIS);
         given(props.getRetryDelaysMs()).willReturn(retryDelays);
-
-        Serde<String> messageKeySerde = Serdes.String();
-        Serde<JsonNode> messageValueSerde = new MessageSerde();
-        StreamsBuilder builder = new StreamsBuilder();
-        KStream<String, JsonNode> kstream = builder.stream(ApplicationProperties.RETRY_CHANNEL, Consumed.with(messageKeySerde, messageValueSerde));
-        builder.addStateStore(Stores.keyValueStoreBuilder(
-                Stores.persistentKeyValueStore(TestUtil.MESSAGE_STORE_NAME), Serdes.String(), new RetryInfoSerde()));
-        consumer.consumeMessage(kstream);
-        Topology topology = builder.build();
-        Properties config = new Properties();
-        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "test");
-        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "test:1234");
-        testDriver = new TopologyTestDriver(topology, config);
-        messageFactory = new ConsumerRecordFactory<>(messageKeySerde.serializer(), messageValueSerde.serializer());
+        given(headerService.getRetryHeaders(any(Headers.class))).willReturn(retryHeaders);
+        given(repository.forProcessor()).willReturn(repository);
+        given(actionService.withRepository(repository)).willReturn(actionService);
+        given(retryService.withRepository(repository)).willReturn(retryService);
+        startTestDriver();
+        clearInvocations(repository, actionService, retryService);
     }
 
     @AfterEach
@@ -107,10 +125,10 @@ class KafkaStreamsMessageConsumerTest {
     @Test
     void dropMessage() throws IllegalRetryStateException {
         Headers headers = createHeaders();
-        given(queryService.isDroppable(headers)).willReturn(true);
-        given(queryService.isPermanentlyFailed(headers)).willReturn(false);
-        given(queryService.isRetriable(headers)).willReturn(false);
-        sendMessage(TestUtil.MESSAGE_ID, new ObjectMapper().createObjectNode(), headers);
+        given(queryService.isDroppable(retryHeaders)).willReturn(true);
+        given(queryService.isPermanentlyFailed(retryHeaders)).willReturn(false);
+        given(queryService.isRetriable(retryHeaders)).willReturn(false);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, headers);
         then(actionService).should().dropMessage(TestUtil.MESSAGE_ID);
         then(actionService).shouldHaveNoMoreInteractions();
     }
@@ -118,43 +136,221 @@ class KafkaStreamsMessageConsumerTest {
     @Test
     void queueMessage() throws IllegalRetryStateException {
         Headers headers = createHeaders();
-        given(queryService.isDroppable(headers)).willReturn(false);
-        given(queryService.isPermanentlyFailed(headers)).willReturn(false);
-        given(queryService.isRetriable(headers)).willReturn(true);
-        sendMessage(TestUtil.MESSAGE_ID, new ObjectMapper().createObjectNode(), headers);
-        then(actionService).should().queueMessageForRetry(eq(TestUtil.MESSAGE_ID), eq(headers), any(JsonNode.class));
+        given(queryService.isDroppable(retryHeaders)).willReturn(false);
+        given(queryService.isPermanentlyFailed(retryHeaders)).willReturn(false);
+        given(queryService.isRetriable(retryHeaders)).willReturn(true);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, headers);
+        then(actionService).should().queueMessageForRetry(eq(TestUtil.MESSAGE_ID), eq(retryHeaders), any(Headers.class),
+                any(byte[].class));
         then(actionService).shouldHaveNoMoreInteractions();
     }
 
     @Test
     void permanentlyFailMessage() throws IllegalRetryStateException, IOException {
         Headers headers = createHeaders();
-        given(queryService.isDroppable(headers)).willReturn(false);
-        given(queryService.isPermanentlyFailed(headers)).willReturn(true);
-        given(queryService.isRetriable(headers)).willReturn(false);
-        JsonNode payload = new ObjectMapper().createObjectNode();
+        given(queryService.isDroppable(retryHeaders)).willReturn(false);
+        given(queryService.isPermanentlyFailed(retryHeaders)).willReturn(true);
+        given(queryService.isRetriable(retryHeaders)).willReturn(false);
+        byte[] payload = TestUtil.PAYLOAD;
         sendMessage(TestUtil.MESSAGE_ID, payload, headers);
-        then(actionService).should().dispatchPermanentlyFailedMessage(TestUtil.MESSAGE_ID, headers, payload);
+        then(actionService).should().dispatchPermanentlyFailedMessage(eq(TestUtil.MESSAGE_ID), eq(retryHeaders),
+                any(Headers.class), eq(payload));
         then(actionService).shouldHaveNoMoreInteractions();
     }
 
     @Test
     void unknownScenario() throws IllegalRetryStateException {
         Headers headers = createHeaders();
-        given(queryService.isDroppable(headers)).willReturn(false);
-        given(queryService.isPermanentlyFailed(headers)).willReturn(false);
-        given(queryService.isRetriable(headers)).willReturn(false);
-        sendMessage(TestUtil.MESSAGE_ID, new ObjectMapper().createObjectNode(), headers);
+        given(queryService.isDroppable(retryHeaders)).willReturn(false);
+        given(queryService.isPermanentlyFailed(retryHeaders)).willReturn(false);
+        given(queryService.isRetriable(retryHeaders)).willReturn(false);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, headers);
         then(actionService).shouldHaveZeroInteractions();
     }
 
+    @Test
+    void inflowRecordedForCircuitBreaker() {
+        given(props.isRetryCircuitBreakerEnabled()).willReturn(true);
+        RetryHeaders returnedRetryHeaders = RetryHeaders.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempts("2".getBytes()).build();
+        given(headerService.getRetryHeaders(any(Headers.class))).willReturn(returnedRetryHeaders);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, createHeaders());
+        then(circuitBreakerService).should().recordInflow(eq(TestUtil.ORIGIN_TOPIC), eq(2), anyLong());
+    }
+
+    @Test
+    void inflowNotRecordedWithoutCircuitBreaker() {
+        RetryHeaders returnedRetryHeaders = RetryHeaders.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempts("2".getBytes()).build();
+        given(headerService.getRetryHeaders(any(Headers.class))).willReturn(returnedRetryHeaders);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, createHeaders());
+        then(circuitBreakerService).shouldHaveZeroInteractions();
+    }
+
+    @Test
+    void malformedRetryAttemptsMessageRouted() throws IllegalRetryStateException {
+        given(props.isRetryCircuitBreakerEnabled()).willReturn(true);
+        RetryHeaders returnedRetryHeaders = RetryHeaders.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempts("two".getBytes()).build();
+        given(headerService.getRetryHeaders(any(Headers.class))).willReturn(returnedRetryHeaders);
+        given(queryService.isDroppable(returnedRetryHeaders)).willReturn(true);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, createHeaders());
+        then(circuitBreakerService).shouldHaveZeroInteractions();
+        then(actionService).should().dropMessage(TestUtil.MESSAGE_ID);
+    }
+
     @Test
     void invokePunctuation() {
         testDriver.advanceWallClockTime(TestUtil.FIRST_RETRY_DELAY_MILLIS);
         then(retryService).should(times(1)).dispatchRetries(anyLong());
     }
 
-    private void sendMessage(String key, JsonNode payload, Headers headers) {
+    @Test
+    void adaptiveSchedulerWaitsForDueMessage() throws Exception {
+        startAdaptiveScheduler();
+        given(repository.getNextDueTimeStamp()).willReturn(Long.MAX_VALUE);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        then(retryService).should(never()).dispatchRetries(anyLong());
+        then(repository).should(times(1)).getNextDueTimeStamp();
+    }
+
+    @Test
+    void adaptiveSchedulerDispatchesDueMessage() throws Exception {
+        startAdaptiveScheduler();
+        given(repository.getNextDueTimeStamp()).willReturn(0L, Long.MAX_VALUE);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        then(retryService).should(times(1)).dispatchRetries(anyLong());
+    }
+
+    @Test
+    void adaptiveSchedulerRereadsDueTimeAfterQueueing() throws Exception {
+        startAdaptiveScheduler();
+        given(repository.getNextDueTimeStamp()).willReturn(Long.MAX_VALUE, 0L, Long.MAX_VALUE);
+        given(queryService.isRetriable(retryHeaders)).willReturn(true);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, createHeaders());
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, createHeaders());
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        then(retryService).should(times(1)).dispatchRetries(anyLong());
+        then(repository).should(times(3)).getNextDueTimeStamp();
+    }
+
+    @Test
+    void adaptiveSchedulerBacksOffFailedDispatch() throws Exception {
+        startAdaptiveScheduler();
+        given(repository.getNextDueTimeStamp()).willReturn(0L);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        then(retryService).should(times(1)).dispatchRetries(anyLong());
+        testDriver.advanceWallClockTime(TestUtil.RETRY_SCHEDULER_INTERVAL_MS);
+        then(retryService).should(times(2)).dispatchRetries(anyLong());
+    }
+
+    @Test
+    void adaptiveSchedulerContinuesDeferredDispatch() throws Exception {
+        startAdaptiveScheduler();
+        given(repository.getNextDueTimeStamp()).willReturn(0L);
+        given(retryService.dispatchRetries(anyLong())).willReturn(true);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        testDriver.advanceWallClockTime(SCHEDULER_GRANULARITY_MS);
+        then(retryService).should(times(2)).dispatchRetries(anyLong());
+    }
+
+    @Test
+    void streamsProducerBoundToEachProcessor() throws Exception {
+        ActionService processorActionService = mock(ActionService.class);
+        MessageDispatchService processorRetryService = mock(MessageDispatchService.class);
+        given(actionService.withProducer(any(MessageProducer.class))).willReturn(processorActionService);
+        given(retryService.withProducer(any(MessageProducer.class))).willReturn(processorRetryService);
+        given(props.getRetryProducerType()).willReturn(ApplicationProperties.ProducerType.STREAMS);
+        testDriver.close();
+        startTestDriver();
+        given(queryService.isPermanentlyFailed(retryHeaders)).willReturn(true);
+        sendMessage(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, createHeaders());
+        testDriver.advanceWallClockTime(TestUtil.FIRST_RETRY_DELAY_MILLIS);
+        ArgumentCaptor<MessageProducer> captor = ArgumentCaptor.forClass(MessageProducer.class);
+        then(actionService).should().withRepository(repository);
+        then(retryService).should().withRepository(repository);
+        then(actionService).should().withProducer(captor.capture());
+        then(retryService).should().withProducer(captor.getValue());
+        assertThat(captor.getValue(), instanceOf(StreamsMessageProducer.class));
+        then(processorActionService).should().dispatchPermanentlyFailedMessage(eq(TestUtil.MESSAGE_ID), eq(retryHeaders),
+                any(Headers.class), eq(TestUtil.PAYLOAD));
+        then(processorRetryService).should().dispatchRetries(anyLong());
+        then(actionService).shouldHaveNoMoreInteractions();
+        then(retryService).shouldHaveNoMoreInteractions();
+    }
+
+    @Test
+    void repositoryBoundToEachProcessor() throws Exception {
+        testDriver.close();
+        startTestDriver();
+        then(repository).should().forProcessor();
+        then(actionService).should().withRepository(repository);
+        then(retryService).should().withRepository(repository);
+        then(repository).should().init(any(), any(), isNull(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void persistentStoresByDefault() {
+        ArgumentCaptor<StoreBuilder<?>> captor = ArgumentCaptor.forClass(StoreBuilder.class);
+        then(streamsBuilder).should(times(2)).addStateStore(captor.capture());
+        captor.getAllValues().forEach(storeBuilder -> assertTrue(storeBuilder.build().persistent()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void inMemoryStoreType() throws Exception {
+        given(props.getRetryStoreType()).willReturn(ApplicationProperties.StoreType.IN_MEMORY);
+        testDriver.close();
+        startTestDriver();
+        ArgumentCaptor<StoreBuilder<?>> captor = ArgumentCaptor.forClass(StoreBuilder.class);
+        then(streamsBuilder).should(times(4)).addStateStore(captor.capture());
+        captor.getAllValues().subList(2, 4).forEach(storeBuilder -> assertFalse(storeBuilder.build().persistent()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void claimCheckStoreAddedWhenEnabled() throws Exception {
+        given(props.getRetryClaimCheckThresholdBytes()).willReturn(1024);
+        given(props.getRetryClaimCheckStoreName()).willReturn(TestUtil.CLAIM_CHECK_STORE_NAME);
+        testDriver.close();
+        startTestDriver();
+        ArgumentCaptor<StoreBuilder<?>> captor = ArgumentCaptor.forClass(StoreBuilder.class);
+        then(streamsBuilder).should(times(5)).addStateStore(captor.capture());
+        assertEquals(TestUtil.CLAIM_CHECK_STORE_NAME, captor.getAllValues().get(4).name());
+        then(repository).should().init(any(), any(), notNull(), any());
+    }
+
+    private void startAdaptiveScheduler() throws Exception {
+        given(props.getRetrySchedulerGranularityMs()).willReturn(SCHEDULER_GRANULARITY_MS);
+        testDriver.close();
+        startTestDriver();
+    }
+
+    private void startTestDriver() throws Exception {
+        Serde<String> messageKeySerde = Serdes.String();
+        Serde<byte[]> messageValueSerde = Serdes.ByteArray();
+        StreamsBuilder builder = new StreamsBuilder();
+        KStream<String, byte[]> kstream = builder.stream(ApplicationProperties.RETRY_CHANNEL, Consumed.with(messageKeySerde, messageValueSerde));
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(TestUtil.MESSAGE_STORE_NAME), Serdes.String(), new RetryInfoSerde()));
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(TestUtil.INDEX_STORE_NAME), Serdes.Bytes(), Serdes.String()));
+        if (props.getRetryClaimCheckThresholdBytes() > 0) {
+            builder.addStateStore(Stores.keyValueStoreBuilder(
+                    Stores.persistentKeyValueStore(TestUtil.CLAIM_CHECK_STORE_NAME), Serdes.String(), Serdes.ByteArray()));
+        }
+        consumer.consumeMessage(kstream);
+        Topology topology = builder.build();
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "test");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "test:1234");
+        testDriver = new TopologyTestDriver(topology, config);
+        messageFactory = new ConsumerRecordFactory<>(messageKeySerde.serializer(), messageValueSerde.serializer());
+    }
+
+    private void sendMessage(String key, byte[] payload, Headers headers) {
         testDriver.pipeInput(messageFactory.create(ApplicationProperties.RETRY_CHANNEL, key, payload, headers));
     }
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.model.AuditEvent;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serde;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditEventBatchSerdeTest {
+
+    private static final long TIMESTAMP_MS = 1596099164000L;
+
+    private static final String AUDIT_TOPIC = "retry-audit";
+
+    private final Serde<List<AuditEvent>> serde = new AuditEventBatchSerde();
+
+    @Test
+    void roundTrip() {
+        List<AuditEvent> events = Arrays.asList(
+                createEvent(AuditEvent.Type.QUEUED, TIMESTAMP_MS, TestUtil.ORIGIN_TOPIC, 1),
+                createEvent(AuditEvent.Type.DISPATCHED, TIMESTAMP_MS + 20000, TestUtil.ORIGIN_TOPIC, 1),
+                createEvent(AuditEvent.Type.DEAD_LETTERED, TIMESTAMP_MS - 5, null, 3),
+                createEvent(AuditEvent.Type.DROPPED, TIMESTAMP_MS, null, 0));
+        byte[] data = serde.serializer().serialize(AUDIT_TOPIC, events);
+        assertEquals(AuditEventBatchSerde.VERSION_1, data[0]);
+        assertEquals(events, serde.deserializer().deserialize(AUDIT_TOPIC, data));
+    }
+
+    @Test
+    void emptyBatch() {
+        byte[] data = serde.serializer().serialize(AUDIT_TOPIC, Collections.emptyList());
+        assertTrue(serde.deserializer().deserialize(AUDIT_TOPIC, data).isEmpty());
+    }
+
+    @Test
+    void eventsAreCompact() {
+        List<AuditEvent> events = Collections.nCopies(100, createEvent(AuditEvent.Type.QUEUED, TIMESTAMP_MS, TestUtil.ORIGIN_TOPIC, 1));
+        byte[] data = serde.serializer().serialize(AUDIT_TOPIC, events);
+        int eventSize = 1 + 1 + 1 + TestUtil.MESSAGE_ID.length() + 1 + TestUtil.ORIGIN_TOPIC.length() + 1;
+        assertTrue(data.length <= 1 + Long.BYTES + 1 + 100 * eventSize);
+    }
+
+    @Test
+    void nullBatch() {
+        assertNull(serde.serializer().serialize(AUDIT_TOPIC, null));
+        assertNull(serde.deserializer().deserialize(AUDIT_TOPIC, null));
+    }
+
+    @Test
+    void unknownVersion() {
+        assertThrows(SerializationException.class, () -> serde.deserializer().deserialize(AUDIT_TOPIC, new byte[] {9}));
+    }
+
+    @Test
+    void truncatedBatch() {
+        byte[] data = serde.serializer().serialize(AUDIT_TOPIC, Collections.singletonList(
+                createEvent(AuditEvent.Type.QUEUED, TIMESTAMP_MS, TestUtil.ORIGIN_TOPIC, 1)));
+        assertThrows(SerializationException.class, () -> serde.deserializer().deserialize(AUDIT_TOPIC,
+                Arrays.copyOf(data, data.length - 3)));
+    }
+
+    private AuditEvent createEvent(AuditEvent.Type type, long timeStamp, String originTopic, int retryAttempt) {
+        return AuditEvent.builder().type(type).timeStamp(timeStamp).messageId(TestUtil.MESSAGE_ID).originTopic(originTopic)
+                .retryAttempt(retryAttempt).build();
+    }
+
+}
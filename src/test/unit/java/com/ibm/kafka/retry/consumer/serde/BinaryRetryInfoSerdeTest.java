@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.model.PayloadReference;
+import com.ibm.kafka.retry.model.RetryInfo;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serde;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryRetryInfoSerdeTest {
+
+    private static final long TIMESTAMP_MS = 159609916400L;
+
+    private static final int RETRY_ATTEMPT = 300;
+
+    private static final byte[] COMPRESSIBLE_PAYLOAD = String.join(",", Collections.nCopies(200, "{\"status\":\"failed\"}"))
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] HEADERS = {11, 't', 'r', 'a', 'c', 'e', 'p', 'a', 'r', 'e', 'n', 't', 3, 'a', 'b'};
+
+    private static final byte[] DICTIONARY = "{\"status\":\"failed\",\"reason\":\"timeout\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final Serde<RetryInfo> serde = new BinaryRetryInfoSerde();
+
+    @Test
+    void roundTrip() {
+        RetryInfo retryInfo = createRetryInfo();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_1, data[0]);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithDueTimeStamp() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .dueTimeStamp(TIMESTAMP_MS + TestUtil.FIRST_RETRY_DELAY_MILLIS).payload(TestUtil.PAYLOAD).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_2, data[0]);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithPayloadReference() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .payloadReference(PayloadReference.builder().segment(3).offset(1024).length(TestUtil.PAYLOAD.length).build()).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_4, data[0]);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithHeaders() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .payload(TestUtil.PAYLOAD).headers(HEADERS).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_5, data[0]);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithHeadersAndPayloadReference() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .payloadReference(PayloadReference.builder().segment(3).offset(1024).length(TestUtil.PAYLOAD.length).build())
+                .headers(HEADERS).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_5, data[0]);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithHeadersAndCompressedPayload() {
+        Serde<RetryInfo> compressing = new BinaryRetryInfoSerde(ApplicationProperties.StoreCompression.LZ4, 0, null);
+        RetryInfo retryInfo = createRetryInfo(COMPRESSIBLE_PAYLOAD).toBuilder().headers(HEADERS).build();
+        byte[] data = compressing.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_5, data[0]);
+        assertTrue(data.length < COMPRESSIBLE_PAYLOAD.length);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithNullFields() {
+        RetryInfo retryInfo = RetryInfo.builder().timeStamp(TIMESTAMP_MS).retryAttempt(RETRY_ATTEMPT).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void smallerThanJson() {
+        RetryInfo retryInfo = createRetryInfo();
+        byte[] binary = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        byte[] json = new RetryInfoSerde().serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertTrue(binary.length < json.length);
+    }
+
+    @Test
+    void jsonRecordRead() {
+        RetryInfo retryInfo = createRetryInfo();
+        byte[] json = new RetryInfoSerde().serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, json));
+    }
+
+    @Test
+    void originTopicInterned() {
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, createRetryInfo());
+        RetryInfo first = serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data);
+        RetryInfo second = serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data);
+        assertSame(first.getOriginTopic(), second.getOriginTopic());
+    }
+
+    @Test
+    void truncatedRecord() {
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, createRetryInfo());
+        byte[] truncated = Arrays.copyOf(data, data.length - 1);
+        assertThrows(SerializationException.class, () -> serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, truncated));
+    }
+
+    @Test
+    void lz4CompressedRoundTrip() {
+        assertCompressedRoundTrip(new BinaryRetryInfoSerde(ApplicationProperties.StoreCompression.LZ4, 0, null));
+    }
+
+    @Test
+    void zstdCompressedRoundTrip() {
+        assertCompressedRoundTrip(new BinaryRetryInfoSerde(ApplicationProperties.StoreCompression.ZSTD, 0, null));
+    }
+
+    @Test
+    void zstdDictionaryCompressedRoundTrip() {
+        assertCompressedRoundTrip(new BinaryRetryInfoSerde(ApplicationProperties.StoreCompression.ZSTD, 0, DICTIONARY));
+    }
+
+    @Test
+    void payloadBelowThresholdNotCompressed() {
+        Serde<RetryInfo> compressing = new BinaryRetryInfoSerde(ApplicationProperties.StoreCompression.LZ4,
+                COMPRESSIBLE_PAYLOAD.length + 1, null);
+        RetryInfo retryInfo = createRetryInfo(COMPRESSIBLE_PAYLOAD);
+        byte[] data = compressing.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_1, data[0]);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void compressedRecordReadWithoutCompressionConfigured() {
+        Serde<RetryInfo> compressing = new BinaryRetryInfoSerde(ApplicationProperties.StoreCompression.ZSTD, 0, null);
+        RetryInfo retryInfo = createRetryInfo(COMPRESSIBLE_PAYLOAD);
+        byte[] data = compressing.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void dictionaryRequiredToRead() {
+        Serde<RetryInfo> compressing = new BinaryRetryInfoSerde(ApplicationProperties.StoreCompression.ZSTD, 0, DICTIONARY);
+        byte[] data = compressing.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, createRetryInfo(COMPRESSIBLE_PAYLOAD));
+        assertThrows(SerializationException.class, () -> serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void nullValue() {
+        assertNull(serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, null));
+        assertNull(serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, null));
+    }
+
+    private void assertCompressedRoundTrip(Serde<RetryInfo> compressing) {
+        RetryInfo retryInfo = createRetryInfo(COMPRESSIBLE_PAYLOAD);
+        byte[] data = compressing.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(BinaryRetryInfoSerde.VERSION_3, data[0]);
+        assertTrue(data.length < COMPRESSIBLE_PAYLOAD.length);
+        assertEquals(retryInfo, compressing.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    private RetryInfo createRetryInfo(byte[] payload) {
+        return RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .dueTimeStamp(TIMESTAMP_MS + TestUtil.FIRST_RETRY_DELAY_MILLIS).payload(payload).build();
+    }
+
+    private RetryInfo createRetryInfo() {
+        return RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .payload(TestUtil.PAYLOAD).build();
+    }
+
+}
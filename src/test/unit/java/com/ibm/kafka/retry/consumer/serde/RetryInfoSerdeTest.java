@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.serde;
+
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.model.PayloadReference;
+import com.ibm.kafka.retry.model.RetryInfo;
+import org.apache.kafka.common.serialization.Serde;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RetryInfoSerdeTest {
+
+    private static final long TIMESTAMP_MS = 159609916400L;
+
+    private static final int RETRY_ATTEMPT = 2;
+
+    private final Serde<RetryInfo> serde = new RetryInfoSerde();
+
+    @Test
+    void roundTrip() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT)
+                .timeStamp(TIMESTAMP_MS).payload(TestUtil.PAYLOAD).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithDueTimeStamp() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT)
+                .timeStamp(TIMESTAMP_MS).dueTimeStamp(TIMESTAMP_MS + TestUtil.SECOND_RETRY_DELAY_MILLIS).payload(TestUtil.PAYLOAD).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithPayloadReference() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .payloadReference(PayloadReference.builder().segment(3).offset(1024).length(TestUtil.PAYLOAD.length).build()).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void roundTripWithHeaders() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
+                .payload(TestUtil.PAYLOAD).headers(new byte[] {1, 'k', 2, 'v'}).build();
+        byte[] data = serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, retryInfo);
+        assertEquals(retryInfo, serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, data));
+    }
+
+    @Test
+    void legacyJsonPayloadRead() {
+        String legacy = "{\"timeStamp\":" + TIMESTAMP_MS + ",\"originTopic\":\"" + TestUtil.ORIGIN_TOPIC
+                + "\",\"retryAttempt\":" + RETRY_ATTEMPT + ",\"payload\":{\"key\":\"value\"}}";
+        RetryInfo retryInfo = serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, legacy.getBytes(StandardCharsets.UTF_8));
+        assertEquals(TIMESTAMP_MS, retryInfo.getTimeStamp());
+        assertEquals(TestUtil.ORIGIN_TOPIC, retryInfo.getOriginTopic());
+        assertEquals(RETRY_ATTEMPT, retryInfo.getRetryAttempt());
+        assertArrayEquals(TestUtil.PAYLOAD, retryInfo.getPayload());
+        assertEquals(0, retryInfo.getDueTimeStamp());
+    }
+
+    @Test
+    void nullValue() {
+        assertNull(serde.serializer().serialize(TestUtil.MESSAGE_STORE_NAME, null));
+        assertNull(serde.deserializer().deserialize(TestUtil.MESSAGE_STORE_NAME, null));
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.consumer.store;
+
+import com.ibm.kafka.retry.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Options;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetryQueueRocksDBConfigSetterTest {
+
+    private final RetryQueueRocksDBConfigSetter configSetter = new RetryQueueRocksDBConfigSetter();
+
+    @Test
+    void tunedSettingsApplied() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(RetryQueueRocksDBConfigSetter.STORE_TYPE_CONFIG, "rocksdb-tuned");
+        configs.put(RetryQueueRocksDBConfigSetter.WRITE_BUFFER_BYTES_CONFIG, "8388608");
+        configs.put(RetryQueueRocksDBConfigSetter.COMPRESSION_CONFIG, "snappy");
+        try (Options options = new Options()) {
+            configSetter.setConfig(TestUtil.MESSAGE_STORE_NAME, options, configs);
+            assertEquals(CompactionStyle.LEVEL, options.compactionStyle());
+            assertEquals(CompressionType.SNAPPY_COMPRESSION, options.compressionType());
+            assertEquals(8388608, options.writeBufferSize());
+        }
+    }
+
+    @Test
+    void tunedSettingsDefaults() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(RetryQueueRocksDBConfigSetter.STORE_TYPE_CONFIG, "ROCKSDB_TUNED");
+        try (Options options = new Options()) {
+            configSetter.setConfig(TestUtil.MESSAGE_STORE_NAME, options, configs);
+            assertEquals(CompressionType.LZ4_COMPRESSION, options.compressionType());
+            assertEquals(RetryQueueRocksDBConfigSetter.DEFAULT_WRITE_BUFFER_BYTES, options.writeBufferSize());
+        }
+    }
+
+    @Test
+    void defaultSettingsUnchanged() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(RetryQueueRocksDBConfigSetter.STORE_TYPE_CONFIG, "rocksdb");
+        try (Options options = new Options(); Options defaults = new Options()) {
+            configSetter.setConfig(TestUtil.MESSAGE_STORE_NAME, options, configs);
+            assertEquals(defaults.compactionStyle(), options.compactionStyle());
+            assertEquals(defaults.compressionType(), options.compressionType());
+            assertEquals(defaults.writeBufferSize(), options.writeBufferSize());
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.logging;
+
+import com.ibm.kafka.retry.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+class SampledLoggerTest {
+
+    private static final String FORMAT = "Queueing message {} for retry attempt {}";
+
+    private final Logger logger = mock(Logger.class);
+
+    @Test
+    void oneLinePerInterval() {
+        given(logger.isInfoEnabled()).willReturn(true);
+        SampledLogger sampledLogger = new SampledLogger(logger, 60000);
+        sampledLogger.info(FORMAT, TestUtil.MESSAGE_ID, 1);
+        sampledLogger.info(FORMAT, TestUtil.MESSAGE_ID, 2);
+        sampledLogger.info(FORMAT, TestUtil.MESSAGE_ID, 3);
+        then(logger).should().info(FORMAT + " ({} similar lines skipped)", TestUtil.MESSAGE_ID, 1, 0L);
+        then(logger).should(never()).info(FORMAT + " ({} similar lines skipped)", TestUtil.MESSAGE_ID, 2, 0L);
+        then(logger).should(never()).info(FORMAT + " ({} similar lines skipped)", TestUtil.MESSAGE_ID, 3, 0L);
+    }
+
+    @Test
+    void everyLineLoggedWithoutInterval() {
+        given(logger.isWarnEnabled()).willReturn(true);
+        SampledLogger sampledLogger = new SampledLogger(logger, 0);
+        sampledLogger.warn(FORMAT, TestUtil.MESSAGE_ID);
+        sampledLogger.warn(FORMAT, TestUtil.MESSAGE_ID);
+        then(logger).should(times(2)).warn(eq(FORMAT + " ({} similar lines skipped)"), eq(TestUtil.MESSAGE_ID), eq(0L));
+    }
+
+    @Test
+    void everyLineLoggedAtDebug() {
+        given(logger.isDebugEnabled()).willReturn(true);
+        SampledLogger sampledLogger = new SampledLogger(logger, 60000);
+        sampledLogger.info(FORMAT, TestUtil.MESSAGE_ID, 1);
+        sampledLogger.info(FORMAT, TestUtil.MESSAGE_ID, 2);
+        then(logger).should(times(2)).debug(eq(FORMAT), eq(TestUtil.MESSAGE_ID), any());
+        then(logger).should(never()).isInfoEnabled();
+    }
+
+    @Test
+    void everyWarningLoggedAtWarnWhenDebug() {
+        given(logger.isDebugEnabled()).willReturn(true);
+        SampledLogger sampledLogger = new SampledLogger(logger, 60000);
+        sampledLogger.warn(FORMAT, TestUtil.MESSAGE_ID);
+        sampledLogger.warn(FORMAT, TestUtil.MESSAGE_ID);
+        then(logger).should(times(2)).warn(FORMAT, TestUtil.MESSAGE_ID);
+        then(logger).should(never()).warn(eq(FORMAT + " ({} similar lines skipped)"), any(), any());
+        then(logger).should(never()).isWarnEnabled();
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.metrics;
+
+import com.ibm.kafka.retry.TestUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RetryMetricsTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final RetryMetrics metrics = new RetryMetrics(registry);
+
+    @Test
+    void messageProcessed() {
+        metrics.messageProcessed("queued", 1000);
+        metrics.messageProcessed("queued", 1000);
+        metrics.messageProcessed("dropped", 1000);
+        assertEquals(2, registry.get(RetryMetrics.MESSAGES_PROCESSED).tag(RetryMetrics.TAG_OUTCOME, "queued").counter().count(), 0);
+        assertEquals(3, registry.get(RetryMetrics.PROCESS_DURATION).timer().count());
+    }
+
+    @Test
+    void messageDispatched() {
+        metrics.messageDispatched(TestUtil.ORIGIN_TOPIC, 2, 150);
+        assertEquals(1, registry.get(RetryMetrics.MESSAGES_DISPATCHED).tags(RetryMetrics.TAG_TOPIC, TestUtil.ORIGIN_TOPIC,
+                RetryMetrics.TAG_ATTEMPT, "2").counter().count(), 0);
+        assertEquals(150, registry.get(RetryMetrics.DISPATCH_LATENESS).timer().totalTime(TimeUnit.MILLISECONDS), 0);
+    }
+
+    @Test
+    void earlyDispatchRecordedAsZeroLateness() {
+        metrics.messageDispatched(TestUtil.ORIGIN_TOPIC, 1, -10);
+        assertEquals(0, registry.get(RetryMetrics.DISPATCH_LATENESS).timer().totalTime(TimeUnit.MILLISECONDS), 0);
+    }
+
+    @Test
+    void metersReusedForSameTags() {
+        metrics.messageDispatched(TestUtil.ORIGIN_TOPIC, 1, 100);
+        metrics.messageDispatched(TestUtil.ORIGIN_TOPIC, 2, 50);
+        metrics.messageDispatched(TestUtil.ORIGIN_TOPIC, 2, 50);
+        assertEquals(2, registry.get(RetryMetrics.MESSAGES_DISPATCHED).tags(RetryMetrics.TAG_TOPIC, TestUtil.ORIGIN_TOPIC,
+                RetryMetrics.TAG_ATTEMPT, "2").counter().count(), 0);
+        Timer lateness = registry.get(RetryMetrics.DISPATCH_LATENESS).tag(RetryMetrics.TAG_TOPIC, TestUtil.ORIGIN_TOPIC).timer();
+        assertEquals(3, lateness.count());
+        assertNull(lateness.getId().getTag(RetryMetrics.TAG_ATTEMPT));
+        assertEquals(1, registry.find(RetryMetrics.DISPATCH_LATENESS).timers().size());
+    }
+
+    @Test
+    void queueDepth() {
+        AtomicLong depth = new AtomicLong(3);
+        metrics.registerQueueDepth(1, depth::get);
+        assertEquals(3, registry.get(RetryMetrics.QUEUE_DEPTH).tag(RetryMetrics.TAG_ATTEMPT, "1").gauge().value(), 0);
+        depth.set(1);
+        assertEquals(1, registry.get(RetryMetrics.QUEUE_DEPTH).tag(RetryMetrics.TAG_ATTEMPT, "1").gauge().value(), 0);
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EncodedHeadersTest {
+
+    private static final String TRACE_HEADER = "traceparent";
+
+    private static final String TENANT_HEADER = "tenant-ü";
+
+    @Test
+    void headersRoundTrip() {
+        Headers headers = new RecordHeaders();
+        headers.add(TRACE_HEADER, "trace".getBytes(StandardCharsets.UTF_8));
+        headers.add(TENANT_HEADER, new byte[0]);
+        headers.add(TRACE_HEADER, null);
+        Headers decoded = new RecordHeaders();
+        EncodedHeaders.decode(EncodedHeaders.encode(headers), decoded);
+        Header[] result = decoded.toArray();
+        assertEquals(3, result.length);
+        assertEquals(TRACE_HEADER, result[0].key());
+        assertArrayEquals("trace".getBytes(StandardCharsets.UTF_8), result[0].value());
+        assertEquals(TENANT_HEADER, result[1].key());
+        assertArrayEquals(new byte[0], result[1].value());
+        assertEquals(TRACE_HEADER, result[2].key());
+        assertNull(result[2].value());
+    }
+
+    @Test
+    void retryHeadersAndContentTypeNotKept() {
+        Headers headers = new RecordHeaders();
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, "1".getBytes(StandardCharsets.UTF_8));
+        headers.add(MessageHeaders.ORIGIN_TOPIC, "orders".getBytes(StandardCharsets.UTF_8));
+        headers.add(org.springframework.messaging.MessageHeaders.CONTENT_TYPE, "application/json".getBytes(StandardCharsets.UTF_8));
+        assertNull(EncodedHeaders.encode(headers));
+        headers.add(TRACE_HEADER, "trace".getBytes(StandardCharsets.UTF_8));
+        Headers decoded = new RecordHeaders();
+        EncodedHeaders.decode(EncodedHeaders.encode(headers), decoded);
+        assertEquals(1, decoded.toArray().length);
+    }
+
+    @Test
+    void binderHeadersNotKept() {
+        Headers headers = new RecordHeaders();
+        headers.add(DefaultKafkaHeaderMapper.JSON_TYPES, "{}".getBytes(StandardCharsets.UTF_8));
+        headers.add(org.springframework.messaging.MessageHeaders.ID, "id".getBytes(StandardCharsets.UTF_8));
+        headers.add(org.springframework.messaging.MessageHeaders.TIMESTAMP, "1".getBytes(StandardCharsets.UTF_8));
+        headers.add(KafkaHeaders.RECEIVED_TOPIC, "retry".getBytes(StandardCharsets.UTF_8));
+        headers.add(BinderHeaders.PARTITION_HEADER, "0".getBytes(StandardCharsets.UTF_8));
+        assertNull(EncodedHeaders.encode(headers));
+    }
+
+    @Test
+    void nullNotDecoded() {
+        Headers decoded = new RecordHeaders();
+        EncodedHeaders.decode(null, decoded);
+        assertEquals(0, decoded.toArray().length);
+    }
+
+    @Test
+    void malformedHeadersRejected() {
+        assertThrows(IllegalArgumentException.class, () -> EncodedHeaders.decode(new byte[] {5, 'a'}, new RecordHeaders()));
+        assertThrows(IllegalArgumentException.class, () -> EncodedHeaders.decode(new byte[] {1, 'a', 4, 'b'}, new RecordHeaders()));
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RetryHeaderCodecTest {
+
+    private static final long TIMESTAMP_MS = 159609916400L;
+
+    @Test
+    void binaryRetryAttemptsRoundTrip() {
+        byte[] value = RetryHeaderCodec.encodeRetryAttempts(300, true);
+        assertArrayEquals(new byte[] {RetryHeaderCodec.VERSION_1, 0, 0, 1, 44}, value);
+        assertEquals(300, RetryHeaderCodec.decodeRetryAttempts(value, true));
+    }
+
+    @Test
+    void binaryTimestampRoundTrip() {
+        byte[] value = RetryHeaderCodec.encodeTimestamp(TIMESTAMP_MS, true);
+        assertEquals(1 + Long.BYTES, value.length);
+        assertEquals(TIMESTAMP_MS, RetryHeaderCodec.decodeTimestamp(value, true));
+    }
+
+    @Test
+    void textValuesReadWithBinaryEnabled() {
+        assertEquals(3, RetryHeaderCodec.decodeRetryAttempts(RetryHeaderCodec.encodeRetryAttempts(3, false), true));
+        assertEquals(TIMESTAMP_MS, RetryHeaderCodec.decodeTimestamp(RetryHeaderCodec.encodeTimestamp(TIMESTAMP_MS, false), true));
+        assertEquals(TIMESTAMP_MS, RetryHeaderCodec.decodeTimestamp(("\"" + TIMESTAMP_MS + "\"").getBytes(StandardCharsets.UTF_8), true));
+        assertEquals(12345, RetryHeaderCodec.decodeRetryAttempts("12345".getBytes(StandardCharsets.UTF_8), true));
+        assertEquals(3, RetryHeaderCodec.decodeRetryAttempts("\"3\"".getBytes(StandardCharsets.UTF_8), true));
+        assertEquals(3, RetryHeaderCodec.decodeRetryAttempts("\"3\"".getBytes(StandardCharsets.UTF_8), false));
+    }
+
+    @Test
+    void missingOrBlankRetryAttemptsAreZero() {
+        assertEquals(0, RetryHeaderCodec.decodeRetryAttempts(null, true));
+        assertEquals(0, RetryHeaderCodec.decodeRetryAttempts(" ".getBytes(StandardCharsets.UTF_8), false));
+    }
+
+    @Test
+    void binaryValuesNotReadWhenDisabled() {
+        assertThrows(NumberFormatException.class,
+                () -> RetryHeaderCodec.decodeRetryAttempts(RetryHeaderCodec.encodeRetryAttempts(3, true), false));
+        assertThrows(NumberFormatException.class,
+                () -> RetryHeaderCodec.decodeTimestamp(RetryHeaderCodec.encodeTimestamp(TIMESTAMP_MS, true), false));
+    }
+
+}
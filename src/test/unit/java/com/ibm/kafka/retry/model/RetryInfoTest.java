@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.model;
+
+import com.ibm.kafka.retry.TestUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetryInfoTest {
+
+    private static final long TIMESTAMP_MS = 1000000;
+
+    private static final Map<Integer, Long> RETRY_DELAYS_MS = Collections.singletonMap(1, TestUtil.FIRST_RETRY_DELAY_MILLIS);
+
+    @Test
+    void storedDueTimeStampUsed() {
+        RetryInfo retryInfo = RetryInfo.builder().timeStamp(TIMESTAMP_MS).dueTimeStamp(TIMESTAMP_MS + 5).retryAttempt(1).build();
+        assertEquals(TIMESTAMP_MS + 5, retryInfo.getDueTimeStamp(RETRY_DELAYS_MS));
+    }
+
+    @Test
+    void dueTimeStampOfEarlierVersionsFromRetryDelay() {
+        RetryInfo retryInfo = RetryInfo.builder().timeStamp(TIMESTAMP_MS).retryAttempt(1).build();
+        assertEquals(TIMESTAMP_MS + TestUtil.FIRST_RETRY_DELAY_MILLIS, retryInfo.getDueTimeStamp(RETRY_DELAYS_MS));
+    }
+
+    @Test
+    void dueTimeStampOfAttemptNotEnabled() {
+        RetryInfo retryInfo = RetryInfo.builder().timeStamp(TIMESTAMP_MS).retryAttempt(2).build();
+        assertEquals(TIMESTAMP_MS, retryInfo.getDueTimeStamp(RETRY_DELAYS_MS));
+    }
+
+}
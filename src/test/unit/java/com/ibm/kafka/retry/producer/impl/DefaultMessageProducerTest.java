@@ -5,30 +5,32 @@
 
 package com.ibm.kafka.retry.producer.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
 import com.ibm.kafka.retry.mock.HeaderMock;
+import com.ibm.kafka.retry.model.EncodedHeaders;
 import com.ibm.kafka.retry.model.MessageHeaders;
 import com.ibm.kafka.retry.producer.MessageProducer;
 import com.ibm.kafka.retry.TestUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.cloud.stream.binding.BinderAwareChannelResolver;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
@@ -45,22 +47,24 @@ class DefaultMessageProducerTest {
 
     private final BinderAwareChannelResolver resolver = mock(BinderAwareChannelResolver.class);
 
-    private final MessageProducer messageProducer = new DefaultMessageProducer(props, resolver);
+    private final MessageProducer messageProducer = new DefaultMessageProducer(props, resolver,
+            new RetryMetrics(new SimpleMeterRegistry()));
 
     @Test
     @SuppressWarnings("unchecked")
     void sendMessageToOriginTopic() throws IOException {
-        int retryCount = 1;
-        Map<String, Object> headers = new HashMap<>();
-        headers.put(MessageHeaders.RETRY_ATTEMPTS, retryCount);
-        JsonNode payload = new ObjectMapper().createObjectNode();
+        Headers headers = new RecordHeaders();
+        headers.add(HEADER_KEY, HEADER_VALUE.getBytes());
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, "1".getBytes());
+        byte[] payload = TestUtil.PAYLOAD;
         MessageChannel channel = mock(MessageChannel.class);
         given(resolver.resolveDestination(TestUtil.ORIGIN_TOPIC)).willReturn(channel);
         messageProducer.sendToOriginTopic(TestUtil.ORIGIN_TOPIC, headers, payload);
-        ArgumentCaptor<Message<JsonNode>> captor = ArgumentCaptor.forClass(Message.class);
+        ArgumentCaptor<Message<byte[]>> captor = ArgumentCaptor.forClass(Message.class);
         then(channel).should().send(captor.capture());
         assertEquals(payload, captor.getValue().getPayload());
-        assertEquals(retryCount, captor.getValue().getHeaders().get(MessageHeaders.RETRY_ATTEMPTS));
+        assertArrayEquals(HEADER_VALUE.getBytes(), (byte[]) captor.getValue().getHeaders().get(HEADER_KEY));
+        assertArrayEquals("1".getBytes(), (byte[]) captor.getValue().getHeaders().get(MessageHeaders.RETRY_ATTEMPTS));
     }
 
     @Test
@@ -72,16 +76,33 @@ class DefaultMessageProducerTest {
         Headers headers = mock(Headers.class);
         doCallRealMethod().when(headers).forEach(any(Consumer.class));
         given(headers.iterator()).willReturn(headersList.iterator());
-        JsonNode payload = new ObjectMapper().createObjectNode();
+        byte[] payload = TestUtil.PAYLOAD;
         MessageChannel channel = mock(MessageChannel.class);
         given(props.getPermanentFailureTopic()).willReturn(TestUtil.PERMANENT_FAILURE_TOPIC);
         given(resolver.resolveDestination(TestUtil.PERMANENT_FAILURE_TOPIC)).willReturn(channel);
         messageProducer.sendToPermanentFailureTopic(headers, payload);
-        ArgumentCaptor<Message<JsonNode>> captor = ArgumentCaptor.forClass(Message.class);
+        ArgumentCaptor<Message<byte[]>> captor = ArgumentCaptor.forClass(Message.class);
         then(channel).should().send(captor.capture());
         assertEquals(payload, captor.getValue().getPayload());
         assertArrayEquals(HEADER_VALUE.getBytes(), (byte[]) captor.getValue().getHeaders().get(HEADER_KEY));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void sendMessageWithStoredHeadersToOriginTopic() throws IOException {
+        Headers received = new RecordHeaders();
+        received.add(HEADER_KEY, HEADER_VALUE.getBytes());
+        received.add(DefaultKafkaHeaderMapper.JSON_TYPES, "{}".getBytes());
+        received.add(org.springframework.messaging.MessageHeaders.ID, "id".getBytes());
+        Headers headers = new RecordHeaders();
+        EncodedHeaders.decode(EncodedHeaders.encode(received), headers);
+        MessageChannel channel = mock(MessageChannel.class);
+        given(resolver.resolveDestination(TestUtil.ORIGIN_TOPIC)).willReturn(channel);
+        messageProducer.sendToOriginTopic(TestUtil.ORIGIN_TOPIC, headers, TestUtil.PAYLOAD);
+        ArgumentCaptor<Message<byte[]>> captor = ArgumentCaptor.forClass(Message.class);
+        then(channel).should().send(captor.capture());
+        assertArrayEquals(HEADER_VALUE.getBytes(), (byte[]) captor.getValue().getHeaders().get(HEADER_KEY));
+        assertFalse(captor.getValue().getHeaders().containsKey(DefaultKafkaHeaderMapper.JSON_TYPES));
+    }
 
 }
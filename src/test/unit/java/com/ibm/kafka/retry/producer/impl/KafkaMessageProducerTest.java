@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.producer.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.mock.HeaderMock;
+import com.ibm.kafka.retry.model.MessageHeaders;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class KafkaMessageProducerTest {
+
+    private static final String HEADER_KEY = "headerKey";
+
+    private static final String HEADER_VALUE = "headerValue";
+
+    private static final String CONTENT_TYPE = "application/json";
+
+    private final ApplicationProperties props = mock(ApplicationProperties.class);
+
+    private final MockProducer<String, byte[]> producer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+
+    private final KafkaMessageProducer messageProducer = new KafkaMessageProducer(props, producer, new RetryMetrics(new SimpleMeterRegistry()));
+
+    @BeforeEach
+    void setup() {
+        given(props.getPayloadContentType()).willReturn(CONTENT_TYPE);
+        given(props.getPermanentFailureTopic()).willReturn(TestUtil.PERMANENT_FAILURE_TOPIC);
+    }
+
+    @Test
+    void sendMessageToOriginTopicAsync() {
+        CompletableFuture<Void> result = messageProducer.sendToOriginTopicAsync(TestUtil.ORIGIN_TOPIC, createRetryHeaders(), TestUtil.PAYLOAD);
+        assertFalse(result.isDone());
+        assertTrue(producer.completeNext());
+        assertTrue(result.isDone());
+        assertFalse(result.isCompletedExceptionally());
+        ProducerRecord<String, byte[]> record = producer.history().get(0);
+        assertEquals(TestUtil.ORIGIN_TOPIC, record.topic());
+        assertArrayEquals(TestUtil.PAYLOAD, record.value());
+        assertArrayEquals(HEADER_VALUE.getBytes(), record.headers().lastHeader(HEADER_KEY).value());
+        assertArrayEquals("1".getBytes(), record.headers().lastHeader(MessageHeaders.RETRY_ATTEMPTS).value());
+        assertArrayEquals(CONTENT_TYPE.getBytes(),
+                record.headers().lastHeader(org.springframework.messaging.MessageHeaders.CONTENT_TYPE).value());
+    }
+
+    @Test
+    void sendMessageToOriginTopicAsyncFailed() {
+        CompletableFuture<Void> result = messageProducer.sendToOriginTopicAsync(TestUtil.ORIGIN_TOPIC, createRetryHeaders(), TestUtil.PAYLOAD);
+        assertTrue(producer.errorNext(new RuntimeException()));
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+    @Test
+    void sendMessageToPermanentFailureTopic() throws IOException {
+        MockProducer<String, byte[]> syncProducer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        Headers headers = new RecordHeaders();
+        headers.add(new HeaderMock(HEADER_KEY, HEADER_VALUE));
+        new KafkaMessageProducer(props, syncProducer, new RetryMetrics(new SimpleMeterRegistry())).sendToPermanentFailureTopic(headers, TestUtil.PAYLOAD);
+        ProducerRecord<String, byte[]> record = syncProducer.history().get(0);
+        assertEquals(TestUtil.PERMANENT_FAILURE_TOPIC, record.topic());
+        assertArrayEquals(TestUtil.PAYLOAD, record.value());
+        assertArrayEquals(HEADER_VALUE.getBytes(), record.headers().lastHeader(HEADER_KEY).value());
+        assertEquals(1, headers.toArray().length);
+    }
+
+    private Headers createRetryHeaders() {
+        Headers headers = new RecordHeaders();
+        headers.add(HEADER_KEY, HEADER_VALUE.getBytes());
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, "1".getBytes());
+        return headers;
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.producer.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.consumer.serde.PayloadSerde;
+import com.ibm.kafka.retry.mock.HeaderMock;
+import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.RetryInfo;
+import com.ibm.kafka.retry.producer.MessageProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.test.ConsumerRecordFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class StreamsMessageProducerTest {
+
+    private static final String HEADER_KEY = "headerKey";
+
+    private static final String HEADER_VALUE = "headerValue";
+
+    private static final String CONTENT_TYPE = "application/json";
+
+    private static final long PUNCTUATION_INTERVAL_MS = 1000;
+
+    private final ApplicationProperties props = mock(ApplicationProperties.class);
+
+    private final MessageProducer producer = new StreamsMessageProducer(props);
+
+    private TopologyTestDriver testDriver;
+
+    private Header[] headersAfterSend;
+
+    @BeforeEach
+    void setup() {
+        given(props.getPayloadContentType()).willReturn(CONTENT_TYPE);
+        given(props.getPermanentFailureTopic()).willReturn(TestUtil.PERMANENT_FAILURE_TOPIC);
+
+        StreamsBuilder builder = new StreamsBuilder();
+        builder.stream(ApplicationProperties.RETRY_CHANNEL, Consumed.with(Serdes.String(), Serdes.ByteArray()))
+                .transform(SendingTransformer::new)
+                .transform(ReadOnlyHeadersTransformer::new)
+                .to((key, retryInfo, recordContext) -> retryInfo.getOriginTopic(), Produced.with(Serdes.String(), new PayloadSerde()));
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "test");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "test:1234");
+        testDriver = new TopologyTestDriver(builder.build(), config);
+    }
+
+    @AfterEach
+    void shutdown() {
+        testDriver.close();
+    }
+
+    @Test
+    void sendMessagesToOriginTopicOnPunctuation() {
+        testDriver.advanceWallClockTime(PUNCTUATION_INTERVAL_MS);
+        ProducerRecord<String, byte[]> first = readOutput(TestUtil.ORIGIN_TOPIC);
+        ProducerRecord<String, byte[]> second = readOutput(TestUtil.ORIGIN_TOPIC);
+        assertArrayEquals(TestUtil.PAYLOAD, first.value());
+        assertArrayEquals("1".getBytes(), first.headers().lastHeader(MessageHeaders.RETRY_ATTEMPTS).value());
+        assertArrayEquals("2".getBytes(), second.headers().lastHeader(MessageHeaders.RETRY_ATTEMPTS).value());
+        assertEquals(2, second.headers().toArray().length);
+        assertNull(readOutput(TestUtil.ORIGIN_TOPIC));
+    }
+
+    @Test
+    void sendMessageToPermanentFailureTopic() {
+        Headers headers = new RecordHeaders();
+        headers.add(new HeaderMock(HEADER_KEY, HEADER_VALUE));
+        testDriver.pipeInput(new ConsumerRecordFactory<>(Serdes.String().serializer(), Serdes.ByteArray().serializer())
+                .create(ApplicationProperties.RETRY_CHANNEL, TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, headers));
+        ProducerRecord<String, byte[]> record = readOutput(TestUtil.PERMANENT_FAILURE_TOPIC);
+        assertArrayEquals(TestUtil.PAYLOAD, record.value());
+        assertArrayEquals(HEADER_VALUE.getBytes(), record.headers().lastHeader(HEADER_KEY).value());
+        assertArrayEquals(CONTENT_TYPE.getBytes(),
+                record.headers().lastHeader(org.springframework.messaging.MessageHeaders.CONTENT_TYPE).value());
+    }
+
+    @Test
+    void contextHeadersRestoredAfterSend() {
+        Headers headers = new RecordHeaders();
+        headers.add(new HeaderMock(HEADER_KEY, HEADER_VALUE));
+        testDriver.pipeInput(new ConsumerRecordFactory<>(Serdes.String().serializer(), Serdes.ByteArray().serializer())
+                .create(ApplicationProperties.RETRY_CHANNEL, TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, headers));
+        assertEquals(1, headersAfterSend.length);
+        assertEquals(HEADER_KEY, headersAfterSend[0].key());
+    }
+
+    @Test
+    void sendAfterHeadersMarkedReadOnly() {
+        testDriver.advanceWallClockTime(PUNCTUATION_INTERVAL_MS);
+        testDriver.advanceWallClockTime(PUNCTUATION_INTERVAL_MS);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(TestUtil.PAYLOAD, readOutput(TestUtil.ORIGIN_TOPIC).value());
+        }
+        Headers headers = new RecordHeaders();
+        headers.add(new HeaderMock(HEADER_KEY, HEADER_VALUE));
+        testDriver.pipeInput(new ConsumerRecordFactory<>(Serdes.String().serializer(), Serdes.ByteArray().serializer())
+                .create(ApplicationProperties.RETRY_CHANNEL, TestUtil.MESSAGE_ID, TestUtil.PAYLOAD, headers));
+        assertArrayEquals(TestUtil.PAYLOAD, readOutput(TestUtil.PERMANENT_FAILURE_TOPIC).value());
+    }
+
+    @Test
+    void sendWithoutContext() {
+        MessageProducer uninitialized = new StreamsMessageProducer(props);
+        assertThrows(IOException.class, () -> uninitialized.sendToOriginTopic(TestUtil.ORIGIN_TOPIC, new RecordHeaders(),
+                TestUtil.PAYLOAD));
+    }
+
+    private ProducerRecord<String, byte[]> readOutput(String topic) {
+        return testDriver.readOutput(topic, Serdes.String().deserializer(), Serdes.ByteArray().deserializer());
+    }
+
+    /**
+     * Marks the headers of each forwarded record read-only, as the Kafka producer does when the sink sends the record.
+     */
+    private static class ReadOnlyHeadersTransformer implements Transformer<String, RetryInfo, KeyValue<String, RetryInfo>> {
+
+        private ProcessorContext context;
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public KeyValue<String, RetryInfo> transform(String key, RetryInfo value) {
+            ((RecordHeaders) context.headers()).setReadOnly();
+            return new KeyValue<>(key, value);
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+    }
+
+    /**
+     * Sends two retries on each punctuation and sends each consumed message to the permanent failure topic.
+     */
+    private class SendingTransformer implements Transformer<String, byte[], KeyValue<String, RetryInfo>> {
+
+        private ProcessorContext context;
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.context = context;
+            producer.init(context);
+            context.schedule(PUNCTUATION_INTERVAL_MS, PunctuationType.WALL_CLOCK_TIME, timestamp -> {
+                send(1);
+                send(2);
+            });
+        }
+
+        @Override
+        public KeyValue<String, RetryInfo> transform(String key, byte[] value) {
+            try {
+                producer.sendToPermanentFailureTopic(context.headers(), value);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            headersAfterSend = context.headers().toArray();
+            return null;
+        }
+
+        @Override
+        public void close() {
+            // Not needed
+        }
+
+        private void send(int retryAttempt) {
+            try {
+                Headers headers = new RecordHeaders();
+                headers.add(MessageHeaders.RETRY_ATTEMPTS, String.valueOf(retryAttempt).getBytes());
+                producer.sendToOriginTopic(TestUtil.ORIGIN_TOPIC, headers, TestUtil.PAYLOAD);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+    }
+
+}
@@ -5,40 +5,83 @@
 
 package com.ibm.kafka.retry.repository.impl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.PayloadReference;
 import com.ibm.kafka.retry.model.RetryInfo;
 import com.ibm.kafka.retry.repository.MessageRepository;
+import com.ibm.kafka.retry.repository.RetryQueueIterator;
 import com.ibm.kafka.retry.TestUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.state.KeyValueIterator;
 import org.apache.kafka.streams.state.KeyValueStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 
 @SuppressWarnings("unchecked")
 class KafkaStreamsMessageRepositoryTest {
 
     private static final long TIMESTAMP_MS = 159609916400L;
 
+    private static final long DUE_TIMESTAMP_MS = TIMESTAMP_MS + TestUtil.FIRST_RETRY_DELAY_MILLIS;
+
     private static final int RETRY_ATTEMPT = 1;
 
+    private final ApplicationProperties props = mock(ApplicationProperties.class);
+
     private final KeyValueStore<String, RetryInfo> messageStore = mock(KeyValueStore.class);
 
-    private final MessageRepository repository = new KafkaStreamsMessageRepository();
+    private final KeyValueStore<Bytes, String> indexStore = mock(KeyValueStore.class);
+
+    private final KeyValueStore<String, byte[]> claimCheckStore = mock(KeyValueStore.class);
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private MessageRepository repository;
 
     @BeforeEach
     void setup() {
-        repository.init(messageStore);
+        Map<Integer, Long> retryDelays = new HashMap<>();
+        retryDelays.put(1, TestUtil.FIRST_RETRY_DELAY_MILLIS);
+        given(props.getRetryDelaysMs()).willReturn(retryDelays);
+        given(messageStore.all()).willReturn(mock(KeyValueIterator.class));
+        given(messageStore.isOpen()).willReturn(true);
+        repository = new KafkaStreamsMessageRepository(props, new RetryMetrics(registry));
+        repository.init(messageStore, indexStore, null, null);
+        clearInvocations(messageStore, indexStore);
     }
 
     @Test
@@ -46,27 +89,129 @@ class KafkaStreamsMessageRepositoryTest {
         RetryInfo retryInfo = createRetryInfo();
         repository.addToRetryQueue(TestUtil.MESSAGE_ID, retryInfo);
         then(messageStore).should().put(TestUtil.MESSAGE_ID, retryInfo);
+        then(indexStore).should().put(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID);
+    }
+
+    @Test
+    void storedDueTimeStampIndexed() {
+        RetryInfo retryInfo = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT)
+                .timeStamp(TIMESTAMP_MS).dueTimeStamp(DUE_TIMESTAMP_MS + 1).payload(TestUtil.PAYLOAD).build();
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, retryInfo);
+        then(indexStore).should().put(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS + 1, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID);
+    }
+
+    @Test
+    void storesNotFlushedByDefault() {
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, createRetryInfo());
+        repository.removeFromRetryQueue(TestUtil.MESSAGE_ID);
+        then(messageStore).should(never()).flush();
+        then(indexStore).should(never()).flush();
+    }
+
+    @Test
+    void storesFlushedAfterMaxWrites() {
+        given(props.getRetryStoreFlushMaxWrites()).willReturn(2);
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, createRetryInfo());
+        then(messageStore).should(never()).flush();
+        repository.removeFromRetryQueue(TestUtil.MESSAGE_ID);
+        then(messageStore).should().flush();
+        then(indexStore).should().flush();
+    }
+
+    @Test
+    void requeuedMessageReplacesIndexEntry() {
+        RetryInfo previous = RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT)
+                .timeStamp(TIMESTAMP_MS - 1).build();
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(previous);
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, createRetryInfo());
+        then(indexStore).should().delete(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS - 1, TestUtil.MESSAGE_ID));
+        then(indexStore).should().put(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID);
     }
 
     @Test
     void messageNotQueuedWhenNotInitialized() {
         RetryInfo retryInfo = createRetryInfo();
-        repository.init(null);
+        repository.init(null, null, null, null);
         repository.addToRetryQueue(TestUtil.MESSAGE_ID, retryInfo);
         then(messageStore).shouldHaveZeroInteractions();
+        then(indexStore).shouldHaveZeroInteractions();
     }
 
     @Test
     void messageRemovedFromQueue() {
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(createRetryInfo());
+        repository.removeFromRetryQueue(TestUtil.MESSAGE_ID);
+        then(messageStore).should().delete(TestUtil.MESSAGE_ID);
+        then(indexStore).should().delete(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID));
+    }
+
+    @Test
+    void messageDeferredInIndexOnly() {
+        Bytes key = DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID);
+        mockIndexRange(DUE_TIMESTAMP_MS, new KeyValue<>(key, TestUtil.MESSAGE_ID));
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(createRetryInfo());
+        try (RetryQueueIterator messages = repository.getDueMessages(DUE_TIMESTAMP_MS)) {
+            messages.next();
+            messages.defer(DUE_TIMESTAMP_MS + 500);
+            then(indexStore).should(never()).delete(key);
+        }
+        then(indexStore).should().delete(key);
+        then(indexStore).should().put(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS + 500, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID);
+        then(indexStore).should().put(DueTimeIndexKey.toDeferralKey(TestUtil.MESSAGE_ID), Long.toString(DUE_TIMESTAMP_MS + 500));
+        then(messageStore).should(never()).put(anyString(), any(RetryInfo.class));
+    }
+
+    @Test
+    void deferredMessageRemovedFromQueue() {
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(createRetryInfo());
+        given(indexStore.get(DueTimeIndexKey.toDeferralKey(TestUtil.MESSAGE_ID))).willReturn(Long.toString(DUE_TIMESTAMP_MS + 500));
         repository.removeFromRetryQueue(TestUtil.MESSAGE_ID);
+        then(indexStore).should().delete(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS + 500, TestUtil.MESSAGE_ID));
+        then(indexStore).should().delete(DueTimeIndexKey.toDeferralKey(TestUtil.MESSAGE_ID));
+        then(indexStore).should(never()).delete(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID));
+    }
+
+    @Test
+    void deferredMessageRemovedThroughIterator() {
+        Bytes key = DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS + 500, TestUtil.MESSAGE_ID);
+        mockIndexRange(DUE_TIMESTAMP_MS + 500, new KeyValue<>(key, TestUtil.MESSAGE_ID));
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(createRetryInfo());
+        try (RetryQueueIterator messages = repository.getDueMessages(DUE_TIMESTAMP_MS + 500)) {
+            messages.next();
+            messages.remove();
+        }
+        then(indexStore).should().delete(key);
+        then(indexStore).should().delete(DueTimeIndexKey.toDeferralKey(TestUtil.MESSAGE_ID));
+    }
+
+    @Test
+    void pendingRemovalAppliedOnStreamThread() {
+        RetryInfo retryInfo = createRetryInfo();
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(retryInfo);
+        repository.getPendingRemover().accept(TestUtil.MESSAGE_ID, retryInfo);
+        then(messageStore).should(never()).delete(TestUtil.MESSAGE_ID);
+        assertEquals(Collections.singletonList(TestUtil.MESSAGE_ID), repository.applyPendingRemovals());
         then(messageStore).should().delete(TestUtil.MESSAGE_ID);
+        then(indexStore).should().delete(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID));
+        assertTrue(repository.applyPendingRemovals().isEmpty());
+    }
+
+    @Test
+    void pendingRemovalSkipsRequeuedMessage() {
+        RetryInfo retryInfo = createRetryInfo();
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(retryInfo.toBuilder().retryAttempt(RETRY_ATTEMPT + 1).build());
+        repository.getPendingRemover().accept(TestUtil.MESSAGE_ID, retryInfo);
+        assertEquals(Collections.singletonList(TestUtil.MESSAGE_ID), repository.applyPendingRemovals());
+        then(messageStore).should(never()).delete(TestUtil.MESSAGE_ID);
+        then(indexStore).should(never()).delete(any(Bytes.class));
     }
 
     @Test
     void messageNotRemovedFromQueueWhenNotInitialized() {
-        repository.init(null);
+        repository.init(null, null, null, null);
         repository.removeFromRetryQueue(TestUtil.MESSAGE_ID);
         then(messageStore).shouldHaveZeroInteractions();
+        then(indexStore).shouldHaveZeroInteractions();
     }
 
     @Test
@@ -98,14 +243,338 @@ class KafkaStreamsMessageRepositoryTest {
 
     @Test
     void queuedMessagesNotRetrievedWhenNotInitialized() {
-        repository.init(null);
+        repository.init(null, null, null, null);
         repository.getQueuedMessages(RETRY_ATTEMPT);
         then(messageStore).shouldHaveZeroInteractions();
     }
 
+    @Test
+    void dueMessagesRetrievedFromIndex() {
+        RetryInfo retryInfo = createRetryInfo();
+        mockIndexRange(DUE_TIMESTAMP_MS, new KeyValue<>(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID));
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(retryInfo);
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS)) {
+            assertTrue(messages.hasNext());
+            KeyValue<String, RetryInfo> message = messages.next();
+            assertEquals(TestUtil.MESSAGE_ID, message.key);
+            assertEquals(retryInfo, message.value);
+            assertFalse(messages.hasNext());
+        }
+        then(messageStore).should(never()).all();
+    }
+
+    @Test
+    void dueMessageRemovedThroughIterator() {
+        Bytes key = DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID);
+        mockIndexRange(DUE_TIMESTAMP_MS, new KeyValue<>(key, TestUtil.MESSAGE_ID));
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(createRetryInfo());
+        KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS);
+        messages.next();
+        messages.remove();
+        then(messageStore).should().delete(TestUtil.MESSAGE_ID);
+        then(indexStore).should(never()).delete(key);
+        messages.close();
+        then(indexStore).should().delete(key);
+    }
+
+    @Test
+    void notDueMessagesSkipped() {
+        mockIndexRange(DUE_TIMESTAMP_MS - 1, new KeyValue<>(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID));
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS - 1)) {
+            assertFalse(messages.hasNext());
+        }
+        then(messageStore).should(never()).get(TestUtil.MESSAGE_ID);
+    }
+
+    @Test
+    void staleIndexEntryRemoved() {
+        Bytes key = DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID);
+        mockIndexRange(DUE_TIMESTAMP_MS, new KeyValue<>(key, TestUtil.MESSAGE_ID));
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS)) {
+            assertFalse(messages.hasNext());
+        }
+        then(indexStore).should().delete(key);
+    }
+
+    @Test
+    void timingWheelLooksUpOnlyMessagesDispatched() {
+        initTimingWheel(TimingWheelIterator.BATCH_SIZE * 3);
+        long timeStamp = System.currentTimeMillis();
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(timeStamp)) {
+            for (int i = 0; i < 3; i++) {
+                messages.next();
+                messages.remove();
+            }
+        }
+        then(messageStore).should(times(3)).get(anyString());
+        assertEquals(TimingWheelIterator.BATCH_SIZE * 3 - 3, countDueMessages(timeStamp));
+    }
+
+    @Test
+    void timingWheelReturnsMessagesNotRemoved() {
+        initTimingWheel(2);
+        long timeStamp = System.currentTimeMillis();
+        String removedId;
+        String keptId;
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(timeStamp)) {
+            removedId = messages.next().key;
+            messages.remove();
+            keptId = messages.next().key;
+        }
+        then(indexStore).should().delete(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, removedId));
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(timeStamp)) {
+            assertEquals(keptId, messages.next().key);
+            assertFalse(messages.hasNext());
+        }
+    }
+
+    @Test
+    void timingWheelSkipsRequeuedMessage() {
+        initTimingWheel(1);
+        given(messageStore.get(TestUtil.MESSAGE_ID + 0)).willReturn(createRetryInfo().toBuilder().dueTimeStamp(DUE_TIMESTAMP_MS + 1).build());
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(System.currentTimeMillis())) {
+            assertFalse(messages.hasNext());
+        }
+        then(indexStore).should(never()).delete(any(Bytes.class));
+    }
+
+    @Test
+    void timingWheelReturnsDeferredMessageWhenDue() {
+        initTimingWheel(1);
+        String messageId = TestUtil.MESSAGE_ID + 0;
+        long timeStamp = System.currentTimeMillis();
+        long deferredTimeStamp = timeStamp + 1000;
+        try (RetryQueueIterator messages = repository.getDueMessages(timeStamp)) {
+            messages.next();
+            messages.defer(deferredTimeStamp);
+        }
+        then(indexStore).should().delete(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, messageId));
+        then(indexStore).should().put(DueTimeIndexKey.toKey(deferredTimeStamp, messageId), messageId);
+        then(messageStore).should(never()).put(anyString(), any(RetryInfo.class));
+        assertEquals(0, countDueMessages(timeStamp));
+        given(indexStore.get(DueTimeIndexKey.toDeferralKey(messageId))).willReturn(Long.toString(deferredTimeStamp));
+        assertEquals(1, countDueMessages(deferredTimeStamp));
+    }
+
+    @Test
+    void dueMessagesNotRetrievedWhenNotInitialized() {
+        repository.init(null, null, null, null);
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS)) {
+            assertFalse(messages.hasNext());
+        }
+        then(indexStore).shouldHaveZeroInteractions();
+    }
+
+    @Test
+    void indexRebuiltWhenEmpty() {
+        RetryInfo retryInfo = createRetryInfo();
+        KeyValueIterator<Bytes, String> indexIterator = mock(KeyValueIterator.class);
+        given(indexIterator.hasNext()).willReturn(false);
+        given(indexStore.all()).willReturn(indexIterator);
+        KeyValueIterator<String, RetryInfo> messageIterator = mock(KeyValueIterator.class);
+        given(messageIterator.hasNext()).willReturn(true, false);
+        given(messageIterator.next()).willReturn(new KeyValue<>(TestUtil.MESSAGE_ID, retryInfo));
+        given(messageStore.all()).willReturn(messageIterator);
+        repository.rebuildIndex();
+        then(indexStore).should().put(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID);
+    }
+
+    @Test
+    void indexNotRebuiltWhenPopulated() {
+        KeyValueIterator<Bytes, String> indexIterator = mock(KeyValueIterator.class);
+        given(indexIterator.hasNext()).willReturn(true);
+        given(indexStore.all()).willReturn(indexIterator);
+        repository.rebuildIndex();
+        then(messageStore).shouldHaveZeroInteractions();
+    }
+
+    @Test
+    void nextDueTimeStampReadFromIndex() {
+        KeyValueIterator<Bytes, String> iterator = mock(KeyValueIterator.class);
+        given(iterator.hasNext()).willReturn(true);
+        given(iterator.peekNextKey()).willReturn(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID));
+        given(indexStore.all()).willReturn(iterator);
+        assertEquals(DUE_TIMESTAMP_MS, repository.getNextDueTimeStamp());
+        then(iterator).should().close();
+        then(messageStore).shouldHaveZeroInteractions();
+    }
+
+    @Test
+    void nextDueTimeStampWhenQueueEmpty() {
+        given(indexStore.all()).willReturn(mock(KeyValueIterator.class));
+        assertEquals(Long.MAX_VALUE, repository.getNextDueTimeStamp());
+    }
+
+    @Test
+    void queueDepthTracked() {
+        RetryInfo retryInfo = createRetryInfo();
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, retryInfo);
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID + "2", retryInfo);
+        assertEquals(2, getQueueDepth());
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(retryInfo);
+        repository.removeFromRetryQueue(TestUtil.MESSAGE_ID);
+        assertEquals(1, getQueueDepth());
+    }
+
+    @Test
+    void queueDepthCountedForNewStore() {
+        KeyValueStore<String, RetryInfo> otherStore = mock(KeyValueStore.class);
+        KeyValueIterator<String, RetryInfo> iterator = mock(KeyValueIterator.class);
+        doCallRealMethod().when(iterator).forEachRemaining(any(Consumer.class));
+        given(iterator.hasNext()).willReturn(true, false);
+        given(iterator.next()).willReturn(new KeyValue<>(TestUtil.MESSAGE_ID, createRetryInfo()));
+        given(otherStore.all()).willReturn(iterator);
+        given(otherStore.isOpen()).willReturn(true);
+        repository.init(otherStore, indexStore, null, null);
+        assertEquals(1, getQueueDepth());
+        given(otherStore.isOpen()).willReturn(false);
+        assertEquals(0, getQueueDepth());
+    }
+
+    @Test
+    void processorRepositoriesKeepTheirOwnStores() {
+        KeyValueStore<String, RetryInfo> otherStore = mock(KeyValueStore.class);
+        KeyValueStore<Bytes, String> otherIndexStore = mock(KeyValueStore.class);
+        given(otherStore.all()).willReturn(mock(KeyValueIterator.class));
+        given(otherStore.isOpen()).willReturn(true);
+        MessageRepository processorRepository = repository.forProcessor();
+        MessageRepository otherProcessorRepository = repository.forProcessor();
+        processorRepository.init(messageStore, indexStore, null, null);
+        otherProcessorRepository.init(otherStore, otherIndexStore, null, null);
+        RetryInfo retryInfo = createRetryInfo();
+        processorRepository.addToRetryQueue(TestUtil.MESSAGE_ID, retryInfo);
+        otherProcessorRepository.addToRetryQueue(TestUtil.MESSAGE_ID + "2", retryInfo);
+        then(messageStore).should().put(TestUtil.MESSAGE_ID, retryInfo);
+        then(otherStore).should().put(TestUtil.MESSAGE_ID + "2", retryInfo);
+        then(messageStore).should(never()).put(eq(TestUtil.MESSAGE_ID + "2"), any(RetryInfo.class));
+        then(otherStore).should(never()).put(eq(TestUtil.MESSAGE_ID), any(RetryInfo.class));
+        assertEquals(2, getQueueDepth());
+    }
+
+    @Test
+    void largePayloadStoredByReference(@TempDir File stateDir) {
+        RetryInfo stored = queueWithClaimCheck(stateDir);
+        assertNull(stored.getPayload());
+        assertNotNull(stored.getPayloadReference());
+        assertEquals(1, new File(stateDir, KafkaStreamsMessageRepository.PAYLOAD_DIRECTORY).list().length);
+        then(claimCheckStore).should().put(TestUtil.MESSAGE_ID, TestUtil.PAYLOAD);
+    }
+
+    @Test
+    void largePayloadKeptInStoreWithoutClaimCheckStore(@TempDir File stateDir) {
+        given(props.getRetryClaimCheckThresholdBytes()).willReturn(TestUtil.PAYLOAD.length);
+        repository = new KafkaStreamsMessageRepository(props, new RetryMetrics(registry));
+        repository.init(messageStore, indexStore, null, stateDir);
+        RetryInfo retryInfo = createRetryInfo();
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, retryInfo);
+        then(messageStore).should().put(TestUtil.MESSAGE_ID, retryInfo);
+    }
+
+    @Test
+    void smallPayloadKeptInStore(@TempDir File stateDir) {
+        given(props.getRetryClaimCheckThresholdBytes()).willReturn(TestUtil.PAYLOAD.length + 1);
+        repository = new KafkaStreamsMessageRepository(props, new RetryMetrics(registry));
+        repository.init(messageStore, indexStore, null, stateDir);
+        RetryInfo retryInfo = createRetryInfo();
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, retryInfo);
+        then(messageStore).should().put(TestUtil.MESSAGE_ID, retryInfo);
+    }
+
+    @Test
+    void dueMessagePayloadReadBack(@TempDir File stateDir) {
+        RetryInfo stored = queueWithClaimCheck(stateDir);
+        mockIndexRange(DUE_TIMESTAMP_MS, new KeyValue<>(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID));
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(stored);
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS)) {
+            assertArrayEquals(TestUtil.PAYLOAD, messages.next().value.getPayload());
+            messages.remove();
+        }
+        then(messageStore).should().delete(TestUtil.MESSAGE_ID);
+        then(claimCheckStore).should().delete(TestUtil.MESSAGE_ID);
+    }
+
+    @Test
+    void payloadOfMovedTaskReadFromClaimCheckStore(@TempDir File stateDir) {
+        queueWithClaimCheck(stateDir);
+        RetryInfo moved = createRetryInfo().toBuilder().payload(null)
+                .payloadReference(PayloadReference.builder().segment(100).length(TestUtil.PAYLOAD.length).build()).build();
+        mockIndexRange(DUE_TIMESTAMP_MS, new KeyValue<>(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID));
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(moved);
+        given(claimCheckStore.get(TestUtil.MESSAGE_ID)).willReturn(TestUtil.PAYLOAD);
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS)) {
+            assertArrayEquals(TestUtil.PAYLOAD, messages.next().value.getPayload());
+        }
+    }
+
+    @Test
+    void messageWithLostPayloadReturnedWithoutPayload(@TempDir File stateDir) {
+        queueWithClaimCheck(stateDir);
+        RetryInfo lost = createRetryInfo().toBuilder().payload(null)
+                .payloadReference(PayloadReference.builder().segment(100).length(TestUtil.PAYLOAD.length).build()).build();
+        mockIndexRange(DUE_TIMESTAMP_MS, new KeyValue<>(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID), TestUtil.MESSAGE_ID));
+        given(messageStore.get(TestUtil.MESSAGE_ID)).willReturn(lost);
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(DUE_TIMESTAMP_MS)) {
+            assertEquals(lost, messages.next().value);
+            assertFalse(messages.hasNext());
+        }
+        then(messageStore).should(never()).delete(TestUtil.MESSAGE_ID);
+    }
+
+    private RetryInfo queueWithClaimCheck(File stateDir) {
+        given(props.getRetryClaimCheckThresholdBytes()).willReturn(TestUtil.PAYLOAD.length);
+        given(props.getRetryClaimCheckSegmentBytes()).willReturn(1024);
+        repository = new KafkaStreamsMessageRepository(props, new RetryMetrics(registry));
+        repository.init(messageStore, indexStore, claimCheckStore, stateDir);
+        repository.addToRetryQueue(TestUtil.MESSAGE_ID, createRetryInfo());
+        ArgumentCaptor<RetryInfo> stored = ArgumentCaptor.forClass(RetryInfo.class);
+        then(messageStore).should().put(eq(TestUtil.MESSAGE_ID), stored.capture());
+        return stored.getValue();
+    }
+
+    private double getQueueDepth() {
+        return registry.get("kafka.retry.queue.depth").tag("attempt", String.valueOf(RETRY_ATTEMPT)).gauge().value();
+    }
+
+    /**
+     * Queue messages due in the past, so they are in the current slot of the wheel.
+     */
+    private void initTimingWheel(int count) {
+        given(props.isRetryTimingWheelEnabled()).willReturn(true);
+        given(props.getRetrySchedulerGranularityMs()).willReturn(100L);
+        List<KeyValue<Bytes, String>> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new KeyValue<>(DueTimeIndexKey.toKey(DUE_TIMESTAMP_MS, TestUtil.MESSAGE_ID + i), TestUtil.MESSAGE_ID + i));
+            given(messageStore.get(TestUtil.MESSAGE_ID + i)).willReturn(createRetryInfo());
+        }
+        KeyValueIterator<Bytes, String> iterator = mock(KeyValueIterator.class);
+        doCallRealMethod().when(iterator).forEachRemaining(any(Consumer.class));
+        Iterator<KeyValue<Bytes, String>> entryIterator = entries.iterator();
+        given(iterator.hasNext()).willAnswer(invocation -> entryIterator.hasNext());
+        given(iterator.next()).willAnswer(invocation -> entryIterator.next());
+        given(indexStore.all()).willReturn(iterator);
+        repository = new KafkaStreamsMessageRepository(props, new RetryMetrics(registry));
+        repository.init(messageStore, indexStore, null, null);
+        clearInvocations(messageStore, indexStore);
+    }
+
+    private int countDueMessages(long timeStamp) {
+        Set<String> messageIds = new HashSet<>();
+        try (KeyValueIterator<String, RetryInfo> messages = repository.getDueMessages(timeStamp)) {
+            messages.forEachRemaining(message -> assertTrue(messageIds.add(message.key)));
+        }
+        return messageIds.size();
+    }
+
+    private void mockIndexRange(long timeStamp, KeyValue<Bytes, String> entry) {
+        KeyValueIterator<Bytes, String> iterator = mock(KeyValueIterator.class);
+        given(iterator.hasNext()).willReturn(true, false);
+        given(iterator.next()).willReturn(entry);
+        given(indexStore.range(DueTimeIndexKey.lowerBound(), DueTimeIndexKey.upperBound(timeStamp))).willReturn(iterator);
+    }
+
     private RetryInfo createRetryInfo() {
         return RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(TIMESTAMP_MS)
-                .payload(new ObjectMapper().createObjectNode()).build();
+                .payload(TestUtil.PAYLOAD).build();
     }
 
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.model.PayloadReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentPayloadStoreTest {
+
+    private static final int SEGMENT_BYTES = TestUtil.PAYLOAD.length * 2;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void payloadReadBack() {
+        SegmentPayloadStore store = new SegmentPayloadStore(directory, SEGMENT_BYTES);
+        PayloadReference first = store.append(TestUtil.PAYLOAD);
+        PayloadReference second = store.append(TestUtil.PAYLOAD);
+        assertEquals(first.getSegment(), second.getSegment());
+        assertEquals(TestUtil.PAYLOAD.length, second.getOffset());
+        assertArrayEquals(TestUtil.PAYLOAD, toArray(store.read(first)));
+        assertArrayEquals(TestUtil.PAYLOAD, toArray(store.read(second)));
+        assertTrue(store.read(second).isReadOnly());
+    }
+
+    @Test
+    void newSegmentStartedWhenFull() {
+        SegmentPayloadStore store = new SegmentPayloadStore(directory, SEGMENT_BYTES);
+        store.append(TestUtil.PAYLOAD);
+        store.append(TestUtil.PAYLOAD);
+        PayloadReference third = store.append(TestUtil.PAYLOAD);
+        assertEquals(0, third.getOffset());
+        assertEquals(2, store.getSegmentCount());
+    }
+
+    @Test
+    void largePayloadGetsOwnSegment() {
+        SegmentPayloadStore store = new SegmentPayloadStore(directory, SEGMENT_BYTES);
+        byte[] payload = new byte[SEGMENT_BYTES * 3];
+        payload[payload.length - 1] = 1;
+        PayloadReference reference = store.append(payload);
+        assertArrayEquals(payload, toArray(store.read(reference)));
+    }
+
+    @Test
+    void sealedSegmentDeletedWhenReleased() {
+        SegmentPayloadStore store = new SegmentPayloadStore(directory, SEGMENT_BYTES);
+        PayloadReference first = store.append(TestUtil.PAYLOAD);
+        PayloadReference second = store.append(TestUtil.PAYLOAD);
+        PayloadReference third = store.append(TestUtil.PAYLOAD);
+        store.release(first);
+        assertEquals(2, store.getSegmentCount());
+        store.release(second);
+        assertEquals(1, store.getSegmentCount());
+        assertNull(store.read(first));
+        store.release(third);
+        assertEquals(1, store.getSegmentCount());
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    void retainedPayloadsKeptWhenReopened() {
+        SegmentPayloadStore store = new SegmentPayloadStore(directory, SEGMENT_BYTES);
+        PayloadReference released = store.append(TestUtil.PAYLOAD);
+        store.append(TestUtil.PAYLOAD);
+        PayloadReference retained = store.append(TestUtil.PAYLOAD);
+        store.close();
+        SegmentPayloadStore reopened = new SegmentPayloadStore(directory, SEGMENT_BYTES);
+        reopened.retain(retained);
+        reopened.deleteUnreferenced();
+        assertNull(reopened.read(released));
+        assertArrayEquals(TestUtil.PAYLOAD, toArray(reopened.read(retained)));
+        assertNotEquals(retained.getSegment(), reopened.append(TestUtil.PAYLOAD).getSegment());
+    }
+
+    @Test
+    void segmentsNumberedApartForEachStore() {
+        SegmentPayloadStore store = new SegmentPayloadStore(new File(directory, "first"), SEGMENT_BYTES);
+        SegmentPayloadStore other = new SegmentPayloadStore(new File(directory, "second"), SEGMENT_BYTES);
+        assertNotEquals(store.append(TestUtil.PAYLOAD).getSegment(), other.append(TestUtil.PAYLOAD).getSegment());
+    }
+
+    @Test
+    void missingSegmentNotRead() {
+        SegmentPayloadStore store = new SegmentPayloadStore(directory, SEGMENT_BYTES);
+        PayloadReference reference = PayloadReference.builder().segment(7).offset(0).length(TestUtil.PAYLOAD.length).build();
+        assertNull(store.read(reference));
+        store.release(reference);
+        assertEquals(0, store.getSegmentCount());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.repository.impl;
+
+import com.ibm.kafka.retry.TestUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    private static final long TICK_MS = 100;
+
+    private static final long START_MS = 1596099164000L;
+
+    private final TimingWheel timingWheel = new TimingWheel(TICK_MS, START_MS);
+
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    void entryExpiresWhenDue() {
+        timingWheel.add(TestUtil.MESSAGE_ID, START_MS + 250);
+        timingWheel.expire(START_MS + 249, this::addExpired);
+        assertTrue(expired.isEmpty());
+        timingWheel.expire(START_MS + 250, this::addExpired);
+        assertEquals(1, expired.size());
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    void overdueEntryExpiresImmediately() {
+        timingWheel.add(TestUtil.MESSAGE_ID, START_MS - 1000);
+        timingWheel.expire(START_MS, this::addExpired);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    void entriesCascadeFromHigherLevels() {
+        long[] delays = {TICK_MS * 300, TICK_MS * 70000, TICK_MS * 20000000L, TICK_MS * 5000000000L};
+        for (int i = 0; i < delays.length; i++) {
+            timingWheel.add(String.valueOf(i), START_MS + delays[i]);
+        }
+        for (int i = 0; i < delays.length; i++) {
+            timingWheel.expire(START_MS + delays[i] - 1, this::addExpired);
+            assertEquals(i, expired.size());
+            timingWheel.expire(START_MS + delays[i], this::addExpired);
+            assertEquals(i + 1, expired.size());
+            assertEquals(String.valueOf(i), expired.get(i));
+        }
+    }
+
+    @Test
+    void expiryResumesAfterLimit() {
+        for (int i = 0; i < 10; i++) {
+            timingWheel.add(String.valueOf(i), START_MS + TICK_MS * (i % 3));
+        }
+        timingWheel.add(TestUtil.MESSAGE_ID, START_MS + TICK_MS * 10);
+        assertEquals(4, timingWheel.expire(START_MS + TICK_MS * 5, 4, this::addExpired));
+        assertEquals(4, timingWheel.expire(START_MS + TICK_MS * 5, 4, this::addExpired));
+        assertEquals(2, timingWheel.expire(START_MS + TICK_MS * 5, 4, this::addExpired));
+        assertEquals(10, expired.size());
+        assertEquals(1, timingWheel.size());
+        assertEquals(START_MS + TICK_MS * 10, timingWheel.getNextDueTimeStamp());
+    }
+
+    @Test
+    void nextDueTimeStamp() {
+        assertEquals(Long.MAX_VALUE, timingWheel.getNextDueTimeStamp());
+        timingWheel.add(TestUtil.MESSAGE_ID, START_MS + 530);
+        timingWheel.add(TestUtil.MESSAGE_ID, START_MS + 510);
+        assertEquals(START_MS + 510, timingWheel.getNextDueTimeStamp());
+    }
+
+    @Test
+    void nextDueTimeStampIsLowerBoundAtHigherLevels() {
+        long dueTimeStamp = START_MS + TICK_MS * 1000 + 50;
+        timingWheel.add(TestUtil.MESSAGE_ID, dueTimeStamp);
+        long nextDueTimeStamp = timingWheel.getNextDueTimeStamp();
+        assertTrue(nextDueTimeStamp <= dueTimeStamp);
+        assertTrue(nextDueTimeStamp > START_MS);
+        timingWheel.expire(nextDueTimeStamp, this::addExpired);
+        assertTrue(expired.isEmpty());
+        assertEquals(dueTimeStamp, timingWheel.getNextDueTimeStamp());
+    }
+
+    @Test
+    void capacityGrows() {
+        for (int i = 0; i < 5000; i++) {
+            timingWheel.add(String.valueOf(i), START_MS + i);
+        }
+        assertEquals(5000, timingWheel.size());
+        timingWheel.expire(START_MS + 5000, this::addExpired);
+        assertEquals(5000, expired.size());
+    }
+
+    private void addExpired(String messageId, long dueTimeStamp) {
+        expired.add(messageId);
+    }
+
+}
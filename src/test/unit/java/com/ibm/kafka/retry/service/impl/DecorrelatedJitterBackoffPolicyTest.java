@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecorrelatedJitterBackoffPolicyTest {
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    private final DecorrelatedJitterBackoffPolicy policy = new DecorrelatedJitterBackoffPolicy(props);
+
+    @BeforeEach
+    void setup() {
+        props.setRetryBackoffInitialDelayMs(1000);
+        props.setRetryBackoffMaxDelayMs(20000);
+    }
+
+    @Test
+    void delayWithinRange() {
+        for (int i = 0; i < 100; i++) {
+            long first = policy.getDelayMs(1);
+            assertTrue(first >= 1000 && first <= 3000);
+            long second = policy.getDelayMs(2);
+            assertTrue(second >= 1000 && second <= 9000);
+        }
+    }
+
+    @Test
+    void delayCapped() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelayMs(1000) <= 20000);
+        }
+    }
+
+    @Test
+    void initialDelayAboveMaximum() {
+        props.setRetryBackoffInitialDelayMs(30000);
+        assertEquals(20000, policy.getDelayMs(1));
+    }
+
+}
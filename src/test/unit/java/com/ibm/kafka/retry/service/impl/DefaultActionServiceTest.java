@@ -5,23 +5,31 @@
 
 package com.ibm.kafka.retry.service.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.AuditEvent;
+import com.ibm.kafka.retry.model.EncodedHeaders;
+import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import com.ibm.kafka.retry.model.RetryInfo;
 import com.ibm.kafka.retry.producer.MessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
 import com.ibm.kafka.retry.service.ActionService;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.BackoffPolicy;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.TestUtil;
 import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
@@ -31,38 +39,97 @@ class DefaultActionServiceTest {
 
     private static final long TIMESTAMP = 1000;
 
+    private static final String TRACE_HEADER = "traceparent";
+
+    private static final byte[] TRACE_ID = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01".getBytes();
+
     private final HeaderExtractionService headerService = mock(HeaderExtractionService.class);
 
     private final MessageRepository repository = mock(MessageRepository.class);
 
     private final MessageProducer producer = mock(MessageProducer.class);
 
-    private final ActionService actionService = new DefaultActionService(headerService, repository, producer);
+    private final RetryMetrics metrics = mock(RetryMetrics.class);
+
+    private final AuditService auditService = mock(AuditService.class);
+
+    private final BackoffPolicy backoffPolicy = mock(BackoffPolicy.class);
+
+    private final ActionService actionService = new DefaultActionService(headerService, repository, producer, metrics, auditService,
+            backoffPolicy);
 
     @Test
     void queueMessage() throws IllegalRetryStateException {
         int completedRetries = 1;
-        Headers headers = mock(Headers.class);
-        JsonNode payload = mock(JsonNode.class);
+        Headers headers = new RecordHeaders();
+        headers.add(TRACE_HEADER, TRACE_ID);
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, "1".getBytes());
+        byte[] payload = TestUtil.PAYLOAD;
         given(headerService.getCompletedRetries(headers)).willReturn(completedRetries);
         given(headerService.getOriginTopic(headers)).willReturn(TestUtil.ORIGIN_TOPIC);
         given(headerService.getTimestamp(headers)).willReturn(TIMESTAMP);
+        given(backoffPolicy.getDelayMs(completedRetries + 1)).willReturn(TestUtil.SECOND_RETRY_DELAY_MILLIS);
         actionService.queueMessageForRetry(TestUtil.MESSAGE_ID, headers, payload);
         ArgumentCaptor<RetryInfo> captor = ArgumentCaptor.forClass(RetryInfo.class);
         then(repository).should().addToRetryQueue(eq(TestUtil.MESSAGE_ID), captor.capture());
         assertEquals(payload, captor.getValue().getPayload());
         assertEquals(TIMESTAMP, captor.getValue().getTimeStamp());
+        assertEquals(TIMESTAMP + TestUtil.SECOND_RETRY_DELAY_MILLIS, captor.getValue().getDueTimeStamp());
         Assertions.assertEquals(TestUtil.ORIGIN_TOPIC, captor.getValue().getOriginTopic());
+        Headers originalHeaders = new RecordHeaders();
+        EncodedHeaders.decode(captor.getValue().getHeaders(), originalHeaders);
+        assertEquals(1, originalHeaders.toArray().length);
+        assertArrayEquals(TRACE_ID, originalHeaders.lastHeader(TRACE_HEADER).value());
+        then(metrics).should().messageQueued(TestUtil.ORIGIN_TOPIC, completedRetries + 1);
+        then(auditService).should().record(AuditEvent.Type.QUEUED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, completedRetries + 1);
+    }
+
+    @Test
+    void queueMessageFromRetryHeaders() throws IllegalRetryStateException {
+        RetryHeaders headers = RetryHeaders.builder().retryAttempts("1".getBytes()).originTopic(TestUtil.ORIGIN_TOPIC)
+                .timeStamp(String.valueOf(TIMESTAMP).getBytes()).build();
+        byte[] payload = TestUtil.PAYLOAD;
+        actionService.queueMessageForRetry(TestUtil.MESSAGE_ID, headers, new RecordHeaders(), payload);
+        ArgumentCaptor<RetryInfo> captor = ArgumentCaptor.forClass(RetryInfo.class);
+        then(repository).should().addToRetryQueue(eq(TestUtil.MESSAGE_ID), captor.capture());
+        assertEquals(payload, captor.getValue().getPayload());
+        assertEquals(TIMESTAMP, captor.getValue().getTimeStamp());
+        assertEquals(2, captor.getValue().getRetryAttempt());
+        assertEquals(TestUtil.ORIGIN_TOPIC, captor.getValue().getOriginTopic());
+        assertNull(captor.getValue().getHeaders());
+        then(headerService).shouldHaveZeroInteractions();
     }
 
     @Test
     void dispatchPermanentlyFailedMessage() throws IllegalRetryStateException, IOException {
         Headers headers = mock(Headers.class);
-        JsonNode payload = new ObjectMapper().createObjectNode();
-        given(headerService.getOriginTopic(headers)).willReturn(TestUtil.ORIGIN_TOPIC);
+        byte[] payload = TestUtil.PAYLOAD;
+        given(headerService.getRetryHeaders(headers)).willReturn(RetryHeaders.builder().retryAttempts("3".getBytes())
+                .originTopic(TestUtil.ORIGIN_TOPIC).build());
         actionService.dispatchPermanentlyFailedMessage(TestUtil.MESSAGE_ID, headers, payload);
         then(producer).should().sendToPermanentFailureTopic(headers, payload);
         then(repository).shouldHaveZeroInteractions();
+        then(auditService).should().record(AuditEvent.Type.DEAD_LETTERED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, 3);
+    }
+
+    @Test
+    void dispatchPermanentlyFailedMessageWithInvalidHeaders() throws IOException {
+        Headers headers = mock(Headers.class);
+        given(headerService.getRetryHeaders(headers)).willReturn(RetryHeaders.builder().build());
+        actionService.dispatchPermanentlyFailedMessage(TestUtil.MESSAGE_ID, headers, TestUtil.PAYLOAD);
+        then(producer).should().sendToPermanentFailureTopic(headers, TestUtil.PAYLOAD);
+        then(auditService).should().record(AuditEvent.Type.DEAD_LETTERED, TestUtil.MESSAGE_ID, null, 0);
+    }
+
+    @Test
+    void dispatchPermanentlyFailedMessageWithRetryHeaders() throws IOException {
+        Headers headers = mock(Headers.class);
+        RetryHeaders retryHeaders = RetryHeaders.builder().retryAttempts("3".getBytes())
+                .originTopic(TestUtil.ORIGIN_TOPIC).build();
+        actionService.dispatchPermanentlyFailedMessage(TestUtil.MESSAGE_ID, retryHeaders, headers, TestUtil.PAYLOAD);
+        then(producer).should().sendToPermanentFailureTopic(headers, TestUtil.PAYLOAD);
+        then(auditService).should().record(AuditEvent.Type.DEAD_LETTERED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, 3);
+        then(headerService).shouldHaveZeroInteractions();
     }
 
     @Test
@@ -70,6 +137,7 @@ class DefaultActionServiceTest {
         actionService.dropMessage(TestUtil.MESSAGE_ID);
         then(repository).shouldHaveZeroInteractions();
         then(producer).shouldHaveZeroInteractions();
+        then(auditService).should().record(AuditEvent.Type.DROPPED, TestUtil.MESSAGE_ID, null, 0);
     }
 
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DefaultCircuitBreakerServiceTest {
+
+    private static final long TIMESTAMP_MS = 159609916400L;
+
+    private static final long WINDOW_MS = 10000;
+
+    private static final long OPEN_MS = 30000;
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private DefaultCircuitBreakerService circuitBreakerService;
+
+    @BeforeEach
+    void setup() {
+        props.setRetryCircuitBreakerWindowMs(WINDOW_MS);
+        props.setRetryCircuitBreakerMinDispatched(4);
+        props.setRetryCircuitBreakerFailureRate(0.5);
+        props.setRetryCircuitBreakerOpenMs(OPEN_MS);
+        props.setRetryCircuitBreakerMaxOpenMs(OPEN_MS * 3);
+        props.setRetryCircuitBreakerProbeMessages(1);
+        circuitBreakerService = new DefaultCircuitBreakerService(props, new RetryMetrics(registry));
+    }
+
+    @Test
+    void closedWhileRetriesSucceed() {
+        dispatch(4, TIMESTAMP_MS);
+        circuitBreakerService.recordInflow(TestUtil.ORIGIN_TOPIC, 1, TIMESTAMP_MS);
+        assertEquals(DefaultCircuitBreakerService.State.CLOSED, circuitBreakerService.getState(TestUtil.ORIGIN_TOPIC));
+        assertEquals(0, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, TIMESTAMP_MS));
+    }
+
+    @Test
+    void opensWhenRetriesFailAgain() {
+        openCircuit();
+        assertEquals(DefaultCircuitBreakerService.State.OPEN, circuitBreakerService.getState(TestUtil.ORIGIN_TOPIC));
+        assertEquals(OPEN_MS - 1000, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, TIMESTAMP_MS + 1000));
+        assertEquals(0, circuitBreakerService.tryAcquire("otherTopic", TIMESTAMP_MS + 1000));
+        assertEquals(1, registry.get("kafka.retry.circuit.transitions").tag("state", "OPEN").counter().count(), 0);
+    }
+
+    @Test
+    void opensOnRetryStorm() {
+        props.setRetryCircuitBreakerMaxInflowPerSecond(1);
+        for (int i = 0; i <= WINDOW_MS / 1000; i++) {
+            circuitBreakerService.recordInflow(TestUtil.ORIGIN_TOPIC, 0, TIMESTAMP_MS);
+        }
+        assertEquals(DefaultCircuitBreakerService.State.OPEN, circuitBreakerService.getState(TestUtil.ORIGIN_TOPIC));
+    }
+
+    @Test
+    void failuresCountedPerWindow() {
+        dispatch(4, TIMESTAMP_MS);
+        circuitBreakerService.recordInflow(TestUtil.ORIGIN_TOPIC, 1, TIMESTAMP_MS);
+        circuitBreakerService.recordInflow(TestUtil.ORIGIN_TOPIC, 1, TIMESTAMP_MS + WINDOW_MS);
+        assertEquals(DefaultCircuitBreakerService.State.CLOSED, circuitBreakerService.getState(TestUtil.ORIGIN_TOPIC));
+    }
+
+    @Test
+    void halfOpenProbeClosesCircuit() {
+        openCircuit();
+        long halfOpen = TIMESTAMP_MS + OPEN_MS;
+        assertEquals(0, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, halfOpen));
+        assertEquals(DefaultCircuitBreakerService.State.HALF_OPEN, circuitBreakerService.getState(TestUtil.ORIGIN_TOPIC));
+        assertEquals(WINDOW_MS, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, halfOpen));
+        circuitBreakerService.recordDispatched(TestUtil.ORIGIN_TOPIC, halfOpen);
+        assertEquals(0, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, halfOpen + WINDOW_MS));
+        assertEquals(DefaultCircuitBreakerService.State.CLOSED, circuitBreakerService.getState(TestUtil.ORIGIN_TOPIC));
+    }
+
+    @Test
+    void probeNotTakenByCheck() {
+        openCircuit();
+        long halfOpen = TIMESTAMP_MS + OPEN_MS;
+        assertEquals(0, circuitBreakerService.getWaitMs(TestUtil.ORIGIN_TOPIC, halfOpen));
+        assertEquals(0, circuitBreakerService.getWaitMs(TestUtil.ORIGIN_TOPIC, halfOpen));
+        assertEquals(0, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, halfOpen));
+        assertEquals(WINDOW_MS, circuitBreakerService.getWaitMs(TestUtil.ORIGIN_TOPIC, halfOpen));
+    }
+
+    @Test
+    void failedProbeReopensCircuitForLonger() {
+        openCircuit();
+        long halfOpen = TIMESTAMP_MS + OPEN_MS;
+        assertEquals(0, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, halfOpen));
+        circuitBreakerService.recordDispatched(TestUtil.ORIGIN_TOPIC, halfOpen);
+        circuitBreakerService.recordInflow(TestUtil.ORIGIN_TOPIC, 2, halfOpen + 1000);
+        assertEquals(OPEN_MS * 2, circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, halfOpen + WINDOW_MS));
+        assertEquals(DefaultCircuitBreakerService.State.OPEN, circuitBreakerService.getState(TestUtil.ORIGIN_TOPIC));
+    }
+
+    private void openCircuit() {
+        dispatch(4, TIMESTAMP_MS);
+        circuitBreakerService.recordInflow(TestUtil.ORIGIN_TOPIC, 1, TIMESTAMP_MS);
+        circuitBreakerService.recordInflow(TestUtil.ORIGIN_TOPIC, 1, TIMESTAMP_MS);
+    }
+
+    private void dispatch(int count, long timeStamp) {
+        for (int i = 0; i < count; i++) {
+            circuitBreakerService.recordDispatched(TestUtil.ORIGIN_TOPIC, timeStamp);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.model.ExceptionRoute;
+import com.ibm.kafka.retry.service.ExceptionRoutingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DefaultExceptionRoutingServiceTest {
+
+    private static final String OVERRIDE_TOPIC = "overrideTopic";
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    private ExceptionRoutingService routingService;
+
+    @BeforeEach
+    void setup() {
+        props.setRetriableException(TestUtil.RETRIABLE_EXCEPTION_NAME + ", Timeout*");
+        props.setFatalException(TestUtil.FATAL_EXCEPTION_NAME + ",*ValidationException");
+        props.setDroppableException(TestUtil.DROPPABLE_EXCEPTION_NAME);
+        ApplicationProperties.ExceptionRules rules = new ApplicationProperties.ExceptionRules();
+        rules.setFatalException(TestUtil.RETRIABLE_EXCEPTION_NAME);
+        rules.setDroppableException("Timeout*");
+        props.getTopicExceptionRules().put(OVERRIDE_TOPIC, rules);
+        routingService = new DefaultExceptionRoutingService(props);
+    }
+
+    @Test
+    void exactName() {
+        assertEquals(ExceptionRoute.RETRIABLE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, TestUtil.RETRIABLE_EXCEPTION_NAME));
+        assertEquals(ExceptionRoute.FATAL, routingService.getRoute(TestUtil.ORIGIN_TOPIC, TestUtil.FATAL_EXCEPTION_NAME));
+        assertEquals(ExceptionRoute.DROPPABLE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, TestUtil.DROPPABLE_EXCEPTION_NAME));
+    }
+
+    @Test
+    void wildcardName() {
+        assertEquals(ExceptionRoute.RETRIABLE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, "TimeoutException"));
+        assertEquals(ExceptionRoute.FATAL, routingService.getRoute(TestUtil.ORIGIN_TOPIC, "SchemaValidationException"));
+        assertEquals(ExceptionRoute.RETRIABLE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, "TimeoutException"));
+    }
+
+    @Test
+    void unknownName() {
+        assertEquals(ExceptionRoute.NONE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, "UnknownException"));
+        assertEquals(ExceptionRoute.NONE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, null));
+    }
+
+    @Test
+    void topicOverride() {
+        assertEquals(ExceptionRoute.FATAL, routingService.getRoute(OVERRIDE_TOPIC, TestUtil.RETRIABLE_EXCEPTION_NAME));
+        assertEquals(ExceptionRoute.DROPPABLE, routingService.getRoute(OVERRIDE_TOPIC, "TimeoutException"));
+        assertEquals(ExceptionRoute.FATAL, routingService.getRoute(OVERRIDE_TOPIC, "SchemaValidationException"));
+        assertEquals(ExceptionRoute.DROPPABLE, routingService.getRoute(OVERRIDE_TOPIC, TestUtil.DROPPABLE_EXCEPTION_NAME));
+    }
+
+    @Test
+    void precedence() {
+        props.setRetriableException(TestUtil.DROPPABLE_EXCEPTION_NAME + "," + TestUtil.FATAL_EXCEPTION_NAME);
+        routingService = new DefaultExceptionRoutingService(props);
+        assertEquals(ExceptionRoute.DROPPABLE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, TestUtil.DROPPABLE_EXCEPTION_NAME));
+        assertEquals(ExceptionRoute.RETRIABLE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, TestUtil.FATAL_EXCEPTION_NAME));
+    }
+
+    @Test
+    void noRules() {
+        routingService = new DefaultExceptionRoutingService(new ApplicationProperties());
+        assertEquals(ExceptionRoute.NONE, routingService.getRoute(TestUtil.ORIGIN_TOPIC, TestUtil.RETRIABLE_EXCEPTION_NAME));
+    }
+
+}
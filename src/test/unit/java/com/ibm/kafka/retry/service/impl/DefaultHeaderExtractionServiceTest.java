@@ -9,9 +9,12 @@ import com.ibm.kafka.retry.TestUtil;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
 import com.ibm.kafka.retry.mock.HeaderMock;
 import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.RetryHeaderCodec;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
@@ -80,6 +83,68 @@ class DefaultHeaderExtractionServiceTest {
         assertThrows(IllegalRetryStateException.class, () -> headerService.getOriginTopic(mockHeaders(headers, MessageHeaders.EXCEPTION_TYPE)));
     }
 
+    @Test
+    void getRetryHeaders() throws IllegalRetryStateException {
+        Headers headers = new RecordHeaders();
+        headers.add(new HeaderMock(MessageHeaders.EXCEPTION_TYPE, "\"" + TestUtil.RETRIABLE_EXCEPTION_NAME + "\""));
+        headers.add(new HeaderMock(MessageHeaders.ORIGIN_TOPIC, TestUtil.ORIGIN_TOPIC));
+        headers.add(new HeaderMock(MessageHeaders.RETRY_ATTEMPTS, "2"));
+        headers.add(new HeaderMock(MessageHeaders.PRODUCED_TIMESTAMP_MS, "1000"));
+        headers.add(new HeaderMock(UNKNOWN_HEADER_KEY, UNKNOWN_HEADER_VALUE));
+        RetryHeaders retryHeaders = headerService.getRetryHeaders(headers);
+        assertEquals(TestUtil.RETRIABLE_EXCEPTION_NAME, retryHeaders.getExceptionName());
+        assertEquals(TestUtil.ORIGIN_TOPIC, retryHeaders.getOriginTopic());
+        assertEquals(2, retryHeaders.getCompletedRetries());
+        assertEquals(1000L, retryHeaders.getTimestamp());
+    }
+
+    @Test
+    void getRetryHeadersInBinary() throws IllegalRetryStateException {
+        Headers headers = new RecordHeaders();
+        headers.add(MessageHeaders.RETRY_ATTEMPTS, RetryHeaderCodec.encodeRetryAttempts(2, true));
+        headers.add(MessageHeaders.PRODUCED_TIMESTAMP_MS, RetryHeaderCodec.encodeTimestamp(1000L, true));
+        RetryHeaders retryHeaders = new DefaultHeaderExtractionService(true).getRetryHeaders(headers);
+        assertEquals(2, retryHeaders.getCompletedRetries());
+        assertEquals(1000L, retryHeaders.getTimestamp());
+    }
+
+    @Test
+    void getHeadersInBinaryOrText() throws IllegalRetryStateException {
+        HeaderExtractionService binaryHeaderService = new DefaultHeaderExtractionService(true);
+        Headers binary = new RecordHeaders();
+        binary.add(MessageHeaders.RETRY_ATTEMPTS, RetryHeaderCodec.encodeRetryAttempts(2, true));
+        binary.add(MessageHeaders.PRODUCED_TIMESTAMP_MS, RetryHeaderCodec.encodeTimestamp(1000L, true));
+        assertEquals(2, binaryHeaderService.getCompletedRetries(binary));
+        assertEquals(1000L, binaryHeaderService.getTimestamp(binary));
+        Headers text = new RecordHeaders();
+        text.add(new HeaderMock(MessageHeaders.RETRY_ATTEMPTS, "3"));
+        text.add(new HeaderMock(MessageHeaders.PRODUCED_TIMESTAMP_MS, "\"1000\""));
+        assertEquals(3, binaryHeaderService.getCompletedRetries(text));
+        assertEquals(1000L, binaryHeaderService.getTimestamp(text));
+    }
+
+    @Test
+    void getRetryHeadersWhenMissing() throws IllegalRetryStateException {
+        Headers headers = new RecordHeaders();
+        headers.add(new HeaderMock(UNKNOWN_HEADER_KEY, UNKNOWN_HEADER_VALUE));
+        RetryHeaders retryHeaders = headerService.getRetryHeaders(headers);
+        assertEquals(0, retryHeaders.getCompletedRetries());
+        assertThrows(IllegalRetryStateException.class, retryHeaders::getExceptionName);
+        assertThrows(IllegalRetryStateException.class, retryHeaders::getOriginTopic);
+        assertThrows(IllegalRetryStateException.class, retryHeaders::getTimestamp);
+    }
+
+    @Test
+    void getRetryHeadersWhenMultipleValues() throws IllegalRetryStateException {
+        Headers headers = new RecordHeaders();
+        headers.add(new HeaderMock(MessageHeaders.EXCEPTION_TYPE, TestUtil.RETRIABLE_EXCEPTION_NAME));
+        headers.add(new HeaderMock(MessageHeaders.EXCEPTION_TYPE, TestUtil.RETRIABLE_EXCEPTION_NAME));
+        headers.add(new HeaderMock(MessageHeaders.ORIGIN_TOPIC, TestUtil.ORIGIN_TOPIC));
+        RetryHeaders retryHeaders = headerService.getRetryHeaders(headers);
+        assertThrows(IllegalRetryStateException.class, retryHeaders::getExceptionName);
+        assertEquals(TestUtil.ORIGIN_TOPIC, retryHeaders.getOriginTopic());
+    }
+
     private Headers mockHeaders(Iterable<Header> iterable, String key) {
         Headers headers = mock(Headers.class);
         given(headers.headers(key)).willReturn(iterable);
@@ -5,27 +5,52 @@
 
 package com.ibm.kafka.retry.service.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.metrics.RetryMetrics;
+import com.ibm.kafka.retry.model.AuditEvent;
+import com.ibm.kafka.retry.model.EncodedHeaders;
 import com.ibm.kafka.retry.model.MessageHeaders;
+import com.ibm.kafka.retry.model.PayloadReference;
+import com.ibm.kafka.retry.model.RetryHeaderCodec;
 import com.ibm.kafka.retry.model.RetryInfo;
 import com.ibm.kafka.retry.producer.MessageProducer;
 import com.ibm.kafka.retry.repository.MessageRepository;
+import com.ibm.kafka.retry.repository.RetryQueueIterator;
+import com.ibm.kafka.retry.service.AuditService;
+import com.ibm.kafka.retry.service.CircuitBreakerService;
 import com.ibm.kafka.retry.service.MessageDispatchService;
+import com.ibm.kafka.retry.service.RateLimitService;
 import com.ibm.kafka.retry.TestUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.streams.KeyValue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.BDDMockito.*;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 
@@ -37,15 +62,26 @@ class DefaultMessageDispatchServiceTest {
 
     private static final long DISPATCHABLE_TIMESTAMP = 1000;
 
-    private static final long NON_DISPATCHABLE_TIMESTAMP = 3000;
+    private static final String TRACE_HEADER = "traceparent";
+
+    private static final byte[] TRACE_ID = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01".getBytes();
 
     private final ApplicationProperties props = mock(ApplicationProperties.class);
 
     private final MessageRepository repository = mock(MessageRepository.class);
 
-    private final MessageProducer producer = mock(MessageProducer.class);
+    private final MessageProducer producer = mock(MessageProducer.class, CALLS_REAL_METHODS);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AuditService auditService = mock(AuditService.class);
+
+    private final RateLimitService rateLimitService = mock(RateLimitService.class);
 
-    private final MessageDispatchService dispatchService = new DefaultMessageDispatchService(props, repository, producer);
+    private final CircuitBreakerService circuitBreakerService = mock(CircuitBreakerService.class);
+
+    private final MessageDispatchService dispatchService = new DefaultMessageDispatchService(props, repository, producer,
+            new RetryMetrics(registry), auditService, rateLimitService, circuitBreakerService, null);
 
     @BeforeEach
     public void setup() {
@@ -57,60 +93,323 @@ class DefaultMessageDispatchServiceTest {
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     void nonEmptyQueueWithDispatchableTimeStamp() throws IOException {
         RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
-        JsonNode json = new ObjectMapper().createObjectNode();
-        Map<String, RetryInfo> messages = new HashMap<>();
-        messages.put(TestUtil.MESSAGE_ID, retryInfo);
-        given(repository.getQueuedMessages(RETRY_ATTEMPT)).willReturn(messages);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
         dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
-        ArgumentCaptor<Map<String, Object>> captor = ArgumentCaptor.forClass(Map.class);
-        then(producer).should().sendToOriginTopic(eq(retryInfo.getOriginTopic()), captor.capture(), eq(json));
-        then(repository).should().removeFromRetryQueue(TestUtil.MESSAGE_ID);
-        Map<String, Object> headers = captor.getValue();
-        assertEquals(RETRY_ATTEMPT, headers.get(MessageHeaders.RETRY_ATTEMPTS));
+        ArgumentCaptor<Headers> captor = ArgumentCaptor.forClass(Headers.class);
+        then(producer).should().sendToOriginTopic(eq(retryInfo.getOriginTopic()), captor.capture(), eq(TestUtil.PAYLOAD));
+        then(messages).should().remove();
+        then(messages).should().close();
+        Headers headers = captor.getValue();
+        assertArrayEquals(String.valueOf(RETRY_ATTEMPT).getBytes(), headers.lastHeader(MessageHeaders.RETRY_ATTEMPTS).value());
+        Timer lateness = registry.get("kafka.retry.dispatch.lateness").timer();
+        assertEquals(1, lateness.count());
+        assertEquals(SCHEDULE_TIMESTAMP - DISPATCHABLE_TIMESTAMP - TestUtil.FIRST_RETRY_DELAY_MILLIS,
+                lateness.totalTime(TimeUnit.MILLISECONDS), 0);
+        then(auditService).should().record(AuditEvent.Type.DISPATCHED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, RETRY_ATTEMPT);
+        then(circuitBreakerService).should().recordDispatched(TestUtil.ORIGIN_TOPIC, SCHEDULE_TIMESTAMP);
     }
 
     @Test
-    @SuppressWarnings("unchecked")
-    void nonEmptyQueueWithNonDispatchableTimeStamp() {
-        RetryInfo retryInfo = createRetryInfo(NON_DISPATCHABLE_TIMESTAMP);
-        JsonNode json = new ObjectMapper().createObjectNode();
-        Map<String, RetryInfo> messages = new HashMap<>();
-        messages.put(TestUtil.MESSAGE_ID, retryInfo);
-        given(repository.getQueuedMessages(RETRY_ATTEMPT)).willReturn(messages);
+    void originalHeadersWrittenBack() throws IOException {
+        Headers originalHeaders = new RecordHeaders();
+        originalHeaders.add(TRACE_HEADER, TRACE_ID);
+        originalHeaders.add(TRACE_HEADER, null);
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP).toBuilder()
+                .headers(EncodedHeaders.encode(originalHeaders)).build();
+        mockDueMessages(retryInfo);
         dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
-        then(producer).shouldHaveZeroInteractions();
-        then(repository).should(times(0)).removeFromRetryQueue(anyString());
+        ArgumentCaptor<Headers> captor = ArgumentCaptor.forClass(Headers.class);
+        then(producer).should().sendToOriginTopic(eq(retryInfo.getOriginTopic()), captor.capture(), eq(TestUtil.PAYLOAD));
+        Header[] headers = captor.getValue().toArray();
+        assertEquals(3, headers.length);
+        assertArrayEquals(TRACE_ID, headers[0].value());
+        assertNull(headers[1].value());
+        assertEquals(MessageHeaders.RETRY_ATTEMPTS, headers[2].key());
+    }
+
+    @Test
+    void retryAttemptsWrittenInBinary() throws IOException {
+        given(props.isRetryHeadersBinaryWriteEnabled()).willReturn(true);
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        mockDueMessages(retryInfo);
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        ArgumentCaptor<Headers> captor = ArgumentCaptor.forClass(Headers.class);
+        then(producer).should().sendToOriginTopic(eq(retryInfo.getOriginTopic()), captor.capture(), eq(TestUtil.PAYLOAD));
+        assertArrayEquals(RetryHeaderCodec.encodeRetryAttempts(RETRY_ATTEMPT, true),
+                captor.getValue().lastHeader(MessageHeaders.RETRY_ATTEMPTS).value());
+    }
+
+    @Test
+    void malformedOriginalHeadersSkipped() throws IOException {
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP).toBuilder().headers(new byte[] {5, 'a'}).build();
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        ArgumentCaptor<Headers> captor = ArgumentCaptor.forClass(Headers.class);
+        then(producer).should().sendToOriginTopic(eq(retryInfo.getOriginTopic()), captor.capture(), eq(TestUtil.PAYLOAD));
+        assertNotNull(captor.getValue().lastHeader(MessageHeaders.RETRY_ATTEMPTS));
+        then(messages).should().remove();
+    }
+
+    @Test
+    void lostPayloadSentToPermanentFailureTopic() throws IOException {
+        RetryInfo retryInfo = createLostPayloadRetryInfo();
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        ArgumentCaptor<Headers> captor = ArgumentCaptor.forClass(Headers.class);
+        then(producer).should().sendToPermanentFailureTopic(captor.capture(), eq(new byte[0]));
+        then(producer).should(never()).sendToOriginTopic(anyString(), any(Headers.class), any());
+        then(messages).should().remove();
+        assertArrayEquals(TestUtil.ORIGIN_TOPIC.getBytes(), captor.getValue().lastHeader(MessageHeaders.ORIGIN_TOPIC).value());
+        assertNotNull(captor.getValue().lastHeader(MessageHeaders.PAYLOAD_LOST));
+        then(auditService).should().record(AuditEvent.Type.DEAD_LETTERED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, RETRY_ATTEMPT - 1);
+        assertEquals(1, registry.get("kafka.retry.payloads.lost").tag("topic", TestUtil.ORIGIN_TOPIC).counter().count(), 0);
+    }
+
+    @Test
+    void lostPayloadKeptWhenNotSent() throws IOException {
+        RetryQueueIterator messages = mockDueMessages(createLostPayloadRetryInfo());
+        willThrow(new IOException()).given(producer).sendToPermanentFailureTopic(any(Headers.class), any());
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        then(messages).should(times(0)).remove();
+        assertNull(registry.find("kafka.retry.payloads.lost").counter());
     }
 
     @Test
     void emptyQueue() {
-        given(repository.getQueuedMessages(RETRY_ATTEMPT)).willReturn(Collections.emptyMap());
+        RetryQueueIterator messages = mockDueMessages();
         dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
         then(producer).shouldHaveZeroInteractions();
-        then(repository).should(times(0)).removeFromRetryQueue(anyString());
+        then(messages).should(times(0)).remove();
+        then(messages).should().close();
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     void dispatchException() throws IOException {
         RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
-        JsonNode json = new ObjectMapper().createObjectNode();
-        Map<String, RetryInfo> messages = new HashMap<>();
-        messages.put(TestUtil.MESSAGE_ID, retryInfo);
-        given(repository.getQueuedMessages(RETRY_ATTEMPT)).willReturn(messages);
-        willThrow(IOException.class).given(producer).sendToOriginTopic(eq(retryInfo.getOriginTopic()), anyMap(), eq(json));
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        willThrow(IOException.class).given(producer).sendToOriginTopic(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        then(producer).should().sendToOriginTopic(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        then(messages).should(times(0)).remove();
+        then(repository).should(times(0)).removeFromRetryQueue(anyString());
+        assertEquals(1, registry.get("kafka.retry.dispatch.failures").counter().count(), 0);
+        then(auditService).shouldHaveZeroInteractions();
+    }
+
+    @Test
+    void asyncDispatchAcknowledged() {
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        willReturn(result).given(producer).sendToOriginTopicAsync(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        willAnswer(invocation -> result.complete(null)).given(producer).flush();
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        then(messages).should(times(0)).remove();
+        then(messages).should().close();
+        then(producer).should().flush();
+        then(repository).should().removeFromRetryQueue(TestUtil.MESSAGE_ID);
+    }
+
+    @Test
+    void asyncDispatchFailed() {
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        willReturn(result).given(producer).sendToOriginTopicAsync(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        willAnswer(invocation -> result.completeExceptionally(new IOException())).given(producer).flush();
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        then(messages).should(times(0)).remove();
+        then(producer).should().flush();
+        then(repository).should(times(0)).removeFromRetryQueue(anyString());
+    }
+
+    @Test
+    void messageBudgetDefersRemainingMessages() throws IOException {
+        given(props.getRetryDispatchMaxMessages()).willReturn(1);
+        given(repository.getNextDueTimeStamp()).willReturn(DISPATCHABLE_TIMESTAMP);
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        given(messages.hasNext()).willReturn(true);
+        assertTrue(dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        then(producer).should(times(1)).sendToOriginTopic(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        then(messages).should(times(1)).remove();
+        then(messages).should().close();
+        Timer deferred = registry.get("kafka.retry.dispatch.deferred").tag("budget", "messages").timer();
+        assertEquals(1, deferred.count());
+        assertEquals(SCHEDULE_TIMESTAMP - DISPATCHABLE_TIMESTAMP, deferred.totalTime(TimeUnit.MILLISECONDS), 0);
+    }
+
+    @Test
+    void bytesBudgetDefersRemainingMessages() throws IOException {
+        given(props.getRetryDispatchMaxBytes()).willReturn((long) TestUtil.PAYLOAD.length);
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        given(messages.hasNext()).willReturn(true);
+        assertTrue(dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        then(producer).should(times(1)).sendToOriginTopic(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        assertEquals(1, registry.get("kafka.retry.dispatch.deferred").tag("budget", "bytes").timer().count());
+    }
+
+    @Test
+    void budgetNotExhaustedWhenAllMessagesDispatched() {
+        given(props.getRetryDispatchMaxMessages()).willReturn(1);
+        mockDueMessages(createRetryInfo(DISPATCHABLE_TIMESTAMP));
+        assertFalse(dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        assertNull(registry.find("kafka.retry.dispatch.deferred").timer());
+    }
+
+    @Test
+    void rateLimitedMessagesDeferred() {
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        given(messages.hasNext()).willReturn(true, true, false);
+        given(rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, TestUtil.PAYLOAD.length, SCHEDULE_TIMESTAMP)).willReturn(500L);
+        given(rateLimitService.getIntervalMs(TestUtil.ORIGIN_TOPIC, TestUtil.PAYLOAD.length)).willReturn(100L);
+        assertFalse(dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        then(producer).shouldHaveZeroInteractions();
+        then(messages).should(times(0)).remove();
+        InOrder inOrder = inOrder(messages);
+        inOrder.verify(messages).defer(SCHEDULE_TIMESTAMP + 500);
+        inOrder.verify(messages).defer(SCHEDULE_TIMESTAMP + 600);
+        inOrder.verify(messages).close();
+        assertEquals(2, registry.get("kafka.retry.dispatch.rate.limited").tag("topic", TestUtil.ORIGIN_TOPIC).counter().count(), 0);
+    }
+
+    @Test
+    void openCircuitParksMessages() {
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        given(circuitBreakerService.getWaitMs(TestUtil.ORIGIN_TOPIC, SCHEDULE_TIMESTAMP)).willReturn(30000L);
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        then(producer).shouldHaveZeroInteractions();
+        then(rateLimitService).shouldHaveZeroInteractions();
+        then(circuitBreakerService).should(never()).tryAcquire(anyString(), anyLong());
+        then(messages).should(times(0)).remove();
+        then(messages).should().defer(SCHEDULE_TIMESTAMP + 30000);
+        assertEquals(1, registry.get("kafka.retry.dispatch.circuit.open").tag("topic", TestUtil.ORIGIN_TOPIC).counter().count(), 0);
+    }
+
+    @Test
+    void rateLimitedMessageTakesNoProbe() {
+        mockDueMessages(createRetryInfo(DISPATCHABLE_TIMESTAMP));
+        given(rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, TestUtil.PAYLOAD.length, SCHEDULE_TIMESTAMP)).willReturn(500L);
         dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
-        ArgumentCaptor<Map<String, Object>> captor = ArgumentCaptor.forClass(Map.class);
-        then(producer).should().sendToOriginTopic(eq(retryInfo.getOriginTopic()), captor.capture(), eq(json));
+        then(circuitBreakerService).should().getWaitMs(TestUtil.ORIGIN_TOPIC, SCHEDULE_TIMESTAMP);
+        then(circuitBreakerService).should(never()).tryAcquire(anyString(), anyLong());
+    }
+
+    @Test
+    void messageParkedWhenProbeNotAcquired() {
+        RetryQueueIterator messages = mockDueMessages(createRetryInfo(DISPATCHABLE_TIMESTAMP));
+        given(circuitBreakerService.tryAcquire(TestUtil.ORIGIN_TOPIC, SCHEDULE_TIMESTAMP)).willReturn(10000L);
+        dispatchService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        InOrder inOrder = inOrder(rateLimitService, circuitBreakerService);
+        inOrder.verify(rateLimitService).tryAcquire(TestUtil.ORIGIN_TOPIC, TestUtil.PAYLOAD.length, SCHEDULE_TIMESTAMP);
+        inOrder.verify(circuitBreakerService).tryAcquire(TestUtil.ORIGIN_TOPIC, SCHEDULE_TIMESTAMP);
+        then(producer).shouldHaveZeroInteractions();
+        then(messages).should().defer(SCHEDULE_TIMESTAMP + 10000);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void workerRemovesAcknowledgedMessageOnNextDispatch() {
+        BiConsumer<String, RetryInfo> remover = mock(BiConsumer.class);
+        MessageDispatchService pooledService = createPooledService(remover);
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        RetryQueueIterator messages = mockDueMessages(retryInfo);
+        willReturn(CompletableFuture.completedFuture(null)).given(producer)
+                .sendToOriginTopicAsync(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        assertTrue(pooledService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        then(remover).should().accept(TestUtil.MESSAGE_ID, retryInfo);
+        then(messages).should(times(0)).remove();
+        then(producer).should(times(0)).flush();
         then(repository).should(times(0)).removeFromRetryQueue(anyString());
+        given(repository.applyPendingRemovals()).willReturn(Collections.singletonList(TestUtil.MESSAGE_ID));
+        mockDueMessages();
+        assertFalse(pooledService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        then(repository).should(times(2)).applyPendingRemovals();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void leasedMessageNotSentAgain() {
+        MessageDispatchService pooledService = createPooledService(mock(BiConsumer.class));
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        mockDueMessages(retryInfo);
+        willReturn(new CompletableFuture<>()).given(producer)
+                .sendToOriginTopicAsync(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        pooledService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        mockDueMessages(retryInfo);
+        assertTrue(pooledService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        then(producer).should(times(1)).sendToOriginTopicAsync(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failedWorkerSendReleasesLease() {
+        BiConsumer<String, RetryInfo> remover = mock(BiConsumer.class);
+        MessageDispatchService pooledService = createPooledService(remover);
+        RetryInfo retryInfo = createRetryInfo(DISPATCHABLE_TIMESTAMP);
+        mockDueMessages(retryInfo);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(new IOException());
+        willReturn(result).given(producer).sendToOriginTopicAsync(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        pooledService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        mockDueMessages(retryInfo);
+        pooledService.dispatchRetries(SCHEDULE_TIMESTAMP);
+        then(producer).should(times(2)).sendToOriginTopicAsync(eq(retryInfo.getOriginTopic()), any(Headers.class), eq(TestUtil.PAYLOAD));
+        then(remover).shouldHaveZeroInteractions();
+        assertEquals(2, registry.get("kafka.retry.dispatch.failures").counter().count(), 0);
+    }
+
+    @Test
+    void saturatedWorkersDeferRemainingMessages() {
+        ExecutorService executor = mock(ExecutorService.class);
+        willThrow(new RejectedExecutionException()).given(executor).execute(any(Runnable.class));
+        MessageDispatchService pooledService = new DefaultMessageDispatchService(props, repository, producer,
+                new RetryMetrics(registry), auditService, rateLimitService, circuitBreakerService, executor);
+        mockDueMessages(createRetryInfo(DISPATCHABLE_TIMESTAMP));
+        assertTrue(pooledService.dispatchRetries(SCHEDULE_TIMESTAMP));
+        then(producer).shouldHaveZeroInteractions();
+        assertEquals(1, registry.get("kafka.retry.dispatch.deferred").tag("budget", "workers").timer().count());
+    }
+
+    /**
+     * Runs the workers on the calling thread.
+     */
+    private MessageDispatchService createPooledService(BiConsumer<String, RetryInfo> remover) {
+        ExecutorService executor = mock(ExecutorService.class);
+        willAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).given(executor).execute(any(Runnable.class));
+        given(props.getRetryDispatchLeaseMs()).willReturn(60000L);
+        given(repository.getPendingRemover()).willReturn(remover);
+        given(repository.applyPendingRemovals()).willReturn(Collections.emptyList());
+        return new DefaultMessageDispatchService(props, repository, producer, new RetryMetrics(registry), auditService,
+                rateLimitService, circuitBreakerService, executor);
+    }
+
+    private RetryQueueIterator mockDueMessages(RetryInfo... retryInfos) {
+        RetryQueueIterator iterator = mock(RetryQueueIterator.class);
+        if (retryInfos.length > 0) {
+            given(iterator.hasNext()).willReturn(true, false);
+            given(iterator.next()).willReturn(new KeyValue<>(TestUtil.MESSAGE_ID, retryInfos[0]));
+        }
+        given(repository.getDueMessages(SCHEDULE_TIMESTAMP)).willReturn(iterator);
+        return iterator;
+    }
+
+    private RetryInfo createLostPayloadRetryInfo() {
+        return createRetryInfo(DISPATCHABLE_TIMESTAMP).toBuilder().payload(null)
+                .payloadReference(PayloadReference.builder().segment(1).length(TestUtil.PAYLOAD.length).build()).build();
     }
 
     private RetryInfo createRetryInfo(long timestamp) {
         return RetryInfo.builder().originTopic(TestUtil.ORIGIN_TOPIC).retryAttempt(RETRY_ATTEMPT).timeStamp(timestamp)
-                .payload(new ObjectMapper().createObjectNode()).build();
+                .payload(TestUtil.PAYLOAD).build();
     }
 
 }
@@ -8,6 +8,7 @@ package com.ibm.kafka.retry.service.impl;
 import com.ibm.kafka.retry.ApplicationProperties;
 import com.ibm.kafka.retry.TestUtil;
 import com.ibm.kafka.retry.exception.IllegalRetryStateException;
+import com.ibm.kafka.retry.model.RetryHeaders;
 import com.ibm.kafka.retry.service.HeaderExtractionService;
 import com.ibm.kafka.retry.service.MessageQueryService;
 import org.apache.kafka.common.header.Headers;
@@ -15,6 +16,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
@@ -27,7 +29,7 @@ class DefaultMessageQueryServiceTest {
 
     private final HeaderExtractionService headerService = mock(HeaderExtractionService.class);
 
-    private final MessageQueryService queryService = new DefaultMessageQueryService(props, headerService);
+    private MessageQueryService queryService;
 
     @BeforeEach
     void setup() {
@@ -36,6 +38,7 @@ class DefaultMessageQueryServiceTest {
         given(props.getRetriableException()).willReturn(TestUtil.RETRIABLE_EXCEPTION_NAME);
         given(props.getFatalException()).willReturn(TestUtil.FATAL_EXCEPTION_NAME);
         given(props.getDroppableException()).willReturn(TestUtil.DROPPABLE_EXCEPTION_NAME);
+        queryService = new DefaultMessageQueryService(props, headerService, new DefaultExceptionRoutingService(props));
     }
 
     @Test
@@ -106,4 +109,33 @@ class DefaultMessageQueryServiceTest {
         assertTrue(queryService.isDroppable(headers));
     }
 
+    @Test
+    void isRetriableFromRetryHeaders() throws IllegalRetryStateException {
+        RetryHeaders headers = RetryHeaders.builder().retryAttempts("1".getBytes()).originTopic(TestUtil.ORIGIN_TOPIC)
+                .exceptionName(TestUtil.RETRIABLE_EXCEPTION_NAME).build();
+        assertTrue(queryService.isRetriable(headers));
+        assertFalse(queryService.isPermanentlyFailed(headers));
+    }
+
+    @Test
+    void isPermanentlyFailedFromRetryHeaders() throws IllegalRetryStateException {
+        RetryHeaders headers = RetryHeaders.builder().retryAttempts(String.valueOf(MAX_ATTEMPTS).getBytes())
+                .originTopic(TestUtil.ORIGIN_TOPIC).exceptionName(TestUtil.RETRIABLE_EXCEPTION_NAME).build();
+        assertFalse(queryService.isRetriable(headers));
+        assertTrue(queryService.isPermanentlyFailed(headers));
+    }
+
+    @Test
+    void isDroppableFromRetryHeaders() throws IllegalRetryStateException {
+        RetryHeaders headers = RetryHeaders.builder().originTopic(TestUtil.ORIGIN_TOPIC)
+                .exceptionName(TestUtil.DROPPABLE_EXCEPTION_NAME).build();
+        assertTrue(queryService.isDroppable(headers));
+    }
+
+    @Test
+    void isDroppableFromRetryHeadersWhenMissing() {
+        RetryHeaders headers = RetryHeaders.builder().exceptionName(TestUtil.DROPPABLE_EXCEPTION_NAME).build();
+        assertThrows(IllegalRetryStateException.class, () -> queryService.isDroppable(headers));
+    }
+
 }
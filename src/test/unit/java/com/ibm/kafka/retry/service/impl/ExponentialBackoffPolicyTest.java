@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExponentialBackoffPolicyTest {
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    private final ExponentialBackoffPolicy policy = new ExponentialBackoffPolicy(props);
+
+    @BeforeEach
+    void setup() {
+        props.setRetryBackoffInitialDelayMs(1000);
+        props.setRetryBackoffMultiplier(2);
+        props.setRetryBackoffMaxDelayMs(10000);
+    }
+
+    @Test
+    void delayGrows() {
+        assertEquals(1000, policy.getDelayMs(1));
+        assertEquals(2000, policy.getDelayMs(2));
+        assertEquals(8000, policy.getDelayMs(4));
+    }
+
+    @Test
+    void delayCapped() {
+        assertEquals(10000, policy.getDelayMs(5));
+        assertEquals(10000, policy.getDelayMs(1000));
+    }
+
+    @Test
+    void jitterWithinRange() {
+        props.setRetryBackoffJitter(1);
+        for (int i = 0; i < 100; i++) {
+            long delayMs = policy.getDelayMs(3);
+            assertTrue(delayMs >= 0 && delayMs <= 4000);
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FixedBackoffPolicyTest {
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    @BeforeEach
+    void setup() {
+        Map<Integer, Long> retryDelaysMs = new HashMap<>();
+        retryDelaysMs.put(1, TestUtil.FIRST_RETRY_DELAY_MILLIS);
+        retryDelaysMs.put(2, TestUtil.SECOND_RETRY_DELAY_MILLIS);
+        props.setRetryDelaysMs(retryDelaysMs);
+    }
+
+    @Test
+    void delayFromTable() {
+        FixedBackoffPolicy policy = new FixedBackoffPolicy(props);
+        assertEquals(TestUtil.FIRST_RETRY_DELAY_MILLIS, policy.getDelayMs(1));
+        assertEquals(TestUtil.SECOND_RETRY_DELAY_MILLIS, policy.getDelayMs(2));
+    }
+
+    @Test
+    void lastDelayBeyondTable() {
+        assertEquals(TestUtil.SECOND_RETRY_DELAY_MILLIS, new FixedBackoffPolicy(props).getDelayMs(10));
+    }
+
+    @Test
+    void jitterWithinRange() {
+        props.setRetryBackoffJitter(0.5);
+        FixedBackoffPolicy policy = new FixedBackoffPolicy(props);
+        for (int i = 0; i < 100; i++) {
+            long delayMs = policy.getDelayMs(2);
+            assertTrue(delayMs > TestUtil.SECOND_RETRY_DELAY_MILLIS / 2 && delayMs <= TestUtil.SECOND_RETRY_DELAY_MILLIS);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import com.ibm.kafka.retry.consumer.serde.AuditEventBatchSerde;
+import com.ibm.kafka.retry.model.AuditEvent;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KafkaAuditServiceTest {
+
+    private static final String AUDIT_TOPIC = "retry-audit";
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    private final MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+
+    private KafkaAuditService auditService;
+
+    @BeforeEach
+    void setup() {
+        props.setRetryAuditTopic(AUDIT_TOPIC);
+        props.setRetryAuditBatchMaxEvents(2);
+        auditService = new KafkaAuditService(props, producer);
+    }
+
+    @Test
+    void fullBatchPublished() {
+        auditService.record(AuditEvent.Type.QUEUED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, 1);
+        assertTrue(producer.history().isEmpty());
+        auditService.record(AuditEvent.Type.DISPATCHED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, 1);
+        assertEquals(1, producer.history().size());
+        List<AuditEvent> events = readEvents(producer.history().get(0));
+        assertEquals(2, events.size());
+        assertEquals(AuditEvent.Type.QUEUED, events.get(0).getType());
+        assertEquals(AuditEvent.Type.DISPATCHED, events.get(1).getType());
+        assertEquals(TestUtil.ORIGIN_TOPIC, events.get(1).getOriginTopic());
+    }
+
+    @Test
+    void partialBatchPublishedOnFlush() {
+        auditService.flush();
+        assertTrue(producer.history().isEmpty());
+        auditService.record(AuditEvent.Type.DROPPED, TestUtil.MESSAGE_ID, null, 0);
+        auditService.flush();
+        assertEquals(1, producer.history().size());
+        assertEquals(AuditEvent.Type.DROPPED, readEvents(producer.history().get(0)).get(0).getType());
+    }
+
+    @Test
+    void partialBatchPublishedOnClose() {
+        auditService.record(AuditEvent.Type.DEAD_LETTERED, TestUtil.MESSAGE_ID, TestUtil.ORIGIN_TOPIC, 3);
+        auditService.close();
+        assertEquals(1, producer.history().size());
+    }
+
+    private List<AuditEvent> readEvents(ProducerRecord<String, byte[]> record) {
+        assertEquals(AUDIT_TOPIC, record.topic());
+        return new AuditEventBatchSerde().deserializer().deserialize(record.topic(), record.value());
+    }
+
+}
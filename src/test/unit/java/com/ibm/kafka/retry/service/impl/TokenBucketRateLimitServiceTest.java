@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 IBM Inc. All rights reserved
+ * SPDX-License-Identifier: Apache2.0
+ */
+
+package com.ibm.kafka.retry.service.impl;
+
+import com.ibm.kafka.retry.ApplicationProperties;
+import com.ibm.kafka.retry.TestUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketRateLimitServiceTest {
+
+    private static final long TIMESTAMP_MS = 159609916400L;
+
+    private static final String OTHER_TOPIC = "otherTopic";
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    @BeforeEach
+    void setup() {
+        props.getTopicRateLimits().put(TestUtil.ORIGIN_TOPIC, new ApplicationProperties.RateLimit(2, 0));
+    }
+
+    @Test
+    void messagesLimited() {
+        TokenBucketRateLimitService rateLimitService = new TokenBucketRateLimitService(props);
+        assertEquals(0, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 10, TIMESTAMP_MS));
+        assertEquals(0, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 10, TIMESTAMP_MS));
+        assertEquals(500, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 10, TIMESTAMP_MS));
+        assertEquals(0, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 10, TIMESTAMP_MS + 500));
+        assertEquals(500, rateLimitService.getIntervalMs(TestUtil.ORIGIN_TOPIC, 10));
+    }
+
+    @Test
+    void bytesLimited() {
+        props.getTopicRateLimits().put(TestUtil.ORIGIN_TOPIC, new ApplicationProperties.RateLimit(0, 1000));
+        TokenBucketRateLimitService rateLimitService = new TokenBucketRateLimitService(props);
+        assertEquals(0, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 800, TIMESTAMP_MS));
+        assertEquals(600, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 800, TIMESTAMP_MS));
+    }
+
+    @Test
+    void messageLargerThanBucketAllowedWhenFull() {
+        props.getTopicRateLimits().put(TestUtil.ORIGIN_TOPIC, new ApplicationProperties.RateLimit(0, 1000));
+        TokenBucketRateLimitService rateLimitService = new TokenBucketRateLimitService(props);
+        assertEquals(0, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 3000, TIMESTAMP_MS));
+        assertEquals(3000, rateLimitService.tryAcquire(TestUtil.ORIGIN_TOPIC, 3000, TIMESTAMP_MS));
+    }
+
+    @Test
+    void defaultRateLimitForOtherTopics() {
+        TokenBucketRateLimitService unlimited = new TokenBucketRateLimitService(props);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, unlimited.tryAcquire(OTHER_TOPIC, 10, TIMESTAMP_MS));
+        }
+        props.setRetryRateLimitMessagesPerSecond(1);
+        TokenBucketRateLimitService limited = new TokenBucketRateLimitService(props);
+        assertEquals(0, limited.tryAcquire(OTHER_TOPIC, 10, TIMESTAMP_MS));
+        assertEquals(1000, limited.tryAcquire(OTHER_TOPIC, 10, TIMESTAMP_MS));
+    }
+
+    @Test
+    void rateLimitChangedAtRuntime() {
+        TokenBucketRateLimitService rateLimitService = new TokenBucketRateLimitService(props);
+        rateLimitService.setRateLimit(OTHER_TOPIC, new ApplicationProperties.RateLimit(1, 0));
+        assertEquals(0, rateLimitService.tryAcquire(OTHER_TOPIC, 10, TIMESTAMP_MS));
+        assertTrue(rateLimitService.tryAcquire(OTHER_TOPIC, 10, TIMESTAMP_MS) > 0);
+        assertEquals(2, rateLimitService.getRateLimits().size());
+        rateLimitService.removeRateLimit(OTHER_TOPIC);
+        assertEquals(0, rateLimitService.tryAcquire(OTHER_TOPIC, 10, TIMESTAMP_MS));
+        assertEquals(1, rateLimitService.getRateLimits().size());
+    }
+
+}